@@ -0,0 +1,144 @@
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Measures the bytes allocated and the time taken per order by the in-JVM
+ * part of placeOrder (pricing the basket, merging repeated games, putting
+ * the games in rollup order) on the string-keyed, boxed collections used
+ * before IdCodec against the primitive IntIntMap basket used now.  The
+ * JDBC work that follows is the same for both and left out.
+ *
+ * Usage: BasketAllocationBench <dbname> <port> <user> [titles] [orders per size]
+ *
+ * No database is needed; the first three arguments are taken so that the
+ * benchmark runs through scripts/bench.sh like the others, and ignored.
+ * Allocation is read from the HotSpot per-thread counter.  Before
+ * measuring, it checks that games whose IDs IdCodec cannot encode are still
+ * priced from the catalog.
+ */
+public class BasketAllocationBench {
+
+   static final int[] BASKET_SIZES = { 1, 5, 25 };
+
+   public static void main(String[] args) throws Exception {
+      int titles = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+      int orders = args.length > 4 ? Integer.parseInt(args[4]) : 1000000;
+
+      checkUnencodableIds();
+
+      SyntheticData data = new SyntheticData(1, titles, 0, 42L);
+      Map<String, CatalogCache.Game> byId = new LinkedHashMap<String, CatalogCache.Game>();
+      for (int i = 0; i < titles; ++i) {
+         String gameID = SyntheticData.gameID(i);
+         byId.put(gameID, new CatalogCache.Game(gameID, SyntheticData.gameName(i), SyntheticData.GENRES[i % SyntheticData.GENRES.length],
+                                                BigDecimal.valueOf(data.priceCents(i), 2), "", ""));
+      }//end for
+      CatalogCache catalog = CatalogCache.of(byId);
+
+      com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+      long thread = Thread.currentThread().getId();
+      Random random = new Random(7);
+      System.out.println("basket\tbefore B/order\tnow B/order\tbefore ns/order\tnow ns/order");
+      for (int size : BASKET_SIZES) {
+         List<List<RentalService.OrderLine>> baskets = new ArrayList<List<RentalService.OrderLine>>();
+         for (int b = 0; b < 1024; ++b) {
+            List<RentalService.OrderLine> lines = new ArrayList<RentalService.OrderLine>();
+            for (int i = 0; i < size; ++i)
+               lines.add(new RentalService.OrderLine(SyntheticData.gameID(random.nextInt(titles)), 1 + random.nextInt(2)));
+            baskets.add(lines);
+         }//end for
+
+         long[][] results = new long[2][2];
+         // the first pass warms up
+         for (int pass = 0; pass < 2; ++pass) {
+            for (int way = 0; way < 2; ++way) {
+               long sink = 0;
+               long bytes = threads.getThreadAllocatedBytes(thread);
+               long start = System.nanoTime();
+               for (int i = 0; i < orders; ++i) {
+                  List<RentalService.OrderLine> lines = baskets.get(i & 1023);
+                  sink += way == 0 ? before(catalog, lines) : now(catalog, lines);
+               }//end for
+               results[way][1] = System.nanoTime() - start;
+               results[way][0] = threads.getThreadAllocatedBytes(thread) - bytes;
+               if (sink == 42)
+                  System.out.print("");
+            }//end for
+         }//end for
+         System.out.printf("%d\t%d\t%d\t%d\t%d%n", size, results[0][0] / orders, results[1][0] / orders,
+                           results[0][1] / orders, results[1][1] / orders);
+      }//end for
+   }//end main
+
+   /**
+    * A catalog row keyed "game01" (not padded to four digits) or "legacy-7"
+    * is ordered by its gameID like any other game, and an unknown gameID in
+    * either form is refused
+    */
+   static void checkUnencodableIds() throws Exception {
+      Map<String, CatalogCache.Game> byId = new LinkedHashMap<String, CatalogCache.Game>();
+      byId.put("game0001", new CatalogCache.Game("game0001", "A", "Action", new BigDecimal("10.50"), "", ""));
+      byId.put("game01", new CatalogCache.Game("game01", "B", "Puzzle", new BigDecimal("2.25"), "", ""));
+      byId.put("legacy-7", new CatalogCache.Game("legacy-7", "C", "Puzzle", new BigDecimal("0.99"), "", ""));
+      CatalogCache catalog = CatalogCache.of(byId);
+
+      RentalService.Basket basket = RentalService.basket(Arrays.asList(
+         new RentalService.OrderLine("game01", 2), new RentalService.OrderLine("game0001", 1),
+         new RentalService.OrderLine("legacy-7", 1), new RentalService.OrderLine("game01", 1)));
+      long cents = RentalService.priceCents(catalog, basket);
+      if (basket.size() != 3 || basket.numbered().get(1, 0) != 1 || basket.named().get("game01") != 3 || cents != 1050 + 3 * 225 + 99)
+         throw new IllegalStateException("basket with unencodable IDs priced at " + cents + " cents");
+      for (String unknown : new String[] { "game1", "game0002" }) {
+         try {
+            RentalService.priceCents(catalog, RentalService.basket(Arrays.asList(new RentalService.OrderLine(unknown, 1))));
+            throw new IllegalStateException(unknown + " was priced");
+         }catch (RentalService.RejectedException e) {
+            // expected
+         }//end try
+      }//end for
+      System.out.println("games with IDs outside IdCodec are priced by gameID");
+   }//end checkUnencodableIds
+
+   /**
+    * The basket handling of placeOrder, insertOrder and Analytics.recordOrder
+    * as it was with string IDs and boxed collections
+    */
+   static long before(CatalogCache catalog, List<RentalService.OrderLine> lines) throws Exception {
+      List<String> gameIDs = new ArrayList<String>();
+      for (RentalService.OrderLine line : lines)
+         gameIDs.add(line.gameID);
+      Map<String, BigDecimal> prices = new HashMap<String, BigDecimal>();
+      for (String gameID : gameIDs) {
+         CatalogCache.Game game = catalog.get(gameID);
+         if (game != null)
+            prices.put(gameID, game.price);
+      }//end for
+      BigDecimal totalPrice = BigDecimal.ZERO;
+      for (RentalService.OrderLine line : lines)
+         totalPrice = totalPrice.add(prices.get(line.gameID).multiply(BigDecimal.valueOf(line.units)));
+      Map<String, Integer> merged = new LinkedHashMap<String, Integer>();
+      for (RentalService.OrderLine line : lines)
+         merged.merge(line.gameID, line.units, Integer::sum);
+      Map<String, Integer> sorted = new TreeMap<String, Integer>(merged);
+      return totalPrice.unscaledValue().longValue() + sorted.size();
+   }//end before
+
+   /**
+    * The same with IdCodec numbers in an IntIntMap; the games are no longer
+    * sorted, as recordOrder appends rollup deltas instead of locking rows
+    */
+   static long now(CatalogCache catalog, List<RentalService.OrderLine> lines) throws Exception {
+      RentalService.Basket basket = RentalService.basket(lines);
+      long totalCents = RentalService.priceCents(catalog, basket);
+      return totalCents + basket.size();
+   }//end now
+
+}//end BasketAllocationBench
@@ -0,0 +1,108 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Measures CatalogFile on a synthetic catalog: the time to write it, to
+ * open it (what a cold start costs instead of reading Catalog), and the
+ * latency of price lookups and browsing against the heap snapshot of
+ * CatalogCache.  Every lookup is also checked against the heap snapshot.
+ *
+ * Usage: CatalogFileBench <dbname> <port> <user> [titles] [lookups]
+ *
+ * No database is needed; the first three arguments are taken so that the
+ * benchmark runs through scripts/bench.sh like the others, and ignored.
+ */
+public class CatalogFileBench {
+
+   public static void main(String[] args) throws Exception {
+      int titles = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+      int lookups = args.length > 4 ? Integer.parseInt(args[4]) : 1000000;
+
+      // in gameID order, as CatalogCache reads them
+      Map<String, CatalogCache.Game> byId = new TreeMap<String, CatalogCache.Game>();
+      try (BufferedReader in = new BufferedReader(new SyntheticData(1, titles, 0, 42L).open("Catalog"))) {
+         in.readLine();   // header
+         String line;
+         while ((line = in.readLine()) != null) {
+            List<String> r = Csv.parseLine(line);
+            byId.put(r.get(0), new CatalogCache.Game(r.get(0), r.get(1), r.get(2), new BigDecimal(r.get(3)), r.get(4), r.get(5)));
+         }//end while
+      }//end try
+
+      long start = System.nanoTime();
+      CatalogCache.Snapshot heap = new CatalogCache.Snapshot(new LinkedHashMap<String, CatalogCache.Game>(byId));
+      System.out.printf("heap snapshot of %d titles built in %.0f ms%n", heap.size(), (System.nanoTime() - start) / 1e6);
+
+      File file = File.createTempFile("catalog", ".bin");
+      file.deleteOnExit();
+      start = System.nanoTime();
+      CatalogFile.write(byId.values(), 0, file);
+      System.out.printf("wrote %d MB in %.0f ms%n", file.length() / (1024 * 1024), (System.nanoTime() - start) / 1e6);
+      start = System.nanoTime();
+      CatalogFile mapped = CatalogFile.open(file);
+      System.out.printf("opened in %.3f ms%n", (System.nanoTime() - start) / 1e6);
+
+      List<String> ids = new ArrayList<String>(byId.keySet());
+      Random random = new Random(7);
+      String[] probes = new String[lookups];
+      for (int i = 0; i < lookups; ++i)
+         probes[i] = random.nextInt(10) == 0 ? "nosuchgame" + i : ids.get(random.nextInt(ids.size()));
+
+      // the first pass warms up and checks
+      for (int pass = 0; pass < 2; ++pass) {
+         long heapNanos = 0, fileNanos = 0;
+         for (String id : probes) {
+            long t = System.nanoTime();
+            CatalogCache.Game game = heap.byId.get(id);
+            BigDecimal expected = game == null ? null : game.price;
+            heapNanos += System.nanoTime() - t;
+            t = System.nanoTime();
+            int record = mapped.find(id);
+            BigDecimal price = record < 0 ? null : mapped.price(record);
+            fileNanos += System.nanoTime() - t;
+            if (expected == null ? price != null : price == null || expected.compareTo(price) != 0)
+               throw new IllegalStateException("price of " + id + ": " + expected + " != " + price);
+         }//end for
+         if (pass == 1)
+            System.out.printf("price lookup: heap %.0f ns, file %.0f ns%n",
+                              (double) heapNanos / lookups, (double) fileNanos / lookups);
+      }//end for
+
+      for (String genre : SyntheticData.GENRES)
+         check("genre " + genre, new ArrayList<CatalogCache.Game>(heap.byGenre.get(genre).values()), mapped.byGenre(genre));
+      for (BigDecimal price : new BigDecimal[] { new BigDecimal("15.99"), new BigDecimal("33.99"), new BigDecimal("50.99") }) {
+         List<CatalogCache.Game> expected = new ArrayList<CatalogCache.Game>();
+         for (CatalogCache.Game g : heap.byPrice.values())
+            if (g.price.compareTo(price) == 0)
+               expected.add(g);
+         check("price " + price, expected, mapped.byPrice(price));
+      }//end for
+      check("sorted by price", new ArrayList<CatalogCache.Game>(heap.byPrice.values()), mapped.sortedByPrice(true));
+
+      start = System.nanoTime();
+      List<CatalogCache.Game> page = mapped.sortedByPrice(false);
+      for (int i = 0; i < 20; ++i)
+         page.get(i);
+      System.out.printf("first page of HightoLow from the file in %.3f ms%n", (System.nanoTime() - start) / 1e6);
+      System.out.println("file and heap snapshot agree");
+   }//end main
+
+   static void check(String what, List<CatalogCache.Game> expected, List<CatalogCache.Game> actual) {
+      if (expected.size() != actual.size())
+         throw new IllegalStateException(what + ": " + expected.size() + " games != " + actual.size());
+      for (int i = 0; i < expected.size(); ++i) {
+         CatalogCache.Game e = expected.get(i), a = actual.get(i);
+         if (!e.gameID.equals(a.gameID) || !e.gameName.equals(a.gameName) || !e.genre.equals(a.genre)
+             || e.price.compareTo(a.price) != 0 || !e.description.equals(a.description) || !e.imageURL.equals(a.imageURL))
+            throw new IllegalStateException(what + ": game " + i + " is " + a.gameID + ", expected " + e.gameID);
+      }//end for
+   }//end check
+
+}//end CatalogFileBench
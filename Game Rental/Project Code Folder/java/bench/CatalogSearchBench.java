@@ -0,0 +1,76 @@
+import java.io.BufferedReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures CatalogSearch on a synthetic catalog held in memory: the time to
+ * build the index and the p50/p99/max latency of ranked, faceted searches
+ * of the kinds the menu issues (a name word, a platform, a publisher, two
+ * words, a filter without words, a deep page).
+ *
+ * Usage: CatalogSearchBench <dbname> <port> <user> [titles] [searches per kind]
+ *
+ * No database is needed; the first three arguments are taken so that the
+ * benchmark runs through scripts/bench.sh like the others, and ignored.
+ */
+public class CatalogSearchBench {
+
+   public static void main(String[] args) throws Exception {
+      int titles = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+      int searches = args.length > 4 ? Integer.parseInt(args[4]) : 2000;
+
+      List<CatalogCache.Game> games = new ArrayList<CatalogCache.Game>(titles);
+      try (BufferedReader in = new BufferedReader(new SyntheticData(1, titles, 0, 42L).open("Catalog"))) {
+         in.readLine();   // header
+         String line;
+         while ((line = in.readLine()) != null) {
+            List<String> r = Csv.parseLine(line);
+            games.add(new CatalogCache.Game(r.get(0), r.get(1), r.get(2), new BigDecimal(r.get(3)), r.get(4), r.get(5)));
+         }//end while
+      }//end try
+
+      long start = System.nanoTime();
+      CatalogSearch search = new CatalogSearch(games);
+      System.out.printf("indexed %d titles in %.0f ms%n", search.size(), (System.nanoTime() - start) / 1e6);
+
+      Random random = new Random(7);
+      String[][] kinds = {
+         // name, words, genre, platform, min, max, offset
+         { "name word", null, null, null, null, null, "0" },
+         { "two name words", null, null, null, null, null, "0" },
+         { "platform", "PS4", null, null, null, null, "0" },
+         { "publisher and genre", "nintendo", "Racing", null, null, null, "0" },
+         { "filters only", "", "Action", "Wii", "20", "40", "0" },
+         { "deep page", "dark", null, null, null, null, "9900" },
+      };
+      System.out.println("search\thits\tp50 ms\tp99 ms\tmax ms");
+      for (String[] kind : kinds) {
+         long[] nanos = new long[searches];
+         int hits = 0;
+         // the first pass warms up
+         for (int pass = 0; pass < 2; ++pass) {
+            for (int i = 0; i < searches; ++i) {
+               String text = kind[1];
+               if (kind[0].equals("name word"))
+                  text = SyntheticData.NOUNS[random.nextInt(SyntheticData.NOUNS.length)];
+               else if (kind[0].equals("two name words"))
+                  text = SyntheticData.ADJECTIVES[random.nextInt(SyntheticData.ADJECTIVES.length)] + " "
+                       + SyntheticData.NOUNS[random.nextInt(SyntheticData.NOUNS.length)];
+               CatalogSearch.Query query = new CatalogSearch.Query(
+                  text, kind[2], kind[3], kind[4] == null ? null : new BigDecimal(kind[4]),
+                  kind[5] == null ? null : new BigDecimal(kind[5]), Integer.parseInt(kind[6]), CatalogSearch.PAGE_SIZE);
+               long t = System.nanoTime();
+               hits = search.search(query).totalHits;
+               nanos[i] = System.nanoTime() - t;
+            }//end for
+         }//end for
+         Arrays.sort(nanos);
+         System.out.printf("%s\t%d\t%.3f\t%.3f\t%.3f%n", kind[0], hits, nanos[searches / 2] / 1e6,
+                           nanos[Math.min(searches - 1, (int) (searches * 0.99))] / 1e6, nanos[searches - 1] / 1e6);
+      }//end for
+   }//end main
+
+}//end CatalogSearchBench
@@ -0,0 +1,97 @@
+import java.util.List;
+
+/**
+ * Regression check for create_indexes.sql.  Runs EXPLAIN on the queries
+ * behind the customer menus and fails when a plan does not use the index
+ * designed for it.  Run it on a scaled dataset; on the small sample in
+ * data/ a sequential scan is legitimately cheaper.
+ *
+ * Usage: IndexPlanCheck <dbname> <port> <user>
+ */
+public class IndexPlanCheck {
+
+   // menu operation, expected index, query
+   static final Object[][] CHECKS = {
+      { "viewAllOrders next page", "rentalorder_login_ts_idx",
+        "SELECT rentalOrderID, orderTimestamp FROM RentalOrder WHERE login = ?"
+        + " AND (orderTimestamp, rentalOrderID) < (CAST(? AS timestamp), ?)"
+        + " ORDER BY orderTimestamp DESC, rentalOrderID DESC LIMIT 21" },
+      { "viewRecentOrders", "rentalorder_login_ts_idx",
+        "SELECT rentalOrderID, orderTimestamp FROM RentalOrder WHERE login = ?"
+        + " ORDER BY orderTimestamp DESC, rentalOrderID DESC LIMIT 6" },
+      { "OverdueEngine tick", "rentalorder_duedate_idx",
+        "SELECT login, sum(noOfGames) FROM RentalOrder"
+        + " WHERE dueDate > CAST(? AS timestamp) AND dueDate <= CAST(? AS timestamp) GROUP BY login" },
+      { "viewOrderInfo tracking join", "trackinginfo_rentalorderid_idx",
+        "SELECT T.trackingID FROM TrackingInfo T WHERE T.rentalOrderID = ?" },
+      { "GamesInOrder by game", "gamesinorder_gameid_idx",
+        "SELECT rentalOrderID FROM GamesInOrder WHERE gameID = ?" },
+      { "findFans", "favoritegames_gamename_idx",
+        "SELECT login FROM FavoriteGames WHERE gameName = ? AND login > ? ORDER BY login LIMIT 21" },
+      { "Analytics top games", "gamerentals_units_idx",
+        "SELECT gameID, orders, units FROM GameRentals ORDER BY units DESC LIMIT 10" },
+      { "Analytics top renters", "rentertotals_spent_idx",
+        "SELECT login, orders, games, spent FROM RenterTotals ORDER BY spent DESC LIMIT 10" },
+      { "OrderSnapshot refresh", "rentalorder_ordertimestamp_idx",
+        "SELECT rentalOrderID FROM RentalOrder WHERE orderTimestamp >= CAST(? AS timestamp)" },
+   };
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java IndexPlanCheck <dbname> <port> <user>");
+         return;
+      }//end if
+      Class.forName("org.postgresql.Driver");
+      GameRental esql = new GameRental(args[0], args[1], args[2], "");
+      int failures = 0;
+      try {
+         // fresh statistics and visibility map so the planner sees the real costs
+         esql.executeUpdate("VACUUM ANALYZE");
+
+         // probe values taken from the data itself
+         String login = first(esql, "SELECT login FROM RentalOrder GROUP BY login ORDER BY count(*) DESC LIMIT 1");
+         String rentalOrderID = first(esql, "SELECT rentalOrderID FROM RentalOrder LIMIT 1");
+         String gameID = first(esql, "SELECT gameID FROM Catalog LIMIT 1");
+         String favorite = first(esql, "SELECT gameName FROM FavoriteGames GROUP BY gameName ORDER BY count(*) LIMIT 1");
+         // a page boundary in the middle of that login's history
+         List<String> middle = esql.executeQueryAndReturnResult(
+            "SELECT orderTimestamp, rentalOrderID FROM RentalOrder WHERE login = ?"
+            + " ORDER BY orderTimestamp DESC, rentalOrderID DESC OFFSET (SELECT count(*) / 2 FROM RentalOrder WHERE login = ?) LIMIT 1",
+            login, login).get(0);
+         // a one-hour tick window just before the latest due date
+         String dueTo = first(esql, "SELECT max(dueDate) FROM RentalOrder");
+         String dueFrom = first(esql, "SELECT max(dueDate) - interval '1 hour' FROM RentalOrder");
+         // the last minute of orders
+         String recent = first(esql, "SELECT max(orderTimestamp) - interval '1 minute' FROM RentalOrder");
+         Object[][] params = {
+            { login, middle.get(0), middle.get(1) }, { login }, { dueFrom, dueTo }, { rentalOrderID }, { gameID },
+            { favorite, "" }, {}, {}, { recent }
+         };
+
+         for (int i = 0; i < CHECKS.length; ++i) {
+            String name = (String) CHECKS[i][0];
+            String index = (String) CHECKS[i][1];
+            List<List<String>> plan = esql.executeQueryAndReturnResult("EXPLAIN " + CHECKS[i][2], params[i]);
+            StringBuilder text = new StringBuilder();
+            for (List<String> row : plan)
+               text.append(row.get(0)).append('\n');
+            boolean ok = text.indexOf("Index") >= 0 && text.indexOf(index) >= 0;
+            System.out.println((ok ? "PASS  " : "FAIL  ") + name + " -> " + index);
+            if (!ok) {
+               ++failures;
+               System.out.print(text);
+            }//end if
+         }//end for
+      } finally {
+         esql.cleanup();
+      }//end try
+      System.out.println(failures == 0 ? "All plans use their index" : failures + " plan(s) missed their index");
+      System.exit(failures == 0 ? 0 : 1);
+   }//end main
+
+   static String first(GameRental esql, String query) throws Exception {
+      List<List<String>> result = esql.executeQueryAndReturnResult(query);
+      return result.isEmpty() ? "" : result.get(0).get(0);
+   }//end first
+
+}//end IndexPlanCheck
@@ -0,0 +1,186 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Load generator for RentalServer.  Opens the given number of concurrent
+ * client sessions, each logging in and then issuing a customer mix of
+ * requests (catalog browsing, order history, order info, profile) with a
+ * think time between them, and reports requests/sec and p50/p99/max
+ * latency at the end.
+ *
+ * Usage: LoadGenerator <dbname> <port> <user> <sessions> <seconds> <login> <password> [think ms] [host:port]
+ *
+ * Without host:port a RentalServer is started in this process on the given
+ * database, so the whole round trip can be measured on one machine.  The
+ * client sessions run on virtual threads when the JVM has them.
+ */
+public class LoadGenerator {
+
+   // latency histogram in 10us buckets, the last one collecting everything above 10s
+   static final int BUCKET_MICROS = 10;
+   static final AtomicLongArray HISTOGRAM = new AtomicLongArray(1000000);
+   static final AtomicLong REQUESTS = new AtomicLong();
+   static final AtomicLong ERRORS = new AtomicLong();
+   static final AtomicLong FAILED_SESSIONS = new AtomicLong();
+   static final AtomicLong MAX_NANOS = new AtomicLong();
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 7) {
+         System.err.println("Usage: java LoadGenerator <dbname> <port> <user> <sessions> <seconds> <login> <password> [think ms] [host:port]");
+         return;
+      }//end if
+      int sessions = Integer.parseInt(args[3]);
+      final long seconds = Long.parseLong(args[4]);
+      final String login = args[5];
+      final String password = args[6];
+      final long thinkMillis = args.length > 7 ? Long.parseLong(args[7]) : 100;
+
+      String host = "localhost";
+      int port;
+      GameRental esql = null;
+      RentalServer server = null;
+      if (args.length > 8) {
+         host = args[8].substring(0, args[8].lastIndexOf(':'));
+         port = Integer.parseInt(args[8].substring(args[8].lastIndexOf(':') + 1));
+      } else {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         server = new RentalServer(new RentalService(esql), 0);
+         port = server.getPort();
+         final RentalServer s = server;
+         Thread acceptor = new Thread(s::serve, "RentalServer-acceptor");
+         acceptor.setDaemon(true);
+         acceptor.start();
+      }//end if
+
+      System.out.println("Starting " + sessions + " sessions against " + host + ":" + port + " for " + seconds
+                         + " s, think time " + thinkMillis + " ms, "
+                         + (SessionExecutors.isVirtual() ? "virtual" : "platform") + " client threads");
+      final String serverHost = host;
+      final int serverPort = port;
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+      ExecutorService clients = SessionExecutors.newThreadPerSession("LoadClient");
+      long start = System.nanoTime();
+      for (int i = 0; i < sessions; ++i) {
+         final long seed = i;
+         clients.execute(() -> client(serverHost, serverPort, login, password, thinkMillis, deadline, seed));
+      }//end for
+      clients.shutdown();
+      clients.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+      double elapsed = (System.nanoTime() - start) / 1e9;
+
+      long requests = REQUESTS.get();
+      System.out.printf("requests=%d errors=%d failedSessions=%d%n", requests, ERRORS.get(), FAILED_SESSIONS.get());
+      System.out.printf("throughput %.0f req/s%n", requests / elapsed);
+      System.out.printf("latency p50 %.2f ms  p99 %.2f ms  max %.2f ms%n",
+                        percentile(requests, 0.50), percentile(requests, 0.99), MAX_NANOS.get() / 1e6);
+      if (server != null) {
+         System.out.println("Server: " + server);
+         System.out.println("Connection pool: " + esql.getPool());
+         server.close();
+         esql.cleanup();
+      }//end if
+   }//end main
+
+   static void client(String host, int port, String login, String password,
+                      long thinkMillis, long deadline, long seed) {
+      Random random = new Random(seed);
+      try (Socket socket = new Socket(host, port)) {
+         socket.setTcpNoDelay(true);
+         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+         Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+         if (call(in, out, "LOGIN", login, password) == null) {
+            FAILED_SESSIONS.incrementAndGet();
+            return;
+         }//end if
+         List<List<String>> recent = new ArrayList<List<String>>();
+         while (System.nanoTime() < deadline) {
+            // think time spread over [0, 2 x think] so the sessions do not move in lockstep
+            if (thinkMillis > 0)
+               Thread.sleep((long) (random.nextDouble() * 2 * thinkMillis));
+            int pick = random.nextInt(100);
+            if (pick < 35) {
+               call(in, out, "CATALOG", "GENRE", SyntheticData.GENRES[random.nextInt(SyntheticData.GENRES.length)]);
+            } else if (pick < 45) {
+               call(in, out, "CATALOG", random.nextBoolean() ? "ASC" : "DESC");
+            } else if (pick < 75) {
+               List<List<String>> rows = call(in, out, "ORDERS", "5");
+               // the first row is the next page token
+               if (rows != null)
+                  recent = rows.subList(1, rows.size());
+            } else if (pick < 90 && !recent.isEmpty()) {
+               call(in, out, "ORDERINFO", recent.get(random.nextInt(recent.size())).get(0));
+            } else {
+               call(in, out, "PROFILE");
+            }//end if
+         }//end while
+         call(in, out, "QUIT");
+      }catch (IOException | InterruptedException e) {
+         FAILED_SESSIONS.incrementAndGet();
+      }//end try
+   }//end client
+
+   /**
+    * Sends one request and reads its reply
+    *
+    * @return the reply rows, or null on ERR
+    */
+   static List<List<String>> call(BufferedReader in, Writer out, String... request) throws IOException {
+      List<String> fields = new ArrayList<String>();
+      for (String field : request)
+         fields.add(field);
+      long start = System.nanoTime();
+      out.write(RentalServer.join(fields) + "\n");
+      out.flush();
+      if (request[0].equals("QUIT"))
+         return null;
+      String status = in.readLine();
+      if (status == null)
+         throw new IOException("Server closed the connection");
+      List<List<String>> rows = null;
+      if (status.startsWith("OK ")) {
+         int n = Integer.parseInt(status.substring(3).trim());
+         rows = new ArrayList<List<String>>(n);
+         for (int i = 0; i < n; ++i)
+            rows.add(RentalServer.split(in.readLine()));
+      } else {
+         ERRORS.incrementAndGet();
+      }//end if
+      record(System.nanoTime() - start);
+      return rows;
+   }//end call
+
+   static void record(long nanos) {
+      REQUESTS.incrementAndGet();
+      MAX_NANOS.accumulateAndGet(nanos, Math::max);
+      HISTOGRAM.incrementAndGet((int) Math.min(HISTOGRAM.length() - 1, nanos / 1000 / BUCKET_MICROS));
+   }//end record
+
+   /**
+    * @return the latency percentile in milliseconds
+    */
+   static double percentile(long count, double fraction) {
+      long rank = (long) Math.ceil(count * fraction);
+      long seen = 0;
+      for (int i = 0; i < HISTOGRAM.length(); ++i) {
+         seen += HISTOGRAM.get(i);
+         if (seen >= rank && seen > 0)
+            return (i + 1) * BUCKET_MICROS / 1000.0;
+      }//end for
+      return 0;
+   }//end percentile
+
+}//end LoadGenerator
@@ -0,0 +1,176 @@
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks the data-access path of each menu operation and reports, per
+ * operation, the throughput, the p50/p99 latency and the bytes allocated
+ * per call, so runs can be compared release over release.
+ *
+ * Operations are driven through the RentalService methods behind the menu
+ * entries.  Every operation gets warm-up calls before its measured calls,
+ * and runs on a single thread so the allocation counter of that thread
+ * covers the whole call.
+ *
+ * Usage: OperationsBench <dbname> <port> <user> [calls per operation] [results file]
+ *
+ * Run it against a database loaded with data/ (or a generated dataset).
+ * The orders it places are deleted and the tracking row it updates is put
+ * back when the run finishes, each with its share of the analytics
+ * rollups.  With a results file, one tab separated line per operation is
+ * appended to it, stamped with the run time.
+ */
+public class OperationsBench {
+
+   // marks the orders and tracking rows written by the benchmark
+   static final String ID_PREFIX = "opsbench-";
+
+   /**
+    * One call of a benchmarked operation
+    */
+   interface Operation {
+      void call(int i) throws Exception;
+   }
+
+   static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java OperationsBench <dbname> <port> <user> [calls per operation] [results file]");
+         return;
+      }//end if
+      final int calls = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+      String resultsFile = args.length > 4 ? args[4] : null;
+
+      Class.forName("org.postgresql.Driver");
+      final GameRental esql = new GameRental(args[0], args[1], args[2], "");
+      final RentalService service = new RentalService(esql);
+      List<String> trackingRow = null;
+      String trackingID = null;
+      try {
+         // probe values taken from the data itself
+         List<String> user = esql.executeQueryAndReturnResult(
+            "SELECT U.login, U.password FROM Users U JOIN RentalOrder R ON R.login = U.login"
+            + " GROUP BY U.login, U.password ORDER BY count(*) DESC LIMIT 1").get(0);
+         final String login = user.get(0);
+         final String password = user.get(1);
+         final String rentalOrderID = esql.executeQueryAndReturnResult(
+            "SELECT rentalOrderID FROM RentalOrder WHERE login = ? LIMIT 1", login).get(0).get(0);
+         trackingRow = esql.executeQueryAndReturnResult(
+            "SELECT trackingID, status, currentLocation, courierName, lastUpdateDate, additionalComments"
+            + " FROM TrackingInfo WHERE rentalOrderID = ?", rentalOrderID).get(0);
+         trackingID = trackingRow.get(0);
+         final String tracking = trackingID;
+         final List<String> gameIDs = new ArrayList<String>();
+         final List<String> genres = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult("SELECT gameID, genre FROM Catalog ORDER BY gameID LIMIT 50")) {
+            gameIDs.add(row.get(0));
+            if (!genres.contains(row.get(1)))
+               genres.add(row.get(1));
+         }//end for
+         final UserProfile session = service.logIn(new RentalService.LogInRequest(login, password));
+
+         Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+         operations.put("LogIn", i -> service.logIn(new RentalService.LogInRequest(login, password)));
+         operations.put("getGamePrice", i -> service.getGamePrice(gameIDs.get(i % gameIDs.size())));
+         operations.put("placeOrder insert", i -> {
+            List<RentalService.OrderLine> basket = new ArrayList<RentalService.OrderLine>();
+            for (int k = 0; k < 3; ++k)
+               basket.add(new RentalService.OrderLine(gameIDs.get(i % 40 + k), 1 + k % 2));
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            service.insertOrder(ID_PREFIX + esql.nextRentalOrderID(), ID_PREFIX + esql.nextTrackingID(),
+                                login, RentalService.basket(basket), 4, BigDecimal.TEN, now,
+                                new Timestamp(now.getTime() + RentalService.RENTAL_PERIOD_MILLIS));
+         });
+         operations.put("viewRecentOrders", i -> service.orderHistory(session, RentalService.OrderHistoryRequest.firstPage(5)));
+         operations.put("viewOrderInfo", i -> service.orderInfo(session, rentalOrderID));
+         operations.put("findGenre", i ->
+            service.browseCatalog(RentalService.CatalogRequest.byGenre(genres.get(i % genres.size()))));
+         operations.put("LowtoHigh", i -> service.browseCatalog(RentalService.CatalogRequest.sortedByPrice(true)));
+         operations.put("updateStatus", i -> service.updateTracking(session, new RentalService.UpdateTrackingRequest(
+            tracking, RentalService.UpdateTrackingRequest.Field.STATUS, "In Transit")));
+         operations.put("updateCurrentLocation", i -> service.updateTracking(session, new RentalService.UpdateTrackingRequest(
+            tracking, RentalService.UpdateTrackingRequest.Field.CURRENT_LOCATION, "Houston,TX")));
+         operations.put("updateCourierName", i -> service.updateTracking(session, new RentalService.UpdateTrackingRequest(
+            tracking, RentalService.UpdateTrackingRequest.Field.COURIER_NAME, "UPS")));
+         operations.put("updateAdditionalComments", i -> service.updateTracking(session, new RentalService.UpdateTrackingRequest(
+            tracking, RentalService.UpdateTrackingRequest.Field.ADDITIONAL_COMMENTS, "benchmark " + i)));
+
+         String stamp = new Timestamp(System.currentTimeMillis()).toString();
+         List<String> lines = new ArrayList<String>();
+         System.out.println("operation\tops/s\tp50 us\tp99 us\tbytes/op");
+         for (Map.Entry<String, Operation> e : operations.entrySet()) {
+            String result = measure(e.getValue(), calls);
+            System.out.println(e.getKey() + "\t" + result);
+            lines.add(stamp + "\t" + e.getKey() + "\t" + result);
+         }//end for
+
+         if (resultsFile != null) {
+            PrintWriter out = new PrintWriter(new FileWriter(resultsFile, true));
+            try {
+               for (String line : lines)
+                  out.println(line);
+            } finally {
+               out.close();
+            }//end try
+         }//end if
+      } finally {
+         final Analytics analytics = new Analytics(esql);
+         analytics.deleteOrders(ID_PREFIX + "%");
+         if (trackingRow != null) {
+            final List<String> original = trackingRow;
+            final String tracking = trackingID;
+            esql.inTransaction(() -> {
+               String status = esql.executeQueryAndReturnResult(
+                  "SELECT status FROM TrackingInfo WHERE trackingID = ? FOR UPDATE", tracking).get(0).get(0);
+               esql.executeUpdate("UPDATE TrackingInfo SET status = ?, currentLocation = ?, courierName = ?,"
+                                  + " lastUpdateDate = CAST(? AS timestamp), additionalComments = ? WHERE trackingID = ?",
+                                  original.get(1), original.get(2), original.get(3),
+                                  original.get(4), original.get(5), tracking);
+               analytics.recordStatusChanges(Collections.singletonList(new String[] { status, original.get(1) }));
+               return null;
+            });
+         }//end if
+         esql.cleanup();
+      }//end try
+   }//end main
+
+   /**
+    * Runs warm-up calls, then the measured calls of one operation
+    *
+    * @return ops/s, p50 us, p99 us and bytes/op, tab separated
+    */
+   static String measure(Operation op, int calls) throws Exception {
+      long thread = Thread.currentThread().getId();
+      long[] nanos = new long[calls];
+      long allocated;
+      long elapsed;
+      for (int i = 0; i < Math.max(100, calls / 5); ++i)
+         op.call(i);
+      long allocStart = THREADS.getThreadAllocatedBytes(thread);
+      long runStart = System.nanoTime();
+      for (int i = 0; i < calls; ++i) {
+         long start = System.nanoTime();
+         op.call(i);
+         nanos[i] = System.nanoTime() - start;
+      }//end for
+      elapsed = System.nanoTime() - runStart;
+      allocated = THREADS.getThreadAllocatedBytes(thread) - allocStart;
+      Arrays.sort(nanos);
+      return String.format("%.0f\t%.1f\t%.1f\t%d",
+                           calls / (elapsed / 1e9),
+                           nanos[calls / 2] / 1e3,
+                           nanos[Math.min(calls - 1, (int) (calls * 0.99))] / 1e3,
+                           allocated / calls);
+   }//end measure
+
+}//end OperationsBench
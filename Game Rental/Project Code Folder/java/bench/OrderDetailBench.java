@@ -0,0 +1,94 @@
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares the latency of reading an order's detail with the former two
+ * queries (a DISTINCT four-way join for the header, then the game names)
+ * against the single RentalService.orderInfo query, for orders of growing
+ * size.  The four-way join repeats the header once per game before DISTINCT
+ * folds it back, so the gap should widen with the number of games.
+ *
+ * Usage: OrderDetailBench <dbname> <port> <user> [login] [reads per size]
+ *
+ * The orders are written for an existing login and removed, rollup
+ * deltas included, when the run finishes.
+ */
+public class OrderDetailBench {
+
+   static final int[] ORDER_SIZES = { 1, 10, 50, 200 };
+   static final String ID_PREFIX = "benchdetail";
+
+   static final String LEGACY_HEADER =
+      "SELECT DISTINCT R.orderTimestamp, R.dueDate, R.totalPrice, T.trackingID FROM RentalOrder R"
+      + " INNER JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID"
+      + " INNER JOIN GamesInOrder G On R.rentalOrderID = G.rentalOrderID"
+      + " INNER JOIN Catalog C ON C.gameID = G.gameID WHERE login = ? AND R.rentalOrderID = ?";
+   static final String LEGACY_GAMES =
+      "SELECT C.gameName FROM GamesInOrder G INNER JOIN Catalog C ON G.gameID = C.gameID"
+      + " WHERE G.rentalOrderID = ? Order BY C.gameName";
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java OrderDetailBench <dbname> <port> <user> [login] [reads per size]");
+         return;
+      }//end if
+      String login = args.length > 3 ? args[3] : "katiepotts4";
+      int reads = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+
+      Class.forName("org.postgresql.Driver");
+      GameRental esql = new GameRental(args[0], args[1], args[2], "");
+      RentalService service = new RentalService(esql);
+      try {
+         List<String> credentials = esql.executeQueryAndReturnResult(
+            "SELECT login, password FROM Users WHERE login = ?", login).get(0);
+         UserProfile session = service.logIn(new RentalService.LogInRequest(credentials.get(0), credentials.get(1)));
+
+         List<String> games = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult(
+                  "SELECT gameID FROM Catalog ORDER BY gameID LIMIT ?", ORDER_SIZES[ORDER_SIZES.length - 1]))
+            games.add(row.get(0));
+
+         System.out.println("games\treads\ttwo queries p50 ms\tp99 ms\tone query p50 ms\tp99 ms");
+         for (int size : ORDER_SIZES) {
+            if (size > games.size())
+               break;
+            String rentalOrderID = ID_PREFIX + size;
+            List<RentalService.OrderLine> lines = new ArrayList<RentalService.OrderLine>();
+            for (String gameID : games.subList(0, size))
+               lines.add(new RentalService.OrderLine(gameID, 1));
+            Timestamp now = new Timestamp(System.currentTimeMillis());
+            service.insertOrder(rentalOrderID, ID_PREFIX + "tracking" + size, login, RentalService.basket(lines), size, BigDecimal.ONE,
+                                now, new Timestamp(now.getTime() + RentalService.RENTAL_PERIOD_MILLIS));
+
+            long[] legacy = new long[reads];
+            long[] single = new long[reads];
+            // interleaved so both see the same cache and server state; the
+            // first pass of each warms up
+            for (int pass = 0; pass < 2; ++pass) {
+               for (int i = 0; i < reads; ++i) {
+                  long start = System.nanoTime();
+                  esql.executeQueryAndReturnResult(LEGACY_HEADER, login, rentalOrderID);
+                  esql.executeQueryAndReturnResult(LEGACY_GAMES, rentalOrderID);
+                  legacy[i] = System.nanoTime() - start;
+
+                  start = System.nanoTime();
+                  service.orderInfo(session, rentalOrderID);
+                  single[i] = System.nanoTime() - start;
+               }//end for
+            }//end for
+            Arrays.sort(legacy);
+            Arrays.sort(single);
+            System.out.printf("%d\t%d\t%.3f\t%.3f\t%.3f\t%.3f%n", size, reads,
+                              legacy[reads / 2] / 1e6, legacy[Math.min(reads - 1, (int) (reads * 0.99))] / 1e6,
+                              single[reads / 2] / 1e6, single[Math.min(reads - 1, (int) (reads * 0.99))] / 1e6);
+         }//end for
+      } finally {
+         new Analytics(esql).deleteOrders(ID_PREFIX + "%");
+         esql.cleanup();
+      }//end try
+   }//end main
+
+}//end OrderDetailBench
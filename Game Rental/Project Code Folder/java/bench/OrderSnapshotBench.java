@@ -0,0 +1,104 @@
+import java.io.BufferedReader;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Measures OrderSnapshot on synthetic orders held in memory: the time and
+ * heap taken to load them, and the time of scans by login, by month and by
+ * game with one worker and with PARALLELISM workers.
+ *
+ * Usage: OrderSnapshotBench <dbname> <port> <user> [orders] [users] [games]
+ *
+ * No database is needed; the first three arguments are taken so that the
+ * benchmark runs through scripts/bench.sh like the others, and ignored.
+ * Give the JVM enough heap for the orders, e.g. -Xmx4g for 30M orders.
+ */
+public class OrderSnapshotBench {
+
+   public static void main(String[] args) throws Exception {
+      long orders = args.length > 3 ? Long.parseLong(args[3]) : 5000000L;
+      int users = args.length > 4 ? Integer.parseInt(args[4]) : 100000;
+      int games = args.length > 5 ? Integer.parseInt(args[5]) : 20000;
+      SyntheticData data = new SyntheticData(users, games, orders, 42L);
+
+      Runtime rt = Runtime.getRuntime();
+      System.gc();
+      long heapBefore = rt.totalMemory() - rt.freeMemory();
+      long start = System.nanoTime();
+      OrderSnapshot parallel = new OrderSnapshot(null, OrderSnapshot.PARALLELISM);
+      OrderSnapshot single = new OrderSnapshot(null, 1);
+      load(data, parallel);
+      double loadSeconds = (System.nanoTime() - start) / 1e9;
+      System.gc();
+      long heap = rt.totalMemory() - rt.freeMemory() - heapBefore;
+      System.out.printf("loaded %s in %.1f s, %d MB of heap%n", parallel, loadSeconds, heap / (1024 * 1024));
+      load(data, single);
+
+      OrderSnapshot.Filter lastYear = new OrderSnapshot.Filter(null, LocalDateTime.of(2023, 1, 1, 0, 0), null, null);
+      Object[][] scans = {
+         { "by month", OrderSnapshot.Filter.ALL, OrderSnapshot.GroupBy.MONTH },
+         { "by login", OrderSnapshot.Filter.ALL, OrderSnapshot.GroupBy.LOGIN },
+         { "by game", OrderSnapshot.Filter.ALL, OrderSnapshot.GroupBy.GAME },
+         { "by game, last year", lastYear, OrderSnapshot.GroupBy.GAME },
+         { "one login by month", new OrderSnapshot.Filter(SyntheticData.login(0), null, null, null), OrderSnapshot.GroupBy.MONTH },
+         { "one game by month", new OrderSnapshot.Filter(null, null, null, SyntheticData.gameID(0)), OrderSnapshot.GroupBy.MONTH },
+      };
+      System.out.println("scan\tgroups\t1 worker ms\t" + OrderSnapshot.PARALLELISM + " workers ms");
+      for (Object[] scan : scans) {
+         OrderSnapshot.Filter filter = (OrderSnapshot.Filter) scan[1];
+         OrderSnapshot.GroupBy by = (OrderSnapshot.GroupBy) scan[2];
+         double one = time(single, filter, by);
+         double many = time(parallel, filter, by);
+         System.out.printf("%s\t%d\t%.1f\t%.1f%n", scan[0], parallel.aggregate(filter, by).size(), one, many);
+      }//end for
+   }//end main
+
+   /**
+    * Appends the RentalOrder and GamesInOrder rows of data, which both come
+    * in order row order
+    */
+   static void load(SyntheticData data, OrderSnapshot snapshot) throws Exception {
+      try (BufferedReader orders = new BufferedReader(data.open("RentalOrder"));
+           BufferedReader lines = new BufferedReader(data.open("GamesInOrder"))) {
+         orders.readLine();   // headers
+         lines.readLine();
+         List<String> line = nextRow(lines);
+         String o;
+         while ((o = orders.readLine()) != null) {
+            List<String> order = Csv.parseLine(o);
+            int row = snapshot.appendOrder(order.get(1),
+                                           OrderSnapshot.epochSecond(Timestamp.valueOf(order.get(4)).toLocalDateTime()),
+                                           Integer.parseInt(order.get(2)),
+                                           new BigDecimal(order.get(3)).movePointRight(2).longValue());
+            while (line != null && line.get(0).equals(order.get(0))) {
+               snapshot.appendLine(row, line.get(1), Integer.parseInt(line.get(2)));
+               line = nextRow(lines);
+            }//end while
+         }//end while
+      }//end try
+      snapshot.publish();
+   }//end load
+
+   static List<String> nextRow(BufferedReader in) throws Exception {
+      String line = in.readLine();
+      return line == null ? null : Csv.parseLine(line);
+   }//end nextRow
+
+   /**
+    * @return the median milliseconds of five scans, after two to warm up
+    */
+   static double time(OrderSnapshot snapshot, OrderSnapshot.Filter filter, OrderSnapshot.GroupBy by) {
+      long[] nanos = new long[5];
+      for (int i = -2; i < nanos.length; ++i) {
+         long t = System.nanoTime();
+         snapshot.aggregate(filter, by);
+         if (i >= 0)
+            nanos[i] = System.nanoTime() - t;
+      }//end for
+      java.util.Arrays.sort(nanos);
+      return nanos[nanos.length / 2] / 1e6;
+   }//end time
+
+}//end OrderSnapshotBench
@@ -0,0 +1,80 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the commit latency of RentalService.insertOrder against the basket
+ * size.  With the games sent as one statement inside one transaction the
+ * latency should stay nearly flat as the basket grows.
+ *
+ * Usage: PlaceOrderBench <dbname> <port> <user> [login] [orders per size]
+ *
+ * The orders are written for an existing login and deleted again with
+ * Analytics.deleteOrders when the run finishes.
+ */
+public class PlaceOrderBench {
+
+   static final int[] BASKET_SIZES = { 1, 2, 5, 10, 25, 50 };
+   static final String ID_PREFIX = "benchorder";
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java PlaceOrderBench <dbname> <port> <user> [login] [orders per size]");
+         return;
+      }//end if
+      String login = args.length > 3 ? args[3] : "katiepotts4";
+      int orders = args.length > 4 ? Integer.parseInt(args[4]) : 200;
+
+      Class.forName("org.postgresql.Driver");
+      GameRental esql = new GameRental(args[0], args[1], args[2], "");
+      RentalService service = new RentalService(esql);
+      try {
+         List<String> games = new ArrayList<String>();
+         for (List<String> row : esql.executeQueryAndReturnResult(
+                  "SELECT gameID FROM Catalog ORDER BY gameID LIMIT ?", BASKET_SIZES[BASKET_SIZES.length - 1]))
+            games.add(row.get(0));
+
+         // warm up the pool and the statement caches
+         run(service, login, games, 1, orders, 0);
+
+         System.out.println("basket\torders\tmean ms\tp50 ms\tp99 ms");
+         int seq = orders;
+         for (int size : BASKET_SIZES) {
+            long[] nanos = run(service, login, games, size, orders, seq);
+            seq += orders;
+            Arrays.sort(nanos);
+            long total = 0;
+            for (long n : nanos)
+               total += n;
+            System.out.printf("%d\t%d\t%.3f\t%.3f\t%.3f%n", size, orders,
+                              total / (double) orders / 1e6,
+                              nanos[orders / 2] / 1e6,
+                              nanos[Math.min(orders - 1, (int) (orders * 0.99))] / 1e6);
+         }//end for
+      } finally {
+         new Analytics(esql).deleteOrders(ID_PREFIX + "%");
+         esql.cleanup();
+      }//end try
+   }//end main
+
+   static long[] run(RentalService service, String login, List<String> games,
+                     int size, int orders, int firstSeq) throws SQLException, RentalService.RejectedException {
+      List<RentalService.OrderLine> basket = new ArrayList<RentalService.OrderLine>();
+      for (String gameID : games.subList(0, size))
+         basket.add(new RentalService.OrderLine(gameID, 1));
+      long[] nanos = new long[orders];
+      for (int i = 0; i < orders; ++i) {
+         Timestamp now = new Timestamp(System.currentTimeMillis());
+         Timestamp due = new Timestamp(now.getTime() + 30L * 24 * 60 * 60 * 1000);
+         long start = System.nanoTime();
+         service.insertOrder(ID_PREFIX + (firstSeq + i), "benchtracking" + (firstSeq + i),
+                             login, RentalService.basket(basket), size, BigDecimal.ONE, now, due);
+         nanos[i] = System.nanoTime() - start;
+      }//end for
+      return nanos;
+   }//end run
+
+}//end PlaceOrderBench
@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# usage: bench.sh <BenchmarkClass> [benchmark arguments]
+BENCH=$1
+shift
+
+# compile the program together with the benchmarks
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#run the benchmark
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar $BENCH $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,16 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#replace the tables with a synthetic dataset, by default 1000x the size of data/
+#usage: generate_data.sh [<users> <games> <orders> [<seed>]]
+#the rows are piped into COPY through cs166_psql, as the bundled driver has no COPY support
+#Use your database name, port number and login
+USERS=${1:-500000}
+GAMES=${2:-500000}
+ORDERS=${3:-3000000}
+SEED=${4:-42}
+java -Dgamerental.psql=cs166_psql -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar GameRental $USER"_project_phase_3_DB" $PGPORT $USER generate $USERS $GAMES $ORDERS $SEED --truncate
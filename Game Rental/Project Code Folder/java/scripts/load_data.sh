@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#bulk load the CSV files from the client, replacing what is in the tables
+#the rows are piped into COPY through cs166_psql, as the bundled driver has no COPY support
+#Use your database name, port number and login
+java -Dgamerental.psql=cs166_psql -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar GameRental $USER"_project_phase_3_DB" $PGPORT $USER load $DIR/../../data --truncate
+
@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# usage: serve.sh [tcp port]
+PORT=${1:-5433}
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#serve the menu operations over TCP, one session per connection
+#gamerental.pool.max bounds the database connections shared by the sessions
+#Use your database name, port number and login
+java -Dgamerental.pool.max=20 -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar GameRental $USER"_project_phase_3_DB" $PGPORT $USER serve $PORT
@@ -0,0 +1,505 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rollup tables behind the manager reports, kept up to date by the writes
+ * that change what they summarize:
+ *
+ *    DailyGenreRevenue     units and revenue per order day and genre
+ *    GameRentals           orders and units per game
+ *    RenterTotals          orders, games and money spent per user
+ *    ShipmentStatusCounts  shipments per tracking status
+ *
+ * insertOrder and the tracking updates call the record methods inside
+ * their own transaction, which append the changes to a delta table per
+ * rollup instead of updating the rollup rows, so orders placed at the same
+ * time never wait on each other for today's revenue row or the 'Order
+ * Placed' count.  fold() moves the committed deltas into the rollups, every
+ * FOLD_MILLIS on a background thread and before every report, so reports
+ * still agree with the committed orders.  They then read a handful of
+ * rollup rows (one per day and genre, or the top n of an index) instead of
+ * aggregating RentalOrder, GamesInOrder and Catalog.  Revenue is the units of each line times the
+ * unitPrice stored with it, the catalog price at the time of the order, so
+ * later price changes leave it alone both here and in rebuild().
+ *
+ * deleteOrders() takes the orders it deletes back out of the rollups, but
+ * orders deleted or changed by hand are not tracked; rebuild() recomputes
+ * every rollup from the base tables in parallel, e.g. after a bulk load.
+ */
+public class Analytics {
+
+   static final int REBUILD_PARALLELISM = Integer.getInteger("gamerental.analytics.parallelism", 4);
+   // partitions per worker, so a slow partition does not hold up the rebuild
+   static final int PARTITIONS_PER_WORKER = 4;
+   static final long FOLD_MILLIS = Long.getLong("gamerental.analytics.foldMs", 1000L);
+   // advisory lock taken by fold(), so folds never upsert the same rows at once
+   static final long FOLD_LOCK = 0x526f6c6c7570L;
+
+   /**
+    * Units and revenue of one genre on one day.
+    */
+   public static class RevenueBucket {
+      public final String day;
+      public final String genre;
+      public final long units;
+      public final BigDecimal revenue;
+
+      RevenueBucket(List<String> row) {
+         this.day = row.get(0);
+         this.genre = row.get(1);
+         this.units = Long.parseLong(row.get(2));
+         this.revenue = new BigDecimal(row.get(3));
+      }
+   }//end RevenueBucket
+
+   public static class GameTotal {
+      public final String gameID;
+      public final long orders;
+      public final long units;
+
+      GameTotal(List<String> row) {
+         this.gameID = row.get(0);
+         this.orders = Long.parseLong(row.get(1));
+         this.units = Long.parseLong(row.get(2));
+      }
+   }//end GameTotal
+
+   public static class RenterTotal {
+      public final String login;
+      public final long orders;
+      public final long games;
+      public final BigDecimal spent;
+
+      RenterTotal(List<String> row) {
+         this.login = row.get(0);
+         this.orders = Long.parseLong(row.get(1));
+         this.games = Long.parseLong(row.get(2));
+         this.spent = new BigDecimal(row.get(3));
+      }
+   }//end RenterTotal
+
+   static final String APPEND_REVENUE =
+      "INSERT INTO DailyGenreRevenueDelta (day, genre, units, revenue)"
+      + " SELECT CAST(? AS date), D.genre, D.units, D.revenue"
+      + " FROM unnest(CAST(? AS varchar[]), CAST(? AS bigint[]), CAST(? AS decimal[])) AS D(genre, units, revenue)";
+   static final String APPEND_GAMES =
+      "INSERT INTO GameRentalsDelta (gameID, orders, units)"
+      + " SELECT D.gameID, 1, D.units FROM unnest(CAST(? AS varchar[]), CAST(? AS int[])) AS D(gameID, units)";
+   static final String APPEND_RENTER =
+      "INSERT INTO RenterTotalsDelta (login, orders, games, spent) VALUES (?, 1, ?, ?)";
+   static final String APPEND_STATUS =
+      "INSERT INTO ShipmentStatusDelta (status, shipments) VALUES (?, 1)";
+   static final String APPEND_STATUSES =
+      "INSERT INTO ShipmentStatusDelta (status, shipments)"
+      + " SELECT D.status, D.shipments FROM unnest(CAST(? AS varchar[]), CAST(? AS bigint[])) AS D(status, shipments)";
+
+   // negative deltas for the orders matching a LIKE pattern, from the
+   // prices stored with their lines and their shipments' current status
+   static final String[] RETRACT = {
+      "INSERT INTO DailyGenreRevenueDelta (day, genre, units, revenue)"
+      + " SELECT CAST(R.orderTimestamp AS date), C.genre, -sum(G.unitsOrdered), -sum(G.unitsOrdered * G.unitPrice)"
+      + " FROM RentalOrder R INNER JOIN GamesInOrder G ON G.rentalOrderID = R.rentalOrderID"
+      + " INNER JOIN Catalog C ON C.gameID = G.gameID WHERE R.rentalOrderID LIKE ? GROUP BY 1, 2",
+      "INSERT INTO GameRentalsDelta (gameID, orders, units)"
+      + " SELECT gameID, -count(*), -sum(unitsOrdered) FROM GamesInOrder WHERE rentalOrderID LIKE ? GROUP BY gameID",
+      "INSERT INTO RenterTotalsDelta (login, orders, games, spent)"
+      + " SELECT login, -count(*), -sum(noOfGames), -sum(totalPrice) FROM RentalOrder WHERE rentalOrderID LIKE ? GROUP BY login",
+      "INSERT INTO ShipmentStatusDelta (status, shipments)"
+      + " SELECT status, -count(*) FROM TrackingInfo WHERE rentalOrderID LIKE ? GROUP BY status",
+   };
+
+   // each statement deletes the deltas its snapshot sees, so deltas
+   // committed meanwhile wait for the next fold, and adds them up per key
+   static final String[] FOLD = {
+      "WITH D AS (DELETE FROM DailyGenreRevenueDelta RETURNING day, genre, units, revenue)"
+      + " INSERT INTO DailyGenreRevenue (day, genre, units, revenue)"
+      + " SELECT day, genre, sum(units), sum(revenue) FROM D GROUP BY day, genre ORDER BY day, genre"
+      + " ON CONFLICT (day, genre) DO UPDATE SET units = DailyGenreRevenue.units + EXCLUDED.units,"
+      + " revenue = DailyGenreRevenue.revenue + EXCLUDED.revenue",
+      "WITH D AS (DELETE FROM GameRentalsDelta RETURNING gameID, orders, units)"
+      + " INSERT INTO GameRentals (gameID, orders, units)"
+      + " SELECT gameID, sum(orders), sum(units) FROM D GROUP BY gameID ORDER BY gameID"
+      + " ON CONFLICT (gameID) DO UPDATE SET orders = GameRentals.orders + EXCLUDED.orders,"
+      + " units = GameRentals.units + EXCLUDED.units",
+      "WITH D AS (DELETE FROM RenterTotalsDelta RETURNING login, orders, games, spent)"
+      + " INSERT INTO RenterTotals (login, orders, games, spent)"
+      + " SELECT login, sum(orders), sum(games), sum(spent) FROM D GROUP BY login ORDER BY login"
+      + " ON CONFLICT (login) DO UPDATE SET orders = RenterTotals.orders + EXCLUDED.orders,"
+      + " games = RenterTotals.games + EXCLUDED.games, spent = RenterTotals.spent + EXCLUDED.spent",
+      "WITH D AS (DELETE FROM ShipmentStatusDelta RETURNING status, shipments)"
+      + " INSERT INTO ShipmentStatusCounts (status, shipments)"
+      + " SELECT status, sum(shipments) FROM D GROUP BY status ORDER BY status"
+      + " ON CONFLICT (status) DO UPDATE SET shipments = ShipmentStatusCounts.shipments + EXCLUDED.shipments",
+   };
+
+   private final GameRental _esql;
+   private ScheduledExecutorService _timer = null;
+
+   // counters
+   private final AtomicLong _folds = new AtomicLong();
+   private final AtomicLong _rowsFolded = new AtomicLong();
+   private final AtomicLong _failures = new AtomicLong();
+
+   public Analytics(GameRental esql) {
+      this._esql = esql;
+   }//end Analytics
+
+   // ---- maintenance, called inside the writer's transaction
+
+   /**
+    * Appends a new order's share of the rollups to the delta tables
+    *
+    * @param login the renter
+    * @param lines the order's games and units
+    * @param totalGames the order's noOfGames
+    * @param totalPrice the order's totalPrice
+    * @param orderTimestamp the order time, which picks the revenue day
+    * @param status the status of the order's new shipment
+    * @throws java.sql.SQLException when failed to write the deltas
+    */
+   public void recordOrder(String login, RentalService.Basket lines, int totalGames, BigDecimal totalPrice,
+                           Timestamp orderTimestamp, String status) throws SQLException {
+      // units and revenue in cents per genre, priced from the catalog
+      Map<String, long[]> genres = new TreeMap<String, long[]>();
+      CatalogCache catalog = this._esql.getCatalog();
+      List<String> gameIDs = new ArrayList<String>(lines.size());
+      List<Integer> gameUnits = new ArrayList<Integer>(lines.size());
+      IntIntMap numbered = lines.numbered();
+      for (int i = 0; i < numbered.size(); ++i) {
+         int game = numbered.keyAt(i);
+         int units = numbered.valueAt(i);
+         gameIDs.add(IdCodec.GAME.format(game));
+         gameUnits.add(units);
+         CatalogCache.Game g = catalog.get(game);
+         if (g == null)
+            continue;
+         long[] bucket = genres.computeIfAbsent(g.genre, k -> new long[2]);
+         bucket[0] += units;
+         bucket[1] += catalog.priceCents(game) * units;
+      }//end for
+      for (Map.Entry<String, Integer> line : lines.named().entrySet()) {
+         gameIDs.add(line.getKey());
+         gameUnits.add(line.getValue());
+         CatalogCache.Game g = catalog.get(line.getKey());
+         if (g == null)
+            continue;
+         long[] bucket = genres.computeIfAbsent(g.genre, k -> new long[2]);
+         bucket[0] += line.getValue();
+         bucket[1] += catalog.priceCents(line.getKey()) * line.getValue();
+      }//end for
+      String day = orderTimestamp.toString().substring(0, 10);
+      List<String> genreNames = new ArrayList<String>(genres.size());
+      List<Long> genreUnits = new ArrayList<Long>(genres.size());
+      List<BigDecimal> genreRevenue = new ArrayList<BigDecimal>(genres.size());
+      for (Map.Entry<String, long[]> bucket : genres.entrySet()) {
+         genreNames.add(bucket.getKey());
+         genreUnits.add(bucket.getValue()[0]);
+         genreRevenue.add(BigDecimal.valueOf(bucket.getValue()[1], 2));
+      }//end for
+
+      if (!genreNames.isEmpty())
+         this._esql.executeUpdate(APPEND_REVENUE, day, PgArray.format(genreNames), PgArray.format(genreUnits),
+                                  PgArray.format(genreRevenue));
+      this._esql.executeUpdate(APPEND_GAMES, PgArray.format(gameIDs), PgArray.format(gameUnits));
+      this._esql.executeUpdate(APPEND_RENTER, login, totalGames, totalPrice);
+      this._esql.executeUpdate(APPEND_STATUS, status);
+   }//end recordOrder
+
+   /**
+    * Appends shipments moving between statuses to the status deltas
+    *
+    * @param changes old status -> new status, one entry per shipment that changed
+    * @throws java.sql.SQLException when failed to write the deltas
+    */
+   public void recordStatusChanges(List<String[]> changes) throws SQLException {
+      Map<String, Integer> deltas = new TreeMap<String, Integer>();
+      for (String[] change : changes) {
+         if (change[0].equals(change[1]))
+            continue;
+         deltas.merge(change[0], -1, Integer::sum);
+         deltas.merge(change[1], 1, Integer::sum);
+      }//end for
+      List<String> statuses = new ArrayList<String>();
+      List<Integer> shipments = new ArrayList<Integer>();
+      for (Map.Entry<String, Integer> delta : deltas.entrySet()) {
+         if (delta.getValue() != 0) {
+            statuses.add(delta.getKey());
+            shipments.add(delta.getValue());
+         }//end if
+      }//end for
+      if (!statuses.isEmpty())
+         this._esql.executeUpdate(APPEND_STATUSES, PgArray.format(statuses), PgArray.format(shipments));
+   }//end recordStatusChanges
+
+   /**
+    * Deletes the orders, with their games and shipments, and appends deltas
+    * taking them back out of the rollups, in one transaction.  Their revenue
+    * is taken out under each game's current genre.
+    *
+    * @param rentalOrderIDPattern a LIKE pattern matching the orders' rentalOrderID
+    * @return the number of orders deleted
+    * @throws java.sql.SQLException when failed to delete the orders
+    */
+   public int deleteOrders(final String rentalOrderIDPattern) throws SQLException {
+      return this._esql.inTransaction(() -> {
+         for (String sql : RETRACT)
+            this._esql.executeUpdate(sql, rentalOrderIDPattern);
+         return this._esql.executeUpdate("DELETE FROM RentalOrder WHERE rentalOrderID LIKE ?", rentalOrderIDPattern);
+      });
+   }//end deleteOrders
+
+   // ---- folding
+
+   /**
+    * Moves the committed deltas into the rollups, in one transaction
+    *
+    * @return the number of rollup rows changed
+    * @throws java.sql.SQLException when failed to fold; the deltas stay for the next fold
+    */
+   public int fold() throws SQLException {
+      int rows = this._esql.inTransaction(() -> {
+         this._esql.executeQueryAndReturnResult("SELECT pg_advisory_xact_lock(?)", FOLD_LOCK);
+         int changed = 0;
+         for (String sql : FOLD)
+            changed += this._esql.executeUpdate(sql, new Object[0]);
+         return changed;
+      });
+      this._folds.incrementAndGet();
+      this._rowsFolded.addAndGet(rows);
+      return rows;
+   }//end fold
+
+   /**
+    * Starts a daemon thread running fold() every periodMillis, so the delta
+    * tables stay short.  A failed fold is reported and retried at the next
+    * one.
+    */
+   public synchronized void start(long periodMillis) {
+      if (this._timer != null)
+         return;
+      this._timer = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "Analytics-fold");
+         t.setDaemon(true);
+         return t;
+      });
+      this._timer.scheduleWithFixedDelay(() -> {
+         try {
+            fold();
+         }catch (SQLException | RuntimeException e) {
+            this._failures.incrementAndGet();
+            System.err.println("Analytics fold failed: " + e.getMessage());
+         }//end try
+      }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+   }//end start
+
+   public synchronized void stop() {
+      if (this._timer != null)
+         this._timer.shutdownNow();
+      this._timer = null;
+   }//end stop
+
+   // ---- reports, each folding the pending deltas first
+
+   /**
+    * @return units and revenue per day and genre in [fromDay, toDay], by day then genre
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<RevenueBucket> revenue(String fromDay, String toDay) throws SQLException {
+      fold();
+      List<RevenueBucket> buckets = new ArrayList<RevenueBucket>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+               "SELECT day, genre, units, revenue FROM DailyGenreRevenue"
+               + " WHERE day >= CAST(? AS date) AND day <= CAST(? AS date) ORDER BY day, genre", fromDay, toDay))
+         buckets.add(new RevenueBucket(row));
+      return buckets;
+   }//end revenue
+
+   /**
+    * @return the n games rented in the most units
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<GameTotal> topGames(int n) throws SQLException {
+      fold();
+      List<GameTotal> games = new ArrayList<GameTotal>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+               "SELECT gameID, orders, units FROM GameRentals ORDER BY units DESC LIMIT ?", n))
+         games.add(new GameTotal(row));
+      return games;
+   }//end topGames
+
+   /**
+    * @return the n users who spent the most
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<RenterTotal> topRenters(int n) throws SQLException {
+      fold();
+      List<RenterTotal> renters = new ArrayList<RenterTotal>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+               "SELECT login, orders, games, spent FROM RenterTotals ORDER BY spent DESC LIMIT ?", n))
+         renters.add(new RenterTotal(row));
+      return renters;
+   }//end topRenters
+
+   /**
+    * @return the number of shipments per status, most frequent first
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Map<String, Long> shipmentStatuses() throws SQLException {
+      fold();
+      Map<String, Long> statuses = new LinkedHashMap<String, Long>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+               "SELECT status, shipments FROM ShipmentStatusCounts WHERE shipments <> 0 ORDER BY shipments DESC, status"))
+         statuses.put(row.get(0), Long.parseLong(row.get(1)));
+      return statuses;
+   }//end shipmentStatuses
+
+   // ---- backfill
+
+   /**
+    * Recomputes every rollup from the base tables.  Each rollup is cut into
+    * disjoint key ranges (order days, gameIDs, logins) that a fork/join pool
+    * aggregates and inserts in parallel, each range in its own transaction
+    * on its own pooled connection.  Orders written while the rebuild runs
+    * may be counted twice or not at all, so run it while no orders are
+    * placed, e.g. right after a bulk load.
+    *
+    * @throws java.sql.SQLException when any range failed; the rollups are then incomplete
+    */
+   public void rebuild() throws SQLException {
+      long start = System.nanoTime();
+      this._esql.executeUpdate("TRUNCATE DailyGenreRevenue, GameRentals, RenterTotals, ShipmentStatusCounts,"
+                               + " DailyGenreRevenueDelta, GameRentalsDelta, RenterTotalsDelta, ShipmentStatusDelta");
+
+      List<List<String>> span = this._esql.executeQueryAndReturnResult(
+         "SELECT CAST(min(orderTimestamp) AS date), CAST(max(orderTimestamp) AS date) - CAST(min(orderTimestamp) AS date) FROM RentalOrder");
+      List<String> days = new ArrayList<String>();
+      if (span.get(0).get(0) != null) {
+         LocalDate first = LocalDate.parse(span.get(0).get(0));
+         int dayCount = Integer.parseInt(span.get(0).get(1)) + 1;
+         int parts = Math.min(dayCount, REBUILD_PARALLELISM * PARTITIONS_PER_WORKER);
+         for (int p = 0; p < parts; ++p)
+            days.add(first.plusDays((long) dayCount * p / parts).toString());
+      }//end if
+      days.add(null);
+
+      List<Partitioned> work = new ArrayList<Partitioned>();
+      if (days.size() > 1)
+         work.add(new Partitioned(
+            "INSERT INTO DailyGenreRevenue (day, genre, units, revenue)"
+            + " SELECT CAST(R.orderTimestamp AS date), C.genre, sum(G.unitsOrdered), sum(G.unitsOrdered * G.unitPrice)"
+            + " FROM RentalOrder R INNER JOIN GamesInOrder G ON G.rentalOrderID = R.rentalOrderID"
+            + " INNER JOIN Catalog C ON C.gameID = G.gameID"
+            + " WHERE R.orderTimestamp >= CAST(? AS date)%s GROUP BY 1, 2",
+            " AND R.orderTimestamp < CAST(? AS date)", days, 0, days.size() - 1));
+      List<String> games = boundaries("gameID", "Catalog");
+      work.add(new Partitioned(
+         "INSERT INTO GameRentals (gameID, orders, units)"
+         + " SELECT gameID, count(*), sum(unitsOrdered) FROM GamesInOrder WHERE gameID >= ?%s GROUP BY gameID",
+         " AND gameID < ?", games, 0, games.size() - 1));
+      List<String> logins = boundaries("login", "Users");
+      work.add(new Partitioned(
+         "INSERT INTO RenterTotals (login, orders, games, spent)"
+         + " SELECT login, count(*), sum(noOfGames), sum(totalPrice) FROM RentalOrder WHERE login >= ?%s GROUP BY login",
+         " AND login < ?", logins, 0, logins.size() - 1));
+
+      ForkJoinPool workers = new ForkJoinPool(REBUILD_PARALLELISM);
+      try {
+         for (Partitioned p : work)
+            workers.execute(p);
+         this._esql.executeUpdate(
+            "INSERT INTO ShipmentStatusCounts (status, shipments) SELECT status, count(*) FROM TrackingInfo GROUP BY status");
+         for (Partitioned p : work)
+            p.join();
+      }catch (RuntimeException e) {
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         throw e;
+      } finally {
+         workers.shutdown();
+      }//end try
+      this._esql.executeUpdate("ANALYZE DailyGenreRevenue, GameRentals, RenterTotals, ShipmentStatusCounts");
+      System.out.printf("Rebuilt the analytics rollups in %.1f s%n", (System.nanoTime() - start) / 1e9);
+   }//end rebuild
+
+   /**
+    * @return lower bounds of about equal key ranges of the table, starting
+    *         at "", followed by null for the open end
+    */
+   private List<String> boundaries(String key, String table) throws SQLException {
+      List<String> bounds = new ArrayList<String>();
+      bounds.add("");
+      int parts = REBUILD_PARALLELISM * PARTITIONS_PER_WORKER;
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+               "SELECT " + key + " FROM (SELECT " + key + ", row_number() OVER (ORDER BY " + key + ") AS n,"
+               + " count(*) OVER () AS total FROM " + table + ") S"
+               + " WHERE n % GREATEST(total / ?, 1) = 0 ORDER BY " + key, parts))
+         if (bounds.size() < parts)
+            bounds.add(row.get(0));
+      bounds.add(null);
+      return bounds;
+   }//end boundaries
+
+   /**
+    * Runs an INSERT ... SELECT over the key ranges [bounds[lo], bounds[lo+1])
+    * .. [bounds[hi-1], bounds[hi]), halving the ranges until one is left.
+    * The statement has one ? for the lower bound and a %s where the upper
+    * bound condition goes, left out for the last, open range.
+    */
+   private class Partitioned extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final String _sql;
+      private final String _upper;
+      private final List<String> _bounds;
+      private final int _lo, _hi;
+
+      Partitioned(String sql, String upper, List<String> bounds, int lo, int hi) {
+         this._sql = sql;
+         this._upper = upper;
+         this._bounds = bounds;
+         this._lo = lo;
+         this._hi = hi;
+      }
+
+      @Override
+      protected void compute() {
+         if (this._hi - this._lo > 1) {
+            int mid = (this._lo + this._hi) >>> 1;
+            invokeAll(new Partitioned(this._sql, this._upper, this._bounds, this._lo, mid),
+                      new Partitioned(this._sql, this._upper, this._bounds, mid, this._hi));
+            return;
+         }//end if
+         final String from = this._bounds.get(this._lo);
+         final String to = this._bounds.get(this._hi);
+         try {
+            if (to == null)
+               Analytics.this._esql.inTransaction(() -> Analytics.this._esql.executeUpdate(String.format(this._sql, ""), from));
+            else
+               Analytics.this._esql.inTransaction(() -> Analytics.this._esql.executeUpdate(String.format(this._sql, this._upper), from, to));
+         }catch (SQLException e) {
+            throw new RuntimeException(e);
+         }//end try
+      }//end compute
+   }//end Partitioned
+
+   @Override
+   public String toString() {
+      return "folds=" + this._folds.get()
+           + " rowsFolded=" + this._rowsFolded.get()
+           + " failures=" + this._failures.get();
+   }//end toString
+
+}//end Analytics
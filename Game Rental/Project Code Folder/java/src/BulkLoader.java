@@ -0,0 +1,417 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the five tables from the client into the database, by default from
+ * the CSV files under data/.
+ *
+ * Tables are loaded in foreign key order, with independent tables in
+ * parallel on their own connections: Users and Catalog first, then
+ * RentalOrder, then TrackingInfo and GamesInOrder.  FavoriteGames is then
+ * derived from the loaded Users.favGames, as migrate_favorite_games.sql
+ * does.  Secondary indexes are dropped before the load and rebuilt
+ * afterwards, also when the load fails, and the ID sequences are moved
+ * past the highest loaded ID.
+ *
+ * Rows are streamed with COPY ... FROM STDIN: through the JDBC driver when
+ * it provides a CopyManager (pgjdbc 8.4 and later), and otherwise, as with
+ * the bundled pg73 driver, by piping them into a psql process.  psql is
+ * found on the PATH, or named by -Dgamerental.psql (the scripts pass
+ * cs166_psql).  Only when psql cannot be started does a table fall back to
+ * batched INSERTs, which the pg73 driver sends one row per round trip.
+ */
+public class BulkLoader {
+
+   /**
+    * Supplies the CSV text of a table, header line included.
+    */
+   public interface Source {
+      Reader open(String table) throws IOException;
+   }
+
+   // tables grouped into stages that respect the foreign keys
+   static final String[][] STAGES = {
+      { "Users", "Catalog" },
+      { "RentalOrder" },
+      { "TrackingInfo", "GamesInOrder" },
+   };
+
+   static final int INSERT_BATCH_SIZE = 5000;
+   static final String PSQL = System.getProperty("gamerental.psql", "psql");
+   static final Pattern JDBC_URL = Pattern.compile("jdbc:postgresql://([^:/]+)(?::(\\d+))?/([^?]+).*");
+
+   // same statements as sql/src/migrate_favorite_games.sql
+   static final String[] FILL_FAVORITE_GAMES = {
+      "DELETE FROM FavoriteGames",
+      "INSERT INTO FavoriteGames (login, position, gameName)"
+      + " SELECT login, row_number() OVER (PARTITION BY login ORDER BY min(position)), gameName"
+      + " FROM (SELECT U.login, F.position, trim(F.gameName) AS gameName FROM Users U,"
+      + " unnest(string_to_array(U.favGames, ',')) WITH ORDINALITY AS F(gameName, position)) S"
+      + " WHERE gameName <> '' GROUP BY login, gameName",
+   };
+
+   private final ConnectionPool _pool;
+   private final Source _source;
+
+   public BulkLoader(ConnectionPool pool, Source source) {
+      this._pool = pool;
+      this._source = source;
+   }//end BulkLoader
+
+   /**
+    * Creates a loader reading <table>.csv files, e.g. users.csv
+    *
+    * @param pool supplies the connections
+    * @param dataDir the directory holding the files
+    * @return the loader
+    */
+   public static BulkLoader fromDirectory(ConnectionPool pool, final File dataDir) {
+      return new BulkLoader(pool, table -> new InputStreamReader(
+         new FileInputStream(new File(dataDir, table.toLowerCase() + ".csv")), StandardCharsets.UTF_8));
+   }//end fromDirectory
+
+   /**
+    * Runs the whole load and reports rows/sec per table.  The dropped
+    * indexes are rebuilt even when the load fails.
+    *
+    * @param truncate empty the tables before loading
+    * @throws Exception when any table fails to load
+    */
+   public void load(boolean truncate) throws Exception {
+      long start = System.nanoTime();
+      long totalRows = 0;
+      // definitions of the indexes dropped so far
+      List<String> indexes = new ArrayList<String>();
+      ExecutorService workers = Executors.newFixedThreadPool(2);
+      Exception failure = null;
+      try {
+         Connection conn = this._pool.openConnection();
+         try {
+            if (truncate)
+               execute(conn, "TRUNCATE Users, Catalog, RentalOrder, TrackingInfo, GamesInOrder, FavoriteGames,"
+                             + " DailyGenreRevenue, GameRentals, RenterTotals, ShipmentStatusCounts,"
+                             + " DailyGenreRevenueDelta, GameRentalsDelta, RenterTotalsDelta, ShipmentStatusDelta");
+            dropIndexes(conn, indexes);
+         } finally {
+            conn.close();
+         }
+
+         for (String[] stage : STAGES) {
+            List<Future<Long>> loads = new ArrayList<Future<Long>>();
+            for (final String table : stage)
+               loads.add(workers.submit(() -> loadTable(table)));
+            for (Future<Long> f : loads)
+               totalRows += f.get();
+         }//end for
+         totalRows += fillFavoriteGames();
+      }catch (Exception e) {
+         failure = e;
+         throw e;
+      } finally {
+         try {
+            rebuildIndexes(workers, indexes);
+         }catch (Exception e) {
+            // a failed load is the error to report
+            if (failure == null)
+               throw e;
+            failure.addSuppressed(e);
+         } finally {
+            workers.shutdown();
+         }
+      }
+
+      Connection conn = this._pool.openConnection();
+      try {
+         execute(conn, "SELECT setval('rentalorder_id_seq', (SELECT COALESCE(max(CAST(substring(rentalOrderID from '[0-9]+$') AS integer)), 999) + 1 FROM RentalOrder), false)");
+         execute(conn, "SELECT setval('trackingid_seq', (SELECT COALESCE(max(CAST(substring(trackingID from '[0-9]+$') AS integer)), 999) + 1 FROM TrackingInfo), false)");
+         execute(conn, "ANALYZE");
+      } finally {
+         conn.close();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("Loaded %d rows in %.1f s (%.0f rows/sec)%n", totalRows, seconds, totalRows / seconds);
+   }//end load
+
+   /**
+    * Splits the loaded Users.favGames strings into FavoriteGames rows
+    *
+    * @return the number of rows written
+    */
+   long fillFavoriteGames() throws SQLException {
+      long start = System.nanoTime();
+      long rows;
+      Connection conn = this._pool.openConnection();
+      try {
+         conn.setAutoCommit(false);
+         Statement stmt = conn.createStatement();
+         try {
+            stmt.executeUpdate(FILL_FAVORITE_GAMES[0]);
+            rows = stmt.executeUpdate(FILL_FAVORITE_GAMES[1]);
+            conn.commit();
+         }catch (SQLException e) {
+            conn.rollback();
+            throw e;
+         } finally {
+            stmt.close();
+         }
+      } finally {
+         conn.close();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%-13s %10d rows in %6.1f s (%.0f rows/sec)%n", "FavoriteGames", rows, seconds, rows / seconds);
+      return rows;
+   }//end fillFavoriteGames
+
+   /**
+    * Loads one table from the source on a dedicated connection
+    *
+    * @return the number of rows loaded
+    */
+   long loadTable(String table) throws Exception {
+      long start = System.nanoTime();
+      long rows;
+      Connection conn = this._pool.openConnection();
+      try {
+         Reader reader = this._source.open(table);
+         try {
+            rows = copyIn(conn, table, reader);
+            if (rows < 0)
+               rows = psqlCopy(table, reader);
+            if (rows < 0) {
+               System.err.println("Could not run " + PSQL + "; loading " + table + " with INSERTs");
+               rows = insertBatched(conn, table, new BufferedReader(reader));
+            }//end if
+         } finally {
+            reader.close();
+         }
+      } finally {
+         conn.close();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%-13s %10d rows in %6.1f s (%.0f rows/sec)%n", table, rows, seconds, rows / seconds);
+      return rows;
+   }//end loadTable
+
+   /**
+    * Streams the file through COPY FROM STDIN if the driver supports it
+    *
+    * @return the number of rows copied, or -1 if the driver has no CopyManager
+    */
+   static long copyIn(Connection conn, String table, Reader reader) throws Exception {
+      Object manager;
+      Class<?> copyManager;
+      try {
+         copyManager = Class.forName("org.postgresql.copy.CopyManager");
+         Class<?> baseConnection = Class.forName("org.postgresql.core.BaseConnection");
+         manager = copyManager.getConstructor(baseConnection).newInstance(conn);
+      }catch (ClassNotFoundException e) {
+         return -1;
+      }//end try
+      try {
+         Object rows = copyManager.getMethod("copyIn", String.class, Reader.class)
+            .invoke(manager, "COPY " + table + " FROM STDIN WITH (FORMAT csv, HEADER true)", reader);
+         return ((Number) rows).longValue();
+      }catch (InvocationTargetException e) {
+         if (e.getCause() instanceof Exception)
+            throw (Exception) e.getCause();
+         throw e;
+      }//end try
+   }//end copyIn
+
+   /**
+    * Streams the file into COPY FROM STDIN through a psql process logged in
+    * as the pool's connections are.  psql's errors go to standard error.
+    *
+    * @return the number of rows copied, or -1 if psql could not be started
+    * @throws java.sql.SQLException when the COPY failed
+    */
+   long psqlCopy(String table, Reader reader) throws SQLException, IOException, InterruptedException {
+      Matcher url = JDBC_URL.matcher(this._pool.getUrl());
+      if (!url.matches())
+         return -1;
+      List<String> command = new ArrayList<String>(Arrays.asList(PSQL, "-X", "-v", "ON_ERROR_STOP=1", "-h", url.group(1)));
+      if (url.group(2) != null)
+         command.addAll(Arrays.asList("-p", url.group(2)));
+      command.addAll(Arrays.asList("-U", this._pool.getUser(), "-d", url.group(3),
+                                   "-c", "COPY " + table + " FROM STDIN WITH (FORMAT csv, HEADER true)"));
+      ProcessBuilder builder = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT);
+      builder.environment().put("PGCLIENTENCODING", "UTF8");
+      if (this._pool.getPassword() != null && !this._pool.getPassword().isEmpty())
+         builder.environment().put("PGPASSWORD", this._pool.getPassword());
+      Process psql;
+      try {
+         psql = builder.start();
+      }catch (IOException e) {
+         return -1;
+      }//end try
+      try {
+         Writer out = new OutputStreamWriter(psql.getOutputStream(), StandardCharsets.UTF_8);
+         try {
+            char[] buffer = new char[1 << 16];
+            int n;
+            while ((n = reader.read(buffer)) > 0)
+               out.write(buffer, 0, n);
+         } finally {
+            out.close();
+         }
+      }catch (IOException e) {
+         // psql stopped reading: the COPY failed and exit status says why
+         if (psql.waitFor() == 0)
+            throw e;
+      }//end try
+      String output = new String(psql.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      int status = psql.waitFor();
+      Matcher copied = Pattern.compile("COPY (\\d+)").matcher(output);
+      if (status != 0 || !copied.find())
+         throw new SQLException(PSQL + " failed to COPY " + table + " (exit status " + status + ")");
+      return Long.parseLong(copied.group(1));
+   }//end psqlCopy
+
+   /**
+    * Fallback for drivers without COPY support: batched INSERTs in a single
+    * transaction, with every value cast to its column type on the server.
+    *
+    * @return the number of rows inserted
+    */
+   static long insertBatched(Connection conn, String table, BufferedReader reader) throws SQLException, IOException {
+      List<String> types = columnTypes(conn, table);
+      StringBuilder sql = new StringBuilder("INSERT INTO " + table + " VALUES (");
+      for (int i = 0; i < types.size(); ++i)
+         sql.append(i == 0 ? "" : ", ").append("CAST(? AS ").append(types.get(i)).append(")");
+      sql.append(")");
+
+      conn.setAutoCommit(false);
+      PreparedStatement stmt = conn.prepareStatement(sql.toString());
+      long rows = 0;
+      try {
+         String line = reader.readLine();   // header
+         while ((line = reader.readLine()) != null) {
+            if (line.isEmpty())
+               continue;
+            List<String> fields = Csv.parseLine(line);
+            for (int i = 0; i < types.size(); ++i) {
+               String value = i < fields.size() ? fields.get(i) : null;
+               // empty text stays empty, an empty number or date is NULL
+               if (value == null || (value.isEmpty() && !isText(types.get(i))))
+                  stmt.setNull(i + 1, java.sql.Types.VARCHAR);
+               else
+                  stmt.setString(i + 1, value);
+            }//end for
+            stmt.addBatch();
+            if (++rows % INSERT_BATCH_SIZE == 0)
+               stmt.executeBatch();
+         }//end while
+         stmt.executeBatch();
+         conn.commit();
+      }catch (SQLException | IOException e) {
+         conn.rollback();
+         throw e;
+      } finally {
+         stmt.close();
+         conn.setAutoCommit(true);
+      }
+      return rows;
+   }//end insertBatched
+
+   static List<String> columnTypes(Connection conn, String table) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try {
+         ResultSetMetaData rsmd = stmt.executeQuery("SELECT * FROM " + table + " LIMIT 0").getMetaData();
+         List<String> types = new ArrayList<String>();
+         for (int i = 1; i <= rsmd.getColumnCount(); ++i)
+            types.add(rsmd.getColumnTypeName(i));
+         return types;
+      } finally {
+         stmt.close();
+      }
+   }//end columnTypes
+
+   static boolean isText(String type) {
+      return type.equalsIgnoreCase("text") || type.equalsIgnoreCase("varchar")
+          || type.equalsIgnoreCase("bpchar");
+   }//end isText
+
+   /**
+    * Drops the secondary indexes of the loaded tables
+    *
+    * @param dropped receives the CREATE INDEX statement of each index as
+    *                soon as it is dropped, so a failure part way through
+    *                still leaves every dropped index to rebuild
+    */
+   static void dropIndexes(Connection conn, List<String> dropped) throws SQLException {
+      List<String> definitions = new ArrayList<String>();
+      List<String> names = new ArrayList<String>();
+      Statement stmt = conn.createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(
+            "SELECT indexname, indexdef FROM pg_indexes"
+            + " WHERE lower(tablename) IN ('users', 'catalog', 'rentalorder', 'trackinginfo', 'gamesinorder', 'favoritegames')"
+            + " AND indexname NOT IN (SELECT conname FROM pg_constraint)");
+         while (rs.next()) {
+            names.add(rs.getString(1));
+            definitions.add(rs.getString(2));
+         }//end while
+         rs.close();
+         for (int i = 0; i < names.size(); ++i) {
+            stmt.executeUpdate("DROP INDEX " + names.get(i));
+            dropped.add(definitions.get(i));
+         }//end for
+      } finally {
+         stmt.close();
+      }
+   }//end dropIndexes
+
+   /**
+    * Runs the CREATE INDEX statements in parallel, each on its own connection
+    */
+   void rebuildIndexes(ExecutorService workers, List<String> definitions) throws Exception {
+      long start = System.nanoTime();
+      List<Future<Void>> builds = new ArrayList<Future<Void>>();
+      for (final String definition : definitions) {
+         builds.add(workers.submit(() -> {
+            Connection c = this._pool.openConnection();
+            try {
+               execute(c, definition);
+            } finally {
+               c.close();
+            }
+            return null;
+         }));
+      }//end for
+      for (Future<Void> f : builds)
+         f.get();
+      System.out.printf("Rebuilt %d indexes in %.1f s%n", definitions.size(), (System.nanoTime() - start) / 1e9);
+   }//end rebuildIndexes
+
+   static void execute(Connection conn, String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try {
+         stmt.execute(sql);
+      } finally {
+         stmt.close();
+      }
+   }//end execute
+
+}//end BulkLoader
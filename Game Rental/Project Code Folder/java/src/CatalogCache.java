@@ -0,0 +1,596 @@
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * Read-through, in-memory copy of the Catalog table.  Reads are served from
+ * a snapshot holding a gameID map plus views sorted by price and grouped by
+ * genre, so browsing never touches the database once the snapshot is
+ * loaded.  Keyword searches run on a CatalogSearch index of the
+ * snapshot, built on the first search after each load or update.
+ *
+ * Catalog updates made through GameRental call recordChange(), which bumps the single CatalogVersion row and
+ * NOTIFYs the catalog_changed channel in the update's transaction; every
+ * process LISTENs on it and drops its snapshot when another process
+ * changes the catalog.  The updating process patches the changed game in
+ * its own snapshot, replacing it in the gameID map and in the price and
+ * genre views, and ignores the notification, which it recognizes by the
+ * server PID of its pooled connection.
+ *
+ * With -Dgamerental.catalogFile=<path> the snapshot is a CatalogFile
+ * instead: a process maps the file when it is at least as new as the
+ * database's CatalogVersion, which costs one single-row query instead of
+ * reading the catalog.  The updating process rewrites the file and
+ * notifies again once it is written; a process that finds the file behind
+ * reads the catalog from the database onto the heap until then, and writes
+ * the file itself only when it finds it behind at startup.  A change that
+ * bypasses recordChange(), such as an edit in psql, has to bump the
+ * version itself, or be followed by "catalog export", which does.
+ */
+public class CatalogCache {
+
+   public static final String CHANNEL = "catalog_changed";
+   // memory-mapped copy of the catalog shared by the processes of a host, or null
+   static final String FILE = System.getProperty("gamerental.catalogFile");
+
+   /**
+    * One Catalog row.
+    */
+   public static class Game {
+      public final String gameID;
+      public final String gameName;
+      public final String genre;
+      public final BigDecimal price;
+      public final String description;
+      public final String imageURL;
+
+      Game(String gameID, String gameName, String genre, BigDecimal price,
+           String description, String imageURL) {
+         this.gameID = gameID;
+         this.gameName = gameName;
+         this.genre = genre;
+         this.price = price;
+         this.description = description;
+         this.imageURL = imageURL;
+      }
+   }//end Game
+
+   static final Comparator<Game> BY_PRICE =
+      Comparator.comparing((Game g) -> g.price).thenComparing(g -> g.gameID);
+
+   /**
+    * View of the whole catalog, held either in maps on the heap or in a
+    * mapped CatalogFile (then the maps are null).  The heap maps are
+    * patched in place by patch(); a reader running alongside a patch may
+    * see the changed game in one view before another.
+    */
+   static class Snapshot {
+      final ConcurrentNavigableMap<String, Game> byId;
+      // keyed by price, then gameID
+      final ConcurrentNavigableMap<Game, Game> byPrice;
+      final Map<String, ConcurrentNavigableMap<String, Game>> byGenre;
+      // games by IdCodec.GAME number: position in numbered and cents, which
+      // hold null and -1 once the game is deleted
+      final IntIntMap byNumber;
+      final AtomicReferenceArray<Game> numbered;
+      final AtomicLongArray cents;
+      final CatalogFile file;
+      private CatalogSearch _search = null;
+
+      Snapshot(Map<String, Game> byId) {
+         this.byId = new ConcurrentSkipListMap<String, Game>(byId);
+         this.byNumber = new IntIntMap(byId.size());
+         this.numbered = new AtomicReferenceArray<Game>(byId.size());
+         this.cents = new AtomicLongArray(byId.size());
+         this.byPrice = new ConcurrentSkipListMap<Game, Game>(BY_PRICE);
+         this.byGenre = new ConcurrentHashMap<String, ConcurrentNavigableMap<String, Game>>();
+         int n = 0;
+         for (Game g : this.byId.values()) {
+            this.byPrice.put(g, g);
+            genre(g.genre).put(g.gameID, g);
+            int number = IdCodec.GAME.parseInt(g.gameID);
+            // games with IDs outside the codec are found by ID only, through
+            // get(String) and priceCents(String)
+            if (number < 0)
+               continue;
+            this.byNumber.put(number, n);
+            this.numbered.set(n, g);
+            this.cents.set(n++, cents(g.price));
+         }//end for
+         this.file = null;
+      }
+
+      Snapshot(CatalogFile file) {
+         this.byId = null;
+         this.byPrice = null;
+         this.byGenre = null;
+         this.byNumber = null;
+         this.numbered = null;
+         this.cents = null;
+         this.file = file;
+      }
+
+      int size() {
+         return this.file != null ? this.file.size() : this.byId.size();
+      }
+
+      /**
+       * @return every game in gameID order
+       */
+      Collection<Game> games() {
+         return this.file != null ? this.file.games() : this.byId.values();
+      }
+
+      synchronized CatalogSearch search() {
+         if (this._search == null)
+            this._search = new CatalogSearch(games());
+         return this._search;
+      }
+
+      private ConcurrentNavigableMap<String, Game> genre(String genre) {
+         return this.byGenre.computeIfAbsent(genre, k -> new ConcurrentSkipListMap<String, Game>());
+      }
+
+      /**
+       * Replaces a game of a heap snapshot in place.  The new game is added
+       * to each view before the old one is removed, so a reader sees one of
+       * them throughout.  Patches must not run concurrently.
+       *
+       * @param game the game as it is now, or null if it was deleted
+       * @return false if the game is new to the catalog and the snapshot
+       *         has to be reloaded instead
+       */
+      boolean patch(String gameID, Game game) {
+         Game old = this.byId.get(gameID);
+         if (old == null)
+            return game == null;
+         if (game == null) {
+            this.byId.remove(gameID);
+         } else {
+            this.byId.put(gameID, game);
+            this.byPrice.put(game, game);
+            genre(game.genre).put(gameID, game);
+         }//end if
+         if (game == null || BY_PRICE.compare(old, game) != 0)
+            this.byPrice.remove(old);
+         if (game == null || !game.genre.equals(old.genre))
+            this.byGenre.get(old.genre).remove(gameID);
+         int number = IdCodec.GAME.parseInt(gameID);
+         int n = number < 0 ? -1 : this.byNumber.get(number, -1);
+         if (n >= 0) {
+            this.numbered.set(n, game);
+            this.cents.set(n, game == null ? -1 : cents(game.price));
+         }//end if
+         synchronized (this) {
+            this._search = null;
+         }
+         return true;
+      }//end patch
+   }//end Snapshot
+
+   static final String SELECT_GAMES =
+      "SELECT gameID, gameName, genre, price, description, imageURL FROM Catalog";
+
+   /**
+    * Records a change to Catalog in the calling transaction: bumps
+    * CatalogVersion, so catalog files written before it are known to be
+    * stale, and NOTIFYs the listeners, both taking effect when the
+    * transaction commits.  Call it inside GameRental.inTransaction, in the
+    * transaction that changes Catalog.
+    *
+    * @throws java.sql.SQLException when failed to execute the statements
+    */
+   public static void recordChange(GameRental esql) throws SQLException {
+      esql.executeUpdate("UPDATE CatalogVersion SET version = version + 1");
+      esql.executeUpdate("NOTIFY " + CHANNEL);
+   }//end recordChange
+
+   /**
+    * @return the database's CatalogVersion
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   long version() throws SQLException {
+      List<List<String>> row = this._esql.executeQueryAndReturnResult("SELECT version FROM CatalogVersion");
+      if (row.isEmpty())
+         throw new SQLException("CatalogVersion is empty; run sql/src/migrate_catalog_version.sql");
+      return Long.parseLong(row.get(0).get(0));
+   }//end version
+
+   private final GameRental _esql;
+   private volatile Snapshot _snapshot = null;
+   private volatile boolean _stale = true;
+
+   private volatile Thread _listener = null;
+   private volatile boolean _listening = false;
+
+   // counters
+   private final AtomicLong _loads = new AtomicLong();
+   private final AtomicLong _invalidations = new AtomicLong();
+   private final AtomicLong _mapped = new AtomicLong();
+
+   public CatalogCache(GameRental esql) {
+      this._esql = esql;
+   }//end CatalogCache
+
+   /**
+    * @return a cache holding a fixed set of games and no database, for benchmarks
+    */
+   static CatalogCache of(Map<String, Game> byId) {
+      CatalogCache cache = new CatalogCache(null);
+      cache._snapshot = new Snapshot(byId);
+      cache._stale = false;
+      return cache;
+   }//end of
+
+   /**
+    * @return the game, or null if it is not in the catalog
+    */
+   public Game get(String gameID) throws SQLException {
+      Snapshot s = snapshot();
+      if (s.file == null)
+         return s.byId.get(gameID);
+      int record = s.file.find(gameID);
+      return record < 0 ? null : s.file.game(record);
+   }
+
+   public boolean contains(String gameID) throws SQLException {
+      Snapshot s = snapshot();
+      return s.file == null ? s.byId.containsKey(gameID) : s.file.find(gameID) >= 0;
+   }
+
+   /**
+    * @param game the IdCodec.GAME number of the game
+    * @return the game, or null if it is not in the catalog
+    */
+   public Game get(int game) throws SQLException {
+      Snapshot s = snapshot();
+      if (s.file == null) {
+         int n = s.byNumber.get(game, -1);
+         return n < 0 ? null : s.numbered.get(n);
+      }//end if
+      int record = s.file.find(IdCodec.GAME.format(game));
+      return record < 0 ? null : s.file.game(record);
+   }//end get
+
+   /**
+    * @param game the IdCodec.GAME number of the game
+    * @return the price of the game in cents, or -1 if it is not in the catalog
+    */
+   public long priceCents(int game) throws SQLException {
+      Snapshot s = snapshot();
+      if (s.file == null) {
+         int n = s.byNumber.get(game, -1);
+         return n < 0 ? -1 : s.cents.get(n);
+      }//end if
+      int record = s.file.find(IdCodec.GAME.format(game));
+      return record < 0 ? -1 : s.file.priceCents(record);
+   }//end priceCents
+
+   /**
+    * @return the price of the game in cents, or -1 if it is not in the catalog
+    */
+   public long priceCents(String gameID) throws SQLException {
+      Snapshot s = snapshot();
+      if (s.file == null) {
+         Game game = s.byId.get(gameID);
+         return game == null ? -1 : cents(game.price);
+      }//end if
+      int record = s.file.find(gameID);
+      return record < 0 ? -1 : s.file.priceCents(record);
+   }//end priceCents
+
+   static long cents(BigDecimal price) {
+      return price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+   }//end cents
+
+   /**
+    * @return the price of the game, or null if it is not in the catalog
+    */
+   public BigDecimal price(String gameID) throws SQLException {
+      Snapshot s = snapshot();
+      if (s.file == null) {
+         Game game = s.byId.get(gameID);
+         return game == null ? null : game.price;
+      }//end if
+      int record = s.file.find(gameID);
+      return record < 0 ? null : s.file.price(record);
+   }//end price
+
+   /**
+    * @return the games of the genre, in gameID order
+    */
+   public List<Game> byGenre(String genre) throws SQLException {
+      Snapshot s = snapshot();
+      if (s.file != null)
+         return s.file.byGenre(genre);
+      Map<String, Game> games = s.byGenre.get(genre);
+      return games == null ? Collections.<Game>emptyList() : new ArrayList<Game>(games.values());
+   }
+
+   /**
+    * @return the games costing exactly the given price
+    */
+   public List<Game> byPrice(BigDecimal price) throws SQLException {
+      Snapshot s = snapshot();
+      if (s.file != null)
+         return s.file.byPrice(price);
+      // the empty gameID sorts before every game of the price
+      Game lowest = new Game("", null, null, price, null, null);
+      List<Game> games = new ArrayList<Game>();
+      for (Game g : s.byPrice.tailMap(lowest).values()) {
+         if (g.price.compareTo(price) != 0)
+            break;
+         games.add(g);
+      }//end for
+      return games;
+   }//end byPrice
+
+   /**
+    * @return every game sorted by price
+    */
+   public List<Game> sortedByPrice(boolean ascending) throws SQLException {
+      Snapshot s = snapshot();
+      if (s.file != null)
+         return s.file.sortedByPrice(ascending);
+      return new ArrayList<Game>(ascending ? s.byPrice.values() : s.byPrice.descendingMap().values());
+   }//end sortedByPrice
+
+   /**
+    * Searches the catalog by keywords and facets
+    *
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    * @see CatalogSearch#search
+    */
+   public CatalogSearch.Result search(CatalogSearch.Query query) throws SQLException {
+      return snapshot().search().search(query);
+   }//end search
+
+   /**
+    * Drops the snapshot; the next read loads the catalog again.
+    */
+   public void invalidate() {
+      this._stale = true;
+      this._invalidations.incrementAndGet();
+   }//end invalidate
+
+   /**
+    * Re-reads a single game after this process changed it and patches it
+    * into the snapshot, instead of reloading the whole catalog.  With a
+    * catalog file, this process is the one that rewrites the file.
+    *
+    * @param gameID the game that changed
+    * @throws java.sql.SQLException when the row cannot be read
+    */
+   public synchronized void refresh(String gameID) throws SQLException {
+      Snapshot current = this._snapshot;
+      if (current == null || this._stale)
+         return;
+      if (FILE != null) {
+         try {
+            long version = version();
+            write(select(), version, new File(FILE));
+            this._snapshot = new Snapshot(CatalogFile.open(new File(FILE)));
+            this._mapped.incrementAndGet();
+         }catch (IOException e) {
+            System.err.println("Reloading the catalog: " + e.getMessage());
+            invalidate();
+         }//end try
+         return;
+      }//end if
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(SELECT_GAMES + " WHERE gameID = ?", gameID);
+      Game game = null;
+      if (!rows.isEmpty()) {
+         List<String> r = rows.get(0);
+         game = new Game(r.get(0), r.get(1), r.get(2), new BigDecimal(r.get(3)), r.get(4), r.get(5));
+      }//end if
+      if (!current.patch(gameID, game))
+         invalidate();
+   }//end refresh
+
+   private Snapshot snapshot() throws SQLException {
+      Snapshot s = this._snapshot;
+      if (s == null || this._stale)
+         s = reload();
+      return s;
+   }//end snapshot
+
+   private synchronized Snapshot reload() throws SQLException {
+      if (this._snapshot != null && !this._stale)
+         return this._snapshot;
+      // cleared before loading, so a notification arriving mid-load marks
+      // the new snapshot stale again
+      this._stale = false;
+      final Map<String, Game> byId;
+      final long version;
+      try {
+         version = FILE == null ? 0 : version();
+         if (FILE != null && new File(FILE).isFile()) {
+            try {
+               CatalogFile file = CatalogFile.open(new File(FILE));
+               if (file.catalogVersion() >= version) {
+                  this._snapshot = new Snapshot(file);
+                  this._mapped.incrementAndGet();
+                  return this._snapshot;
+               }//end if
+               System.err.println("Reading the catalog from the database: " + FILE + " is at catalog version "
+                                  + file.catalogVersion() + ", the database at " + version);
+            }catch (IOException e) {
+               System.err.println("Reading the catalog from the database: " + e.getMessage());
+            }//end try
+         }//end if
+         byId = select();
+      }catch (SQLException e) {
+         this._stale = true;
+         throw e;
+      }//end try
+      this._loads.incrementAndGet();
+      // the process that changed the catalog rewrites the file; only a
+      // process starting on an outdated file writes it itself
+      if (FILE != null && this._snapshot == null) {
+         try {
+            write(byId, version, new File(FILE));
+            this._snapshot = new Snapshot(CatalogFile.open(new File(FILE)));
+            this._mapped.incrementAndGet();
+            return this._snapshot;
+         }catch (IOException e) {
+            System.err.println("Keeping the catalog on the heap: " + e.getMessage());
+         }//end try
+      }//end if
+      this._snapshot = new Snapshot(byId);
+      return this._snapshot;
+   }//end reload
+
+   private Map<String, Game> select() throws SQLException {
+      final Map<String, Game> byId = new LinkedHashMap<String, Game>();
+      this._esql.executeQueryAndStreamResult(SELECT_GAMES + " ORDER BY gameID", row ->
+         byId.put(row.getString(1), new Game(row.getString(1), row.getString(2), row.getString(3),
+                                             row.getBigDecimal(4), row.getString(5), row.getString(6))));
+      return byId;
+   }//end select
+
+   /**
+    * Writes the Catalog table to a catalog file, e.g. after changing it
+    * outside the application.  The version is bumped first, so the running
+    * processes reload and files written before the change are not trusted
+    * again.
+    *
+    * @return the number of games written
+    * @throws java.sql.SQLException when failed to read the catalog
+    * @throws java.io.IOException when failed to write the file
+    */
+   public int export(File file) throws SQLException, IOException {
+      this._esql.inTransaction(() -> {
+         recordChange(this._esql);
+         return null;
+      });
+      long version = version();
+      Map<String, Game> byId = select();
+      write(byId, version, file);
+      return byId.size();
+   }//end export
+
+   /**
+    * Writes the games to the catalog file and NOTIFYs, so processes that
+    * found the file behind and read the catalog onto the heap map it.
+    *
+    * @param version the CatalogVersion read before the games, so a change
+    *        between the two can only make the file look older than it is
+    */
+   private void write(Map<String, Game> byId, long version, File file) throws SQLException, IOException {
+      CatalogFile.write(byId.values(), version, file);
+      this._esql.executeUpdate("NOTIFY " + CHANNEL);
+   }//end write
+
+   /**
+    * Starts a daemon thread that LISTENs on the catalog_changed channel
+    * through its own connection and invalidates the snapshot whenever a
+    * notification from another process arrives.
+    *
+    * @param pool supplies the dedicated connection
+    * @param pollMillis how often the listener checks for notifications
+    */
+   public synchronized void startListener(final ConnectionPool pool, final long pollMillis) {
+      if (this._listener != null)
+         return;
+      this._listening = true;
+      this._listener = new Thread(() -> listen(pool, pollMillis), "CatalogCache-listener");
+      this._listener.setDaemon(true);
+      this._listener.start();
+   }//end startListener
+
+   public synchronized void stopListener() {
+      this._listening = false;
+      if (this._listener != null)
+         this._listener.interrupt();
+      this._listener = null;
+   }//end stopListener
+
+   private void listen(ConnectionPool pool, long pollMillis) {
+      Connection conn = null;
+      while (this._listening) {
+         try {
+            if (conn == null) {
+               conn = pool.openConnection();
+               execute(conn, "LISTEN " + CHANNEL);
+               // anything may have changed while we were not listening; a
+               // current catalog file is mapped again without a reload
+               invalidate();
+            }//end if
+            // the driver only picks up notifications while talking to the server
+            execute(conn, "SELECT 1");
+            PGNotification[] notifications = ((PGConnection) conn).getNotifications();
+            if (notifications != null && fromOtherProcess(pool, notifications))
+               invalidate();
+            Thread.sleep(pollMillis);
+         }catch (InterruptedException e) {
+            break;
+         }catch (SQLException | RuntimeException e) {
+            close(conn);
+            conn = null;
+            invalidate();
+            try {
+               Thread.sleep(pollMillis);
+            }catch (InterruptedException ie) {
+               break;
+            }//end try
+         }//end try
+      }//end while
+      close(conn);
+   }//end listen
+
+   private static boolean fromOtherProcess(ConnectionPool pool, PGNotification[] notifications) {
+      for (PGNotification notification : notifications)
+         if (!pool.isOwnBackend(notification.getPID()))
+            return true;
+      return false;
+   }//end fromOtherProcess
+
+   private static void execute(Connection conn, String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try {
+         stmt.execute(sql);
+      } finally {
+         stmt.close();
+      }
+   }//end execute
+
+   private static void close(Connection conn) {
+      if (conn == null)
+         return;
+      try {
+         conn.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end close
+
+   @Override
+   public String toString() {
+      Snapshot s = this._snapshot;
+      return "games=" + (s == null ? 0 : s.size())
+           + " loads=" + this._loads.get()
+           + " mapped=" + this._mapped.get()
+           + " invalidations=" + this._invalidations.get();
+   }//end toString
+
+}//end CatalogCache
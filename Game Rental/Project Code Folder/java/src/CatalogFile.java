@@ -0,0 +1,433 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Catalog table as a read-only, memory-mapped file of fixed-size
+ * records, so a process starts with the whole catalog available and no
+ * database round trip, and every process on a host shares one copy of it
+ * in the OS page cache.
+ *
+ * Layout, all integers big-endian:
+ *
+ *    header     MAGIC, VERSION, games, ID width, genres, catalog version
+ *    records    per game in gameID order: the gameID in UTF-8, zero-padded
+ *               to the ID width, a multiple of 8; price in cents; genre number; offset and
+ *               length of gameName, description and imageURL (length -1
+ *               for NULL)
+ *    byPrice    record numbers ordered by price, then gameID
+ *    genres     per genre in name order: offset and length of the name,
+ *               first entry and entry count in byGenre
+ *    byGenre    record numbers grouped by genre, in gameID order
+ *    strings    the UTF-8 text the offsets point into
+ *
+ * Lookups binary-search the records on the encoded gameID and read prices
+ * straight from the mapping; only the games a caller actually reads are
+ * decoded into CatalogCache.Game objects.  Files are replaced by writing a
+ * new one and renaming it over the old, so a process mapping the old file
+ * keeps reading a complete catalog.  The catalog version is the
+ * CatalogVersion the games were read at, which CatalogCache compares with
+ * the database's before trusting the file.
+ */
+public class CatalogFile {
+
+   static final int MAGIC = 0x47524346;   // "GRCF"
+   static final int VERSION = 2;
+   static final int HEADER_BYTES = 32;
+   // bytes of a record after the gameID
+   static final int RECORD_FIELDS_BYTES = 8 + 4 + 6 * 4;
+
+   private final ByteBuffer _map;
+   private final int _games;
+   private final int _idWidth;
+   private final int _recordBytes;
+   private final int _byPrice;
+   private final int _byGenre;
+   private final long _catalogVersion;
+   // genre name to its first entry and entry count in byGenre; a dozen
+   // entries, read once at open
+   private final Map<String, int[]> _genres = new HashMap<String, int[]>();
+
+   private CatalogFile(ByteBuffer map) throws IOException {
+      this._map = map;
+      if (map.capacity() < HEADER_BYTES || map.getInt(0) != MAGIC || map.getInt(4) != VERSION || map.getInt(12) % 8 != 0)
+         throw new IOException("Not a version " + VERSION + " catalog file");
+      this._games = map.getInt(8);
+      this._idWidth = map.getInt(12);
+      int genres = map.getInt(16);
+      this._catalogVersion = map.getLong(20);
+      this._recordBytes = this._idWidth + RECORD_FIELDS_BYTES;
+      this._byPrice = HEADER_BYTES + this._games * this._recordBytes;
+      int genreTable = this._byPrice + this._games * 4;
+      this._byGenre = genreTable + genres * 16;
+      if (this._byGenre + this._games * 4 > map.capacity())
+         throw new IOException("Catalog file is truncated");
+      for (int g = 0; g < genres; ++g) {
+         int at = genreTable + g * 16;
+         this._genres.put(string(map.getInt(at), map.getInt(at + 4)),
+                          new int[] { map.getInt(at + 8), map.getInt(at + 12) });
+      }//end for
+   }//end CatalogFile
+
+   /**
+    * Maps a catalog file written by write()
+    *
+    * @throws java.io.IOException when the file cannot be read or is not a catalog file
+    */
+   public static CatalogFile open(File file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         // the mapping stays valid after the channel is closed
+         MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         return new CatalogFile(map);
+      }//end try
+   }//end open
+
+   // ---- lookups
+
+   public int size() { return this._games; }
+
+   /**
+    * @return the CatalogVersion the games were read at
+    */
+   public long catalogVersion() { return this._catalogVersion; }
+
+   /**
+    * @return the record number of the game, or -1 if it is not in the file
+    */
+   public int find(String gameID) {
+      byte[] bytes = gameID.getBytes(StandardCharsets.UTF_8);
+      if (bytes.length > this._idWidth)
+         return -1;
+      // the key as padded in the records, 8 bytes to a word
+      ByteBuffer padded = ByteBuffer.allocate(this._idWidth).put(bytes);
+      long[] key = new long[this._idWidth / 8];
+      for (int w = 0; w < key.length; ++w)
+         key[w] = padded.getLong(w * 8);
+      int lo = 0, hi = this._games - 1;
+      while (lo <= hi) {
+         int mid = (lo + hi) >>> 1;
+         int cmp = compareId(mid, key);
+         if (cmp < 0)
+            lo = mid + 1;
+         else if (cmp > 0)
+            hi = mid - 1;
+         else
+            return mid;
+      }//end while
+      return -1;
+   }//end find
+
+   /**
+    * Compares the padded gameID of a record with key a word at a time; as
+    * the words are big-endian, unsigned word order is unsigned byte order,
+    * the order write() sorts the records in
+    */
+   private int compareId(int record, long[] key) {
+      int at = HEADER_BYTES + record * this._recordBytes;
+      for (int w = 0; w < key.length; ++w) {
+         int cmp = Long.compareUnsigned(this._map.getLong(at + w * 8), key[w]);
+         if (cmp != 0)
+            return cmp;
+      }//end for
+      return 0;
+   }//end compareId
+
+   public long priceCents(int record) {
+      return this._map.getLong(HEADER_BYTES + record * this._recordBytes + this._idWidth);
+   }
+
+   public BigDecimal price(int record) {
+      return BigDecimal.valueOf(priceCents(record), 2);
+   }
+
+   /**
+    * @return the record decoded into a Game
+    */
+   public CatalogCache.Game game(int record) {
+      int at = HEADER_BYTES + record * this._recordBytes;
+      int idLength = this._idWidth;
+      while (idLength > 0 && this._map.get(at + idLength - 1) == 0)
+         --idLength;
+      byte[] id = new byte[idLength];
+      this._map.get(at, id);
+      int fields = at + this._idWidth + 8;
+      int genre = this._map.getInt(fields);
+      return new CatalogCache.Game(new String(id, StandardCharsets.UTF_8),
+                                   string(this._map.getInt(fields + 4), this._map.getInt(fields + 8)),
+                                   genreName(genre), price(record),
+                                   string(this._map.getInt(fields + 12), this._map.getInt(fields + 16)),
+                                   string(this._map.getInt(fields + 20), this._map.getInt(fields + 24)));
+   }//end game
+
+   private String genreName(int genre) {
+      int at = this._byPrice + this._games * 4 + genre * 16;
+      return string(this._map.getInt(at), this._map.getInt(at + 4));
+   }//end genreName
+
+   private String string(int offset, int length) {
+      if (length < 0)
+         return null;
+      byte[] bytes = new byte[length];
+      this._map.get(offset, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+   }//end string
+
+   /**
+    * @return every game, in gameID order, decoded as read
+    */
+   public List<CatalogCache.Game> games() {
+      return new Games(-1, 0, this._games, false);
+   }
+
+   /**
+    * @return the games of the genre, in gameID order, decoded as read
+    */
+   public List<CatalogCache.Game> byGenre(String genre) {
+      int[] range = this._genres.get(genre);
+      if (range == null)
+         return Collections.<CatalogCache.Game>emptyList();
+      return new Games(this._byGenre, range[0], range[1], false);
+   }//end byGenre
+
+   /**
+    * @return the games costing exactly the given price, decoded as read
+    */
+   public List<CatalogCache.Game> byPrice(BigDecimal price) {
+      BigDecimal scaled = price.movePointRight(2);
+      if (scaled.compareTo(scaled.setScale(0, RoundingMode.DOWN)) != 0)
+         return Collections.<CatalogCache.Game>emptyList();
+      long cents = scaled.longValue();
+      int first = lowerBound(cents), last = lowerBound(cents + 1);
+      return new Games(this._byPrice, first, last - first, false);
+   }//end byPrice
+
+   /**
+    * @return every game sorted by price, decoded as read
+    */
+   public List<CatalogCache.Game> sortedByPrice(boolean ascending) {
+      return new Games(this._byPrice, 0, this._games, !ascending);
+   }
+
+   /**
+    * @return the first byPrice entry costing at least cents
+    */
+   private int lowerBound(long cents) {
+      int lo = 0, hi = this._games;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (priceCents(this._map.getInt(this._byPrice + mid * 4)) < cents)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }//end while
+      return lo;
+   }//end lowerBound
+
+   /**
+    * A run of records, either consecutive or listed in an index section,
+    * decoding each game when it is read
+    */
+   private final class Games extends AbstractList<CatalogCache.Game> {
+      private final int _index;
+      private final int _first;
+      private final int _count;
+      private final boolean _reversed;
+
+      Games(int index, int first, int count, boolean reversed) {
+         this._index = index;
+         this._first = first;
+         this._count = count;
+         this._reversed = reversed;
+      }
+
+      @Override
+      public CatalogCache.Game get(int i) {
+         if (i < 0 || i >= this._count)
+            throw new IndexOutOfBoundsException("Index " + i + " of " + this._count);
+         int entry = this._first + (this._reversed ? this._count - 1 - i : i);
+         return game(this._index < 0 ? entry : _map.getInt(this._index + entry * 4));
+      }
+
+      @Override
+      public int size() { return this._count; }
+   }//end Games
+
+   // ---- writing
+
+   /**
+    * Reads the games of a catalog CSV file as loaded by load_data.sql,
+    * e.g. data/catalog.csv
+    *
+    * @throws java.io.IOException when the file cannot be read
+    */
+   public static List<CatalogCache.Game> readCsv(File csv) throws IOException {
+      List<CatalogCache.Game> games = new ArrayList<CatalogCache.Game>();
+      try (BufferedReader in = Files.newBufferedReader(csv.toPath(), StandardCharsets.UTF_8)) {
+         in.readLine();   // header
+         String line;
+         while ((line = in.readLine()) != null) {
+            if (line.isEmpty())
+               continue;
+            List<String> r = Csv.parseLine(line);
+            games.add(new CatalogCache.Game(r.get(0), r.get(1), r.get(2), new BigDecimal(r.get(3)), r.get(4), r.get(5)));
+         }//end while
+      }//end try
+      return games;
+   }//end readCsv
+
+   /**
+    * Writes the games to a new catalog file and renames it over file
+    *
+    * @param catalogVersion the CatalogVersion the games were read at
+    * @throws java.io.IOException when the file cannot be written
+    */
+   public static void write(Collection<CatalogCache.Game> games, long catalogVersion, File file) throws IOException {
+      CatalogCache.Game[] byId = games.toArray(new CatalogCache.Game[0]);
+      byte[][] ids = new byte[byId.length][];
+      for (int i = 0; i < byId.length; ++i)
+         ids[i] = byId[i].gameID.getBytes(StandardCharsets.UTF_8);
+      Integer[] order = new Integer[byId.length];
+      for (int i = 0; i < order.length; ++i)
+         order[i] = i;
+      Arrays.sort(order, (a, b) -> compareBytes(ids[a], ids[b]));
+      CatalogCache.Game[] sorted = new CatalogCache.Game[byId.length];
+      byte[][] sortedIds = new byte[byId.length][];
+      int idWidth = 8;
+      for (int i = 0; i < order.length; ++i) {
+         sorted[i] = byId[order[i]];
+         sortedIds[i] = ids[order[i]];
+         idWidth = Math.max(idWidth, (sortedIds[i].length + 7) & ~7);
+      }//end for
+
+      // genres in name order, each with its records in gameID order
+      Map<String, List<Integer>> genres = new LinkedHashMap<String, List<Integer>>();
+      List<String> names = new ArrayList<String>();
+      for (CatalogCache.Game g : sorted)
+         if (!genres.containsKey(g.genre)) {
+            genres.put(g.genre, new ArrayList<Integer>());
+            names.add(g.genre);
+         }//end if
+      Collections.sort(names);
+      Map<String, Integer> genreNumber = new HashMap<String, Integer>();
+      for (int g = 0; g < names.size(); ++g)
+         genreNumber.put(names.get(g), g);
+      for (int i = 0; i < sorted.length; ++i)
+         genres.get(sorted[i].genre).add(i);
+
+      long[] cents = new long[sorted.length];
+      Integer[] byPrice = new Integer[sorted.length];
+      for (int i = 0; i < sorted.length; ++i) {
+         cents[i] = sorted[i].price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+         byPrice[i] = i;
+      }//end for
+      // records are in gameID order, so ties on price keep it
+      Arrays.sort(byPrice, (a, b) -> Long.compare(cents[a], cents[b]));
+
+      int recordBytes = idWidth + RECORD_FIELDS_BYTES;
+      long fixed = HEADER_BYTES + (long) sorted.length * (recordBytes + 8) + names.size() * 16L;
+      if (fixed > Integer.MAX_VALUE)
+         throw new IOException("Catalog too large for a catalog file");
+      Strings strings = new Strings(fixed);
+      ByteBuffer out = ByteBuffer.allocate((int) fixed);
+      out.putInt(MAGIC).putInt(VERSION).putInt(sorted.length).putInt(idWidth).putInt(names.size())
+         .putLong(catalogVersion).putInt(0);
+      for (int i = 0; i < sorted.length; ++i) {
+         out.put(sortedIds[i]);
+         for (int pad = sortedIds[i].length; pad < idWidth; ++pad)
+            out.put((byte) 0);
+         out.putLong(cents[i]).putInt(genreNumber.get(sorted[i].genre));
+         strings.put(out, sorted[i].gameName);
+         strings.put(out, sorted[i].description);
+         strings.put(out, sorted[i].imageURL);
+      }//end for
+      for (Integer record : byPrice)
+         out.putInt(record);
+      int entry = 0;
+      for (String name : names) {
+         strings.put(out, name);
+         out.putInt(entry).putInt(genres.get(name).size());
+         entry += genres.get(name).size();
+      }//end for
+      for (String name : names)
+         for (Integer record : genres.get(name))
+            out.putInt(record);
+      out.flip();
+
+      Path target = file.getAbsoluteFile().toPath();
+      Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+      try {
+         try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining())
+               channel.write(out);
+            ByteBuffer text = ByteBuffer.wrap(strings.bytes(), 0, strings.size());
+            while (text.hasRemaining())
+               channel.write(text);
+            channel.force(true);
+         }//end try
+         Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+         Files.deleteIfExists(temp);
+      }//end try
+   }//end write
+
+   private static int compareBytes(byte[] a, byte[] b) {
+      for (int i = 0; i < Math.min(a.length, b.length); ++i)
+         if (a[i] != b[i])
+            return (a[i] & 0xff) - (b[i] & 0xff);
+      return a.length - b.length;
+   }//end compareBytes
+
+   /**
+    * The strings section being built, with the file offset it starts at
+    */
+   private static final class Strings {
+      private final long _base;
+      private byte[] _bytes = new byte[1 << 16];
+      private int _size = 0;
+
+      Strings(long base) {
+         this._base = base;
+      }
+
+      /**
+       * Appends s and writes its offset and length to out
+       */
+      void put(ByteBuffer out, String s) throws IOException {
+         if (s == null) {
+            out.putInt(0).putInt(-1);
+            return;
+         }//end if
+         byte[] b = s.getBytes(StandardCharsets.UTF_8);
+         if (this._base + this._size + b.length > Integer.MAX_VALUE)
+            throw new IOException("Catalog too large for a catalog file");
+         if (this._size + b.length > this._bytes.length)
+            this._bytes = Arrays.copyOf(this._bytes, Math.max(this._bytes.length * 2, this._size + b.length));
+         System.arraycopy(b, 0, this._bytes, this._size, b.length);
+         out.putInt((int) (this._base + this._size)).putInt(b.length);
+         this._size += b.length;
+      }
+
+      byte[] bytes() { return this._bytes; }
+      int size() { return this._size; }
+   }//end Strings
+
+}//end CatalogFile
@@ -0,0 +1,498 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Immutable inverted index over one catalog snapshot, answering ranked
+ * keyword searches with genre, platform and price range filters and the
+ * counts of every facet value among the matches.
+ *
+ * Game names and descriptions are split into lower case words; the
+ * descriptions hold "Platform: X;  Publisher: Y", so platform and publisher
+ * names are searchable too and the platform doubles as a facet.  Each word
+ * maps to the ascending ordinals of the games containing it, and a query
+ * intersects the lists of its words starting from the shortest.  A game's
+ * score adds up, for every query word, the word's inverse document frequency
+ * weighted by where it occurs: a name match counts twice a description match.
+ *
+ * Searches without words are answered from precomputed counts per (genre,
+ * platform, price) instead of a scan of the whole catalog.
+ *
+ * Facet counts follow the usual drill-down rule: the genre counts apply every
+ * filter except the genre one, and likewise for platform and price, so a
+ * user can see what picking another value would return.
+ */
+public class CatalogSearch {
+
+   // words of the description labels, present in every game
+   static final Set<String> STOP_WORDS = new HashSet<String>(Arrays.asList(
+      "a", "an", "and", "of", "the", "platform", "publisher"));
+
+   static final int NAME_WEIGHT = 2;
+   static final int DESCRIPTION_WEIGHT = 1;
+   // where a word occurs in a game, or'ed together in Postings.where
+   static final int IN_NAME = 1;
+   static final int IN_DESCRIPTION = 2;
+
+   // upper bounds, in cents, of the price facet ranges; the last range is open
+   static final int[] PRICE_BOUNDS = { 2000, 3000, 4000, 5000 };
+   static final String[] PRICE_RANGES = { "under 20", "20 - 29.99", "30 - 39.99", "40 - 49.99", "50 and up" };
+
+   static final int PAGE_SIZE = 20;
+   static final int MAX_PAGE_SIZE = 100;
+   // deepest result reachable by paging, which bounds the ranking heap
+   static final int MAX_RESULTS = 10000;
+
+   /**
+    * A search; every criterion is optional.
+    */
+   public static class Query {
+      public final String text;
+      public final String genre;
+      public final String platform;
+      public final BigDecimal minPrice;
+      public final BigDecimal maxPrice;
+      public final int offset;
+      public final int pageSize;
+
+      /**
+       * @param text the words to look for, all of which must match; null or blank for any game
+       * @param genre the exact genre, or null for any
+       * @param platform the exact platform, or null for any
+       * @param minPrice the lowest price, inclusive, or null
+       * @param maxPrice the highest price, inclusive, or null
+       * @param offset the number of ranked results to skip
+       * @param pageSize the number of results to return
+       */
+      public Query(String text, String genre, String platform, BigDecimal minPrice, BigDecimal maxPrice,
+                   int offset, int pageSize) {
+         this.text = text;
+         this.genre = genre;
+         this.platform = platform;
+         this.minPrice = minPrice;
+         this.maxPrice = maxPrice;
+         this.offset = offset;
+         this.pageSize = pageSize;
+      }
+   }//end Query
+
+   public static class Result {
+      public final List<CatalogCache.Game> games;
+      public final int totalHits;
+      // facet value -> matching games, most frequent first; price ranges in price order
+      public final Map<String, Integer> genres;
+      public final Map<String, Integer> platforms;
+      public final Map<String, Integer> prices;
+
+      Result(List<CatalogCache.Game> games, int totalHits, Map<String, Integer> genres,
+             Map<String, Integer> platforms, Map<String, Integer> prices) {
+         this.games = games;
+         this.totalHits = totalHits;
+         this.genres = genres;
+         this.platforms = platforms;
+         this.prices = prices;
+      }
+   }//end Result
+
+   /**
+    * The games containing one word, in ascending ordinal order, and where
+    * in each game the word was found.
+    */
+   static class Postings {
+      int[] games = new int[4];
+      byte[] where = new byte[4];
+      int size = 0;
+      double idf;
+
+      void add(int game, int in) {
+         if (this.size > 0 && this.games[this.size - 1] == game) {
+            // already seen in this game's name, now in its description or vice versa
+            this.where[this.size - 1] |= in;
+            return;
+         }//end if
+         if (this.size == this.games.length) {
+            this.games = Arrays.copyOf(this.games, this.size * 2);
+            this.where = Arrays.copyOf(this.where, this.size * 2);
+         }//end if
+         this.games[this.size] = game;
+         this.where[this.size] = (byte) in;
+         ++this.size;
+      }//end add
+
+      void trim(int totalGames) {
+         this.games = Arrays.copyOf(this.games, this.size);
+         this.where = Arrays.copyOf(this.where, this.size);
+         this.idf = Math.log(1.0 + (double) totalGames / this.size);
+      }//end trim
+
+      double score(int i) {
+         int in = this.where[i];
+         return this.idf * (((in & IN_NAME) != 0 ? NAME_WEIGHT : 0) + ((in & IN_DESCRIPTION) != 0 ? DESCRIPTION_WEIGHT : 0));
+      }//end score
+   }//end Postings
+
+   private final CatalogCache.Game[] _games;
+   private final Map<String, Postings> _postings = new HashMap<String, Postings>();
+   // per game ordinal: genre and platform numbers, price in cents
+   private final int[] _genre;
+   private final int[] _platform;
+   private final int[] _cents;
+   private final String[] _genreNames;
+   private final String[] _platformNames;
+   // games of each genre and of each platform, in ascending ordinal order
+   private final int[][] _byGenre;
+   private final int[][] _byPlatform;
+   // distinct prices in cents, ascending, and the number of games for every
+   // (genre, platform, price) at [(genre * platforms + platform) * prices + price];
+   // null when there would be more cells than games
+   private final int[] _prices;
+   private final int[] _counts;
+
+   /**
+    * Indexes the games
+    *
+    * @param games the catalog, in the order ties in score are returned
+    */
+   public CatalogSearch(Collection<CatalogCache.Game> games) {
+      this._games = games.toArray(new CatalogCache.Game[0]);
+      int n = this._games.length;
+      this._genre = new int[n];
+      this._platform = new int[n];
+      this._cents = new int[n];
+      Map<String, Integer> genres = new LinkedHashMap<String, Integer>();
+      Map<String, Integer> platforms = new LinkedHashMap<String, Integer>();
+      List<String> words = new ArrayList<String>();
+      for (int i = 0; i < n; ++i) {
+         CatalogCache.Game game = this._games[i];
+         this._genre[i] = number(genres, game.genre == null ? "" : game.genre);
+         this._platform[i] = number(platforms, platform(game.description));
+         this._cents[i] = game.price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).intValue();
+         words.clear();
+         tokenize(game.gameName, words);
+         for (String word : words)
+            this._postings.computeIfAbsent(word, k -> new Postings()).add(i, IN_NAME);
+         words.clear();
+         tokenize(game.description, words);
+         for (String word : words)
+            this._postings.computeIfAbsent(word, k -> new Postings()).add(i, IN_DESCRIPTION);
+      }//end for
+      for (Postings p : this._postings.values())
+         p.trim(n);
+      this._genreNames = genres.keySet().toArray(new String[0]);
+      this._platformNames = platforms.keySet().toArray(new String[0]);
+      this._byGenre = group(this._genre, this._genreNames.length);
+      this._byPlatform = group(this._platform, this._platformNames.length);
+
+      this._prices = Arrays.stream(this._cents).distinct().sorted().toArray();
+      long cells = (long) this._genreNames.length * this._platformNames.length * this._prices.length;
+      if (cells <= Math.max(n, 1)) {
+         this._counts = new int[(int) cells];
+         for (int i = 0; i < n; ++i)
+            ++this._counts[cell(this._genre[i], this._platform[i], Arrays.binarySearch(this._prices, this._cents[i]))];
+      } else {
+         this._counts = null;
+      }//end if
+   }//end CatalogSearch
+
+   private int cell(int genre, int platform, int price) {
+      return (genre * this._platformNames.length + platform) * this._prices.length + price;
+   }
+
+   /**
+    * @return for every value, the ordinals of the games having it
+    */
+   private static int[][] group(int[] values, int distinct) {
+      int[][] groups = new int[distinct][];
+      int[] sizes = new int[distinct];
+      for (int v : values)
+         ++sizes[v];
+      for (int v = 0; v < distinct; ++v)
+         groups[v] = new int[sizes[v]];
+      Arrays.fill(sizes, 0);
+      for (int i = 0; i < values.length; ++i)
+         groups[values[i]][sizes[values[i]]++] = i;
+      return groups;
+   }//end group
+
+   private static int number(Map<String, Integer> names, String name) {
+      Integer number = names.get(name);
+      if (number == null) {
+         number = names.size();
+         names.put(name, number);
+      }//end if
+      return number;
+   }//end number
+
+   /**
+    * @return the platform named in a "Platform: X; ..." description, or "" when there is none
+    */
+   static String platform(String description) {
+      if (description == null)
+         return "";
+      int start = description.indexOf("Platform:");
+      if (start < 0)
+         return "";
+      start += "Platform:".length();
+      int end = description.indexOf(';', start);
+      return description.substring(start, end < 0 ? description.length() : end).trim();
+   }//end platform
+
+   /**
+    * Appends the lower case words of the text, without stop words
+    */
+   static void tokenize(String text, List<String> words) {
+      if (text == null)
+         return;
+      StringBuilder word = new StringBuilder();
+      for (int i = 0; i <= text.length(); ++i) {
+         char c = i < text.length() ? text.charAt(i) : ' ';
+         if (Character.isLetterOrDigit(c)) {
+            word.append(Character.toLowerCase(c));
+         } else if (word.length() > 0) {
+            String w = word.toString();
+            if (!STOP_WORDS.contains(w))
+               words.add(w);
+            word.setLength(0);
+         }//end if
+      }//end for
+   }//end tokenize
+
+   public int size() {
+      return this._games.length;
+   }
+
+   /**
+    * Runs a search
+    *
+    * @param query the words, filters and page
+    * @return one page of games ranked by score, then in catalog order, with the match and facet counts
+    * @throws IllegalArgumentException when the page lies outside 0 .. MAX_RESULTS or is larger than MAX_PAGE_SIZE
+    */
+   public Result search(Query query) {
+      if (query.offset < 0 || query.pageSize < 1 || query.pageSize > MAX_PAGE_SIZE
+          || query.offset + query.pageSize > MAX_RESULTS)
+         throw new IllegalArgumentException("Results " + query.offset + " .. " + (query.offset + query.pageSize)
+                                            + " are out of range; pages hold 1 .. " + MAX_PAGE_SIZE
+                                            + " results and end by result " + MAX_RESULTS);
+      int genre = query.genre == null ? -1 : indexOf(this._genreNames, query.genre);
+      int platform = query.platform == null ? -1 : indexOf(this._platformNames, query.platform);
+      int minCents = query.minPrice == null ? Integer.MIN_VALUE
+                   : query.minPrice.movePointRight(2).setScale(0, RoundingMode.CEILING).intValue();
+      int maxCents = query.maxPrice == null ? Integer.MAX_VALUE
+                   : query.maxPrice.movePointRight(2).setScale(0, RoundingMode.FLOOR).intValue();
+
+      int[] genreCounts = new int[this._genreNames.length];
+      int[] platformCounts = new int[this._platformNames.length];
+      int[] priceCounts = new int[PRICE_RANGES.length];
+      Ranking ranking = new Ranking(query.offset + query.pageSize);
+      int totalHits = 0;
+
+      // an unknown genre or platform matches nothing, but still gets the other facets counted
+      boolean noGenre = query.genre != null && genre < 0;
+      boolean noPlatform = query.platform != null && platform < 0;
+
+      List<String> words = new ArrayList<String>();
+      tokenize(query.text, words);
+      Postings[] lists = new Postings[words.size()];
+      for (int w = 0; w < lists.length; ++w) {
+         lists[w] = this._postings.get(words.get(w));
+         if (lists[w] == null)
+            return new Result(Collections.<CatalogCache.Game>emptyList(), 0, facet(this._genreNames, genreCounts),
+                              facet(this._platformNames, platformCounts), prices(priceCounts));
+      }//end for
+      if (lists.length == 0 && this._counts != null)
+         return filter(query, genre, platform, noGenre, noPlatform, minCents, maxCents);
+      Arrays.sort(lists, Comparator.comparingInt((Postings p) -> p.size));
+
+      int candidates = lists.length == 0 ? this._games.length : lists[0].size;
+      int[] cursors = new int[lists.length];
+      for (int c = 0; c < candidates; ++c) {
+         int game = lists.length == 0 ? c : lists[0].games[c];
+         double score = lists.length == 0 ? 0 : lists[0].score(c);
+         boolean all = true;
+         for (int w = 1; w < lists.length && all; ++w) {
+            int at = seek(lists[w], cursors[w], game);
+            cursors[w] = at;
+            if (at < lists[w].size && lists[w].games[at] == game)
+               score += lists[w].score(at);
+            else
+               all = false;
+         }//end for
+         if (!all)
+            continue;
+
+         boolean genreOk = !noGenre && (genre < 0 || this._genre[game] == genre);
+         boolean platformOk = !noPlatform && (platform < 0 || this._platform[game] == platform);
+         int cents = this._cents[game];
+         boolean priceOk = cents >= minCents && cents <= maxCents;
+         if (platformOk && priceOk)
+            ++genreCounts[this._genre[game]];
+         if (genreOk && priceOk)
+            ++platformCounts[this._platform[game]];
+         if (genreOk && platformOk)
+            ++priceCounts[priceRange(cents)];
+         if (genreOk && platformOk && priceOk) {
+            ++totalHits;
+            ranking.offer(game, score);
+         }//end if
+      }//end for
+      List<CatalogCache.Game> page = ranking.page(query.offset);
+      return new Result(page, totalHits, facet(this._genreNames, genreCounts), facet(this._platformNames, platformCounts),
+                        prices(priceCounts));
+   }//end search
+
+   /**
+    * Answers a search without words from the facet counts, without looking
+    * at every game: all scores are equal, so the page is simply the matching
+    * games in catalog order, found by walking the games of the chosen genre
+    * or platform, whichever has fewer.
+    */
+   private Result filter(Query query, int genre, int platform, boolean noGenre, boolean noPlatform,
+                         int minCents, int maxCents) {
+      int[] genreCounts = new int[this._genreNames.length];
+      int[] platformCounts = new int[this._platformNames.length];
+      int[] priceCounts = new int[PRICE_RANGES.length];
+      int totalHits = 0;
+      for (int g = 0; g < this._genreNames.length; ++g) {
+         boolean genreOk = !noGenre && (genre < 0 || g == genre);
+         for (int p = 0; p < this._platformNames.length; ++p) {
+            boolean platformOk = !noPlatform && (platform < 0 || p == platform);
+            for (int c = 0; c < this._prices.length; ++c) {
+               int count = this._counts[cell(g, p, c)];
+               if (count == 0)
+                  continue;
+               int cents = this._prices[c];
+               boolean priceOk = cents >= minCents && cents <= maxCents;
+               if (platformOk && priceOk)
+                  genreCounts[g] += count;
+               if (genreOk && priceOk)
+                  platformCounts[p] += count;
+               if (genreOk && platformOk)
+                  priceCounts[priceRange(cents)] += count;
+               if (genreOk && platformOk && priceOk)
+                  totalHits += count;
+            }//end for
+         }//end for
+      }//end for
+
+      int[] walk = null;   // null for every game
+      if (genre >= 0)
+         walk = this._byGenre[genre];
+      if (platform >= 0 && (walk == null || this._byPlatform[platform].length < walk.length))
+         walk = this._byPlatform[platform];
+      int end = walk == null ? this._games.length : walk.length;
+      int wanted = Math.min(totalHits, query.offset + query.pageSize);
+      List<CatalogCache.Game> page = new ArrayList<CatalogCache.Game>();
+      for (int i = 0, seen = 0; i < end && seen < wanted; ++i) {
+         int game = walk == null ? i : walk[i];
+         if ((genre < 0 || this._genre[game] == genre) && (platform < 0 || this._platform[game] == platform)
+             && this._cents[game] >= minCents && this._cents[game] <= maxCents && seen++ >= query.offset)
+            page.add(this._games[game]);
+      }//end for
+      return new Result(page, totalHits, facet(this._genreNames, genreCounts), facet(this._platformNames, platformCounts),
+                        prices(priceCounts));
+   }//end filter
+
+   /**
+    * @return the first position at or after from whose game is not below the given one
+    */
+   private static int seek(Postings p, int from, int game) {
+      // gallop, then binary search the last step
+      int step = 1;
+      int hi = from;
+      while (hi < p.size && p.games[hi] < game) {
+         from = hi + 1;
+         hi += step;
+         step <<= 1;
+      }//end while
+      hi = Math.min(hi, p.size);
+      while (from < hi) {
+         int mid = (from + hi) >>> 1;
+         if (p.games[mid] < game)
+            from = mid + 1;
+         else
+            hi = mid;
+      }//end while
+      return from;
+   }//end seek
+
+   static int priceRange(int cents) {
+      int range = 0;
+      while (range < PRICE_BOUNDS.length && cents >= PRICE_BOUNDS[range])
+         ++range;
+      return range;
+   }//end priceRange
+
+   private static int indexOf(String[] names, String name) {
+      for (int i = 0; i < names.length; ++i)
+         if (names[i].equalsIgnoreCase(name))
+            return i;
+      return -1;
+   }//end indexOf
+
+   private static Map<String, Integer> facet(String[] names, int[] counts) {
+      Integer[] order = new Integer[names.length];
+      for (int i = 0; i < order.length; ++i)
+         order[i] = i;
+      Arrays.sort(order, (a, b) -> counts[a] != counts[b] ? Integer.compare(counts[b], counts[a]) : names[a].compareTo(names[b]));
+      Map<String, Integer> facet = new LinkedHashMap<String, Integer>();
+      for (int i : order)
+         if (counts[i] > 0)
+            facet.put(names[i], counts[i]);
+      return facet;
+   }//end facet
+
+   private static Map<String, Integer> prices(int[] counts) {
+      Map<String, Integer> facet = new LinkedHashMap<String, Integer>();
+      for (int i = 0; i < counts.length; ++i)
+         facet.put(PRICE_RANGES[i], counts[i]);
+      return facet;
+   }//end prices
+
+   /**
+    * Keeps the best n games seen so far, the worst of them on top of a heap.
+    */
+   private class Ranking {
+      private final int _n;
+      private final PriorityQueue<double[]> _heap;
+
+      Ranking(int n) {
+         this._n = n;
+         // worst first: lower score, then later in catalog order
+         this._heap = new PriorityQueue<double[]>(Math.min(n, 1024) + 1,
+            (a, b) -> a[0] != b[0] ? Double.compare(a[0], b[0]) : Double.compare(b[1], a[1]));
+      }
+
+      void offer(int game, double score) {
+         if (this._heap.size() == this._n) {
+            double[] worst = this._heap.peek();
+            // games come in catalog order, so an equal score never wins
+            if (score <= worst[0])
+               return;
+            this._heap.poll();
+         }//end if
+         this._heap.add(new double[] { score, game });
+      }//end offer
+
+      List<CatalogCache.Game> page(int offset) {
+         double[][] best = this._heap.toArray(new double[0][]);
+         Arrays.sort(best, (a, b) -> a[0] != b[0] ? Double.compare(b[0], a[0]) : Double.compare(a[1], b[1]));
+         List<CatalogCache.Game> page = new ArrayList<CatalogCache.Game>();
+         for (int i = offset; i < best.length; ++i)
+            page.add(CatalogSearch.this._games[(int) best[i][1]]);
+         return page;
+      }//end page
+   }//end Ranking
+
+}//end CatalogSearch
@@ -0,0 +1,356 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of physical connections shared by every session of the
+ * process.  Each pooled connection carries its own StatementCache so
+ * prepared statements survive between borrows.
+ *
+ * Connections are validated on borrow once they have been idle for longer
+ * than the validation interval, idle connections above the minimum size are
+ * closed by a background evictor, and the time spent waiting for a free
+ * connection is recorded.
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection together with its statement cache.
+    */
+   public static class PooledConnection {
+      final Connection connection;
+      final StatementCache statements;
+      final int backendPid;
+      long lastUsed;
+
+      PooledConnection(Connection connection, int cacheSize, int backendPid) {
+         this.connection = connection;
+         this.statements = new StatementCache(connection, cacheSize);
+         this.backendPid = backendPid;
+         this.lastUsed = System.currentTimeMillis();
+      }
+
+      public Connection getConnection() { return this.connection; }
+      public StatementCache getStatementCache() { return this.statements; }
+   }//end PooledConnection
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _idleTimeoutMillis;
+   private final long _borrowTimeoutMillis;
+   private final long _validationIntervalMillis;
+   private final int _stmtCacheSize;
+
+   // one permit per connection that may still be handed out
+   private final Semaphore _permits;
+   // most recently returned connection first, so cold ones age out at the tail
+   private final LinkedBlockingDeque<PooledConnection> _idle = new LinkedBlockingDeque<PooledConnection>();
+   private final AtomicInteger _open = new AtomicInteger();
+   // server process IDs of the open connections, to recognize their NOTIFYs
+   private final Set<Integer> _backendPids = ConcurrentHashMap.newKeySet();
+   private final ScheduledExecutorService _evictor;
+   private volatile boolean _closed = false;
+
+   // metrics
+   private final AtomicLong _borrows = new AtomicLong();
+   private final AtomicLong _timeouts = new AtomicLong();
+   private final AtomicLong _waitNanos = new AtomicLong();
+   private final AtomicLong _maxWaitNanos = new AtomicLong();
+   private final AtomicLong _created = new AtomicLong();
+   private final AtomicLong _destroyed = new AtomicLong();
+   private final AtomicLong _evicted = new AtomicLong();
+   private final AtomicLong _validationFailures = new AtomicLong();
+   // statement cache counters of connections that have been closed
+   private final AtomicLong _retiredHits = new AtomicLong();
+   private final AtomicLong _retiredMisses = new AtomicLong();
+   private final AtomicLong _retiredEvictions = new AtomicLong();
+
+   /**
+    * Creates a pool and opens its minimum number of connections
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize connections kept open even when idle
+    * @param maxSize upper bound on open connections
+    * @param idleTimeoutMillis idle time after which connections above minSize are closed
+    * @param borrowTimeoutMillis how long borrow() waits for a free connection
+    * @param validationIntervalMillis idle time after which a connection is validated on borrow
+    * @param stmtCacheSize statement cache size of each connection
+    * @throws java.sql.SQLException when the initial connections cannot be opened
+    */
+   public ConnectionPool(String url, String user, String passwd,
+                         int minSize, int maxSize,
+                         long idleTimeoutMillis, long borrowTimeoutMillis,
+                         long validationIntervalMillis, int stmtCacheSize) throws SQLException {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = Math.max(1, maxSize);
+      this._minSize = Math.max(0, Math.min(minSize, this._maxSize));
+      this._idleTimeoutMillis = idleTimeoutMillis;
+      this._borrowTimeoutMillis = borrowTimeoutMillis;
+      this._validationIntervalMillis = validationIntervalMillis;
+      this._stmtCacheSize = stmtCacheSize;
+      this._permits = new Semaphore(this._maxSize, true);
+
+      for (int i = 0; i < this._minSize; ++i)
+         this._idle.offerLast(create());
+
+      this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "ConnectionPool-evictor");
+         t.setDaemon(true);
+         return t;
+      });
+      long period = Math.max(1000L, idleTimeoutMillis / 2);
+      this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Creates a pool configured from the gamerental.pool.* system properties
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @return the new pool
+    * @throws java.sql.SQLException when the initial connections cannot be opened
+    */
+   public static ConnectionPool fromSystemProperties(String url, String user, String passwd) throws SQLException {
+      return new ConnectionPool(url, user, passwd,
+         Integer.getInteger("gamerental.pool.min", 1),
+         Integer.getInteger("gamerental.pool.max", 10),
+         Long.getLong("gamerental.pool.idleTimeoutMs", 60000L),
+         Long.getLong("gamerental.pool.borrowTimeoutMs", 5000L),
+         Long.getLong("gamerental.pool.validationIntervalMs", 5000L),
+         Integer.getInteger("gamerental.stmtCacheSize", StatementCache.DEFAULT_SIZE));
+   }//end fromSystemProperties
+
+   /**
+    * Borrows a connection, waiting at most the borrow timeout for one to
+    * become free.  Every borrowed connection must be handed back through
+    * release().
+    *
+    * @return a validated connection
+    * @throws java.sql.SQLException when no connection could be obtained in time
+    */
+   public PooledConnection borrow() throws SQLException {
+      if (this._closed)
+         throw new SQLException("Connection pool is closed");
+      long start = System.nanoTime();
+      try {
+         if (!this._permits.tryAcquire(this._borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            this._timeouts.incrementAndGet();
+            throw new SQLException("Timed out after " + this._borrowTimeoutMillis
+                                   + "ms waiting for a database connection");
+         }//end if
+      }catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted while waiting for a database connection");
+      }//end try
+      long waited = System.nanoTime() - start;
+      this._borrows.incrementAndGet();
+      this._waitNanos.addAndGet(waited);
+      this._maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+      try {
+         PooledConnection pc;
+         while ((pc = this._idle.pollFirst()) != null) {
+            if (validate(pc))
+               return pc;
+            this._validationFailures.incrementAndGet();
+            destroy(pc);
+         }//end while
+         return create();
+      }catch (SQLException | RuntimeException e) {
+         this._permits.release();
+         throw e;
+      }//end try
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back to the pool.  Any transaction left
+    * open by the borrower is rolled back.
+    *
+    * @param pc the connection obtained from borrow()
+    */
+   public void release(PooledConnection pc) {
+      if (pc == null)
+         return;
+      try {
+         if (this._closed || pc.connection.isClosed()) {
+            destroy(pc);
+            return;
+         }//end if
+         if (!pc.connection.getAutoCommit()) {
+            pc.connection.rollback();
+            pc.connection.setAutoCommit(true);
+         }//end if
+         pc.lastUsed = System.currentTimeMillis();
+         this._idle.offerFirst(pc);
+      }catch (SQLException e) {
+         destroy(pc);
+      }finally {
+         this._permits.release();
+      }//end try
+   }//end release
+
+   /**
+    * Closes every idle connection and stops the evictor.  Connections still
+    * borrowed are closed when they are released.
+    */
+   public void close() {
+      this._closed = true;
+      this._evictor.shutdownNow();
+      PooledConnection pc;
+      while ((pc = this._idle.pollFirst()) != null)
+         destroy(pc);
+   }//end close
+
+   /**
+    * Opens a connection outside the pool, for long-lived work such as
+    * LISTEN that must not hold on to a pooled connection.  The caller
+    * closes it.
+    *
+    * @return a new physical connection
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public Connection openConnection() throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }//end openConnection
+
+   /**
+    * @return true if the server process belongs to a connection of this pool,
+    *         as reported by PGNotification.getPID()
+    */
+   public boolean isOwnBackend(int pid) {
+      return this._backendPids.contains(pid);
+   }//end isOwnBackend
+
+   private PooledConnection create() throws SQLException {
+      Connection conn = DriverManager.getConnection(this._url, this._user, this._passwd);
+      int pid;
+      try {
+         Statement stmt = conn.createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery("SELECT pg_backend_pid()");
+            rs.next();
+            pid = rs.getInt(1);
+         } finally {
+            stmt.close();
+         }
+      }catch (SQLException e) {
+         conn.close();
+         throw e;
+      }//end try
+      this._backendPids.add(pid);
+      this._open.incrementAndGet();
+      this._created.incrementAndGet();
+      return new PooledConnection(conn, this._stmtCacheSize, pid);
+   }//end create
+
+   private void destroy(PooledConnection pc) {
+      this._retiredHits.addAndGet(pc.statements.getHits());
+      this._retiredMisses.addAndGet(pc.statements.getMisses());
+      this._retiredEvictions.addAndGet(pc.statements.getEvictions());
+      pc.statements.clear();
+      this._backendPids.remove(pc.backendPid);
+      try {
+         pc.connection.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+      this._open.decrementAndGet();
+      this._destroyed.incrementAndGet();
+   }//end destroy
+
+   private boolean validate(PooledConnection pc) {
+      if (System.currentTimeMillis() - pc.lastUsed < this._validationIntervalMillis)
+         return true;
+      try {
+         Statement stmt = pc.connection.createStatement();
+         try {
+            ResultSet rs = stmt.executeQuery("SELECT 1");
+            return rs.next();
+         } finally {
+            stmt.close();
+         }
+      }catch (SQLException e) {
+         return false;
+      }//end try
+   }//end validate
+
+   private void evictIdle() {
+      long now = System.currentTimeMillis();
+      // the tail holds the connections that have been idle the longest; keep
+      // minSize of them warm on top of whatever is borrowed
+      int candidates = this._idle.size();
+      for (int i = 0; i < candidates && this._idle.size() > this._minSize; ++i) {
+         PooledConnection pc = this._idle.pollLast();
+         if (pc == null)
+            return;
+         if (now - pc.lastUsed < this._idleTimeoutMillis) {
+            this._idle.offerLast(pc);
+            return;
+         }//end if
+         this._evicted.incrementAndGet();
+         destroy(pc);
+      }//end for
+   }//end evictIdle
+
+   public int getOpenCount() { return this._open.get(); }
+   public int getIdleCount() { return this._idle.size(); }
+   public long getBorrowCount() { return this._borrows.get(); }
+   public long getBorrowTimeoutCount() { return this._timeouts.get(); }
+   public long getMaxBorrowWaitNanos() { return this._maxWaitNanos.get(); }
+
+   // what openConnection() logs in with, for tools such as psql run beside the pool
+   String getUrl() { return this._url; }
+   String getUser() { return this._user; }
+   String getPassword() { return this._passwd; }
+
+   /**
+    * @return the statement cache counters summed over every connection the
+    *         pool has opened, formatted like StatementCache.toString()
+    */
+   public String statementCacheStats() {
+      long hits = this._retiredHits.get();
+      long misses = this._retiredMisses.get();
+      long evictions = this._retiredEvictions.get();
+      for (PooledConnection pc : this._idle) {
+         hits += pc.statements.getHits();
+         misses += pc.statements.getMisses();
+         evictions += pc.statements.getEvictions();
+      }//end for
+      return "hits=" + hits + " misses=" + misses + " evictions=" + evictions;
+   }//end statementCacheStats
+
+   @Override
+   public String toString() {
+      long borrows = this._borrows.get();
+      return "open=" + this._open.get() + "/" + this._maxSize
+           + " idle=" + this._idle.size()
+           + " borrows=" + borrows
+           + " timeouts=" + this._timeouts.get()
+           + " avgWaitUs=" + (borrows == 0 ? 0 : this._waitNanos.get() / borrows / 1000)
+           + " maxWaitUs=" + this._maxWaitNanos.get() / 1000
+           + " created=" + this._created.get()
+           + " evicted=" + this._evicted.get()
+           + " validationFailures=" + this._validationFailures.get();
+   }//end toString
+
+}//end ConnectionPool
@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal parser for the CSV files under data/: comma separated, fields
+ * optionally wrapped in double quotes, a doubled quote inside a quoted
+ * field stands for one quote.  Records never span lines.
+ */
+public class Csv {
+
+   private Csv() {
+   }
+
+   /**
+    * Splits one CSV line into its fields
+    *
+    * @param line the input line, without the line terminator
+    * @return the unquoted field values
+    */
+   public static List<String> parseLine(String line) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (quoted) {
+            if (c == '"') {
+               if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                  field.append('"');
+                  ++i;
+               } else {
+                  quoted = false;
+               }//end if
+            } else {
+               field.append(c);
+            }//end if
+         } else if (c == '"') {
+            quoted = true;
+         } else if (c == ',') {
+            fields.add(field.toString());
+            field.setLength(0);
+         } else {
+            field.append(c);
+         }//end if
+      }//end for
+      fields.add(field.toString());
+      return fields;
+   }//end parseLine
+
+}//end Csv
@@ -11,9 +11,9 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
+import java.sql.Types;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,12 +21,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.lang.Math;
 import java.math.BigDecimal;
-import java.util.Scanner;
-import java.sql.Timestamp;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -35,8 +36,41 @@ import java.sql.Timestamp;
  */
 public class GameRental {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections, each with its own
+   // statement cache
+   private ConnectionPool _pool = null;
+
+   // sequence-backed generators of new order and tracking IDs
+   private final IdAllocator _rentalOrderIds =
+      new IdAllocator(this, "rentalorder_id_seq", IdCodec.RENTAL_ORDER);
+   private final IdAllocator _trackingIds =
+      new IdAllocator(this, "trackingid_seq", IdCodec.TRACKING);
+
+   // in-memory copy of the Catalog table
+   private final CatalogCache _catalog = new CatalogCache(this);
+
+   // connection pinned to the calling thread while it runs a transaction
+   private final ThreadLocal<ConnectionPool.PooledConnection> _pinned =
+      new ThreadLocal<ConnectionPool.PooledConnection>();
+
+   /**
+    * A unit of database work run by inTransaction.
+    */
+   public interface Work<T> {
+      T run() throws SQLException;
+   }
+
+   /**
+    * Receives the rows of a streamed query one at a time.
+    */
+   public interface RowHandler {
+      void row(ResultRow row) throws SQLException;
+   }
+
+   // rows fetched per round trip by executeQueryAndStreamResult
+   static final int STREAM_FETCH_SIZE = Integer.getInteger("gamerental.fetchSize", 500);
+   // numbers the cursors opened by executeQueryAndStreamResult
+   private static final AtomicLong STREAM_CURSORS = new AtomicLong ();
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -60,8 +94,9 @@ public class GameRental {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool of physical connections
+         this._pool = ConnectionPool.fromSystemProperties(url, user, passwd);
+         this._catalog.startListener(this._pool, Long.getLong("gamerental.catalogPollMs", 500L));
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -78,14 +113,19 @@ public class GameRental {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      ConnectionPool.PooledConnection pc = acquire ();
+      try {
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // issues the update instruction
+         stmt.executeUpdate (sql);
 
-      // close the instruction
-      stmt.close ();
+         // close the instruction
+         stmt.close ();
+      } finally {
+         release (pc);
+      }
    }//end executeUpdate
 
    /**
@@ -98,37 +138,42 @@ public class GameRental {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close();
-      return rowCount;
+      ConnectionPool.PooledConnection pc = acquire ();
+      try {
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+         int rowCount = 0;
+
+         // iterates through the result set and output them to standard out.
+         boolean outputHeader = true;
+         while (rs.next()){
+            if(outputHeader){
+               for(int i = 1; i <= numCol; i++){
+                  System.out.print(rsmd.getColumnName(i) + "\t");
+               }
+               System.out.println();
+               outputHeader = false;
+            }
+            for (int i=1; i<=numCol; ++i)
+               System.out.print (rs.getString (i) + "\t");
+            System.out.println ();
+            ++rowCount;
+         }//end while
+         stmt.close();
+         return rowCount;
+      } finally {
+         release (pc);
+      }
    }//end executeQuery
 
    /**
@@ -141,58 +186,367 @@ public class GameRental {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+      ConnectionPool.PooledConnection pc = acquire ();
+      try {
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+
+         /*
+          ** obtains the metadata object for the returned result set.  The metadata
+          ** contains row and column info.
+          */
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+
+         // iterates through the result set and saves the data returned by the query.
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> record = new ArrayList<String>();
+            for (int i=1; i<=numCol; ++i)
+               record.add(rs.getString (i));
+            result.add(record);
+         }//end while
+         stmt.close ();
+         return result;
+      } finally {
+         release (pc);
+      }
    }//end executeQueryAndReturnResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
+    * method issues the query to the DBMS and returns the number of results.
+    * The rows are counted by the DBMS, so only the count comes back.
     *
     * @param query the input query string
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
-
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+      ConnectionPool.PooledConnection pc = acquire ();
+      try {
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
 
-       int rowCount = 0;
+         // issues the query instruction wrapped in a count
+         ResultSet rs = stmt.executeQuery (countQuery (query));
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
+         int rowCount = rs.next () ? rs.getInt (1) : 0;
+         stmt.close ();
+         return rowCount;
+      } finally {
+         release (pc);
+      }
    }
 
+   /**
+    * Method to execute a parameterized update SQL statement.  The statement
+    * is taken from the statement cache so it is only prepared once per
+    * connection.
+    *
+    * @param sql the SQL template with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection pc = acquire ();
+      try {
+         return prepare(pc, sql, params).executeUpdate ();
+      } finally {
+         release (pc);
+      }
+   }//end executeUpdate
+
+   /**
+    * Method to execute a parameterized query and output the results to
+    * standard out.
+    *
+    * @param query the SQL template with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection pc = acquire ();
+      ResultSet rs = null;
+      try {
+         rs = prepare(pc, query, params).executeQuery ();
+         ResultSetMetaData rsmd = rs.getMetaData ();
+         int numCol = rsmd.getColumnCount ();
+         int rowCount = 0;
+
+         boolean outputHeader = true;
+         while (rs.next()){
+            if(outputHeader){
+               for(int i = 1; i <= numCol; i++)
+                  System.out.print(rsmd.getColumnName(i) + "\t");
+               System.out.println();
+               outputHeader = false;
+            }
+            for (int i=1; i<=numCol; ++i)
+               System.out.print (rs.getString (i) + "\t");
+            System.out.println ();
+            ++rowCount;
+         }//end while
+         return rowCount;
+      } finally {
+         if (rs != null)
+            rs.close ();
+         release (pc);
+      }
+   }//end executeQueryAndPrintResult
+
+   /**
+    * Method to execute a parameterized query and return the results as a
+    * list of records. Each record in turn is a list of attribute values
+    *
+    * @param query the SQL template with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection pc = acquire ();
+      ResultSet rs = null;
+      try {
+         rs = prepare(pc, query, params).executeQuery ();
+         int numCol = rs.getMetaData ().getColumnCount ();
+         List<List<String>> result  = new ArrayList<List<String>>();
+         while (rs.next()){
+            List<String> record = new ArrayList<String>(numCol);
+            for (int i=1; i<=numCol; ++i)
+               record.add(rs.getString (i));
+            result.add(record);
+         }//end while
+         return result;
+      } finally {
+         if (rs != null)
+            rs.close ();
+         release (pc);
+      }
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute a parameterized query and return the number of
+    * results.  The rows are counted by the DBMS, so only the count comes
+    * back.
+    *
+    * @param query the SQL template with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection pc = acquire ();
+      ResultSet rs = null;
+      try {
+         rs = prepare(pc, countQuery (query), params).executeQuery ();
+         return rs.next () ? rs.getInt (1) : 0;
+      } finally {
+         if (rs != null)
+            rs.close ();
+         release (pc);
+      }
+   }//end executeQuery
+
+   /**
+    * Method to check whether a parameterized query returns any row.  The
+    * DBMS stops at the first match and sends back a single boolean.
+    *
+    * @param query the SQL template with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return true if the query returns at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean executeExists (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection pc = acquire ();
+      ResultSet rs = null;
+      try {
+         rs = prepare(pc, "SELECT EXISTS (" + query + ")", params).executeQuery ();
+         return rs.next () && rs.getBoolean (1);
+      } finally {
+         if (rs != null)
+            rs.close ();
+         release (pc);
+      }
+   }//end executeExists
+
+   private static String countQuery (String query) {
+      return "SELECT count(*) FROM (" + query + ") AS counted";
+   }//end countQuery
+
+   /**
+    * Method to execute a parameterized query and hand the rows to the
+    * handler as they arrive.  The query runs through a server-side cursor
+    * declared in a transaction and read STREAM_FETCH_SIZE rows per FETCH,
+    * so memory stays flat no matter how many rows the query returns.
+    *
+    * @param query the SQL template with '?' placeholders
+    * @param handler called once per row
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndStreamResult (final String query, final RowHandler handler,
+                                           final Object... params) throws SQLException {
+      // a cursor only lives as long as its transaction
+      return inTransaction (() -> {
+         ConnectionPool.PooledConnection pc = acquire ();
+         // unique on the connection, so a handler may stream another query
+         String cursor = "stream_" + STREAM_CURSORS.incrementAndGet ();
+         // DECLARE cannot be prepared on the server, so it stays out of the
+         // statement cache and is bound on the client
+         PreparedStatement declare = pc.getConnection ().prepareStatement (
+            "DECLARE " + cursor + " NO SCROLL CURSOR FOR " + query);
+         try {
+            bind (declare, params);
+            declare.execute ();
+         } finally {
+            declare.close ();
+         }
+         Statement stmt = pc.getConnection ().createStatement ();
+         try {
+            String fetch = "FETCH FORWARD " + STREAM_FETCH_SIZE + " FROM " + cursor;
+            int rowCount = 0;
+            int fetched;
+            do {
+               ResultSet rs = stmt.executeQuery (fetch);
+               try {
+                  ResultRow row = new ResultRow (rs);
+                  fetched = 0;
+                  while (rs.next ()) {
+                     handler.row (row);
+                     ++fetched;
+                  }//end while
+               } finally {
+                  rs.close ();
+               }
+               rowCount += fetched;
+            } while (fetched == STREAM_FETCH_SIZE);
+            stmt.execute ("CLOSE " + cursor);
+            return rowCount;
+         } finally {
+            stmt.close ();
+         }
+      });
+   }//end executeQueryAndStreamResult
+
+   /**
+    * Looks up the cached prepared statement for the SQL template and binds
+    * the parameters to it.
+    *
+    * @param pc the borrowed connection
+    * @param sql the SQL template with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the bound statement, owned by the statement cache
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   private static PreparedStatement prepare (ConnectionPool.PooledConnection pc, String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = pc.getStatementCache ().prepare (sql);
+      bind (stmt, params);
+      return stmt;
+   }//end prepare
+
+   private static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         if (params[i] == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else
+            stmt.setObject (i + 1, params[i]);
+      }//end for
+   }//end bind
+
+   /**
+    * Method to execute the same parameterized update once per row as a
+    * single JDBC batch.  The bundled driver still sends every row as its
+    * own statement, so where the row count grows with the input, unnest
+    * array parameters (PgArray.format) into one statement instead.
+    *
+    * @param sql the SQL template with '?' placeholders
+    * @param rows the parameter values of each execution
+    * @return the update counts of each execution
+    * @throws java.sql.SQLException when the batch failed
+    */
+   public int[] executeBatch (String sql, List<Object[]> rows) throws SQLException {
+      ConnectionPool.PooledConnection pc = acquire ();
+      try {
+         PreparedStatement stmt = pc.getStatementCache ().prepare (sql);
+         stmt.clearBatch ();
+         for (Object[] row : rows) {
+            bind (stmt, row);
+            stmt.addBatch ();
+         }//end for
+         return stmt.executeBatch ();
+      } finally {
+         release (pc);
+      }
+   }//end executeBatch
+
+   /**
+    * Runs the work as one transaction.  Every helper called by the work on
+    * this thread uses the same connection, which is committed when the work
+    * returns and rolled back when it throws.  A nested call joins the
+    * transaction already open on the thread.
+    *
+    * @param work the statements to run atomically
+    * @return whatever the work returns
+    * @throws java.sql.SQLException when the work or the commit failed
+    */
+   public <T> T inTransaction (Work<T> work) throws SQLException {
+      if (this._pinned.get () != null)
+         return work.run ();
+      ConnectionPool.PooledConnection pc = this._pool.borrow ();
+      this._pinned.set (pc);
+      try {
+         pc.getConnection ().setAutoCommit (false);
+         T result = work.run ();
+         pc.getConnection ().commit ();
+         return result;
+      } catch (SQLException | RuntimeException e) {
+         try {
+            pc.getConnection ().rollback ();
+         } catch (SQLException ignored) {
+            // the original failure is the one worth reporting
+         }
+         throw e;
+      } finally {
+         this._pinned.remove ();
+         this._pool.release (pc);
+      }
+   }//end inTransaction
+
+   /**
+    * @return the connection pinned by an open transaction, or a freshly
+    *         borrowed one
+    */
+   private ConnectionPool.PooledConnection acquire () throws SQLException {
+      ConnectionPool.PooledConnection pc = this._pinned.get ();
+      return pc != null ? pc : this._pool.borrow ();
+   }//end acquire
+
+   private void release (ConnectionPool.PooledConnection pc) {
+      if (pc != this._pinned.get ())
+         this._pool.release (pc);
+   }//end release
+
+   /**
+    * @return the catalog cache used by the catalog lookups and browsing
+    */
+   public CatalogCache getCatalog() {
+      return this._catalog;
+   }//end getCatalog
+
+   /**
+    * @return the connection pool shared by every helper of this instance
+    */
+   public ConnectionPool getPool() {
+      return this._pool;
+   }//end getPool
+
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
@@ -203,25 +557,60 @@ public class GameRental {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+      return getSeqVal("Select currval(?)", sequence);
+   }
+
+   /**
+    * Method to advance a sequence and fetch its new value.  Unlike currval
+    * this does not depend on which pooled connection served an earlier call.
+    *
+    * @param sequence name of the DB sequence
+    * @return next value of a sequence
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int getNextSeqVal(String sequence) throws SQLException {
+      return getSeqVal("Select nextval(?)", sequence);
+   }
+
+   private int getSeqVal(String query, String sequence) throws SQLException {
+      ConnectionPool.PooledConnection pc = acquire ();
+      ResultSet rs = null;
+      try {
+         rs = prepare(pc, query, sequence).executeQuery ();
+         if (rs.next())
+            return rs.getInt(1);
+         return -1;
+      } finally {
+         if (rs != null)
+            rs.close ();
+         release (pc);
+      }
+   }
+
+   /**
+    * @return a new, unused rentalOrderID
+    * @throws java.sql.SQLException when a new block of IDs could not be reserved
+    */
+   public String nextRentalOrderID() throws SQLException {
+      return this._rentalOrderIds.nextId ();
+   }
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+   /**
+    * @return a new, unused trackingID
+    * @throws java.sql.SQLException when a new block of IDs could not be reserved
+    */
+   public String nextTrackingID() throws SQLException {
+      return this._trackingIds.nextId ();
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to close the pooled physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      this._catalog.stopListener ();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -230,12 +619,26 @@ public class GameRental {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      if (args.length < 3) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             GameRental.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [<command> <args>]\n" +
+            "Commands:\n" +
+            "   load <data dir> [--truncate]   bulk load the CSV files of the data dir\n" +
+            "   generate <users> <games> <orders> [<seed>] [--truncate]\n" +
+            "                                  load a synthetic dataset of the given size\n" +
+            "   serve <tcp port>               serve the menu operations over TCP, see RentalServer,\n" +
+            "                                  and keep the overdue counters current\n" +
+            "   overdue tick                   count the orders that fell due since the last tick\n" +
+            "   overdue rebuild                recount every user's overdue games from RentalOrder\n" +
+            "   analytics rebuild              recompute the report rollups from the orders and shipments\n" +
+            "   scan <login|month|game> [<first day> [<last day>]]\n" +
+            "                                  load the orders into memory and total them per group\n" +
+            "   catalog export <file> [<catalog csv>]\n" +
+            "                                  write the catalog file named by -Dgamerental.catalogFile,\n" +
+            "                                  from the Catalog table or a CSV file such as data/catalog.csv");
          return;
       }//end if
 
@@ -251,6 +654,14 @@ public class GameRental {
          String user = args[2];
          esql = new GameRental (dbname, dbport, user, "");
 
+         // non-interactive commands run instead of the menu
+         if (args.length > 3) {
+            runCommand (esql, args);
+            return;
+         }//end if
+
+         // the menu is a client of the service API
+         final RentalService service = new RentalService (esql);
          boolean keepon = true;
          while(keepon) {
             // These are sample SQL statements
@@ -259,93 +670,66 @@ public class GameRental {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            String authorisedUser = null;
+            UserProfile profile = null;
             switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
+               case 1: menu(() -> CreateUser(service)); break;
+               case 2: profile = LogIn(service); break;
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
-            if (authorisedUser != null) {
-              boolean usermenu = true;
-              while(usermenu) {
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. View Profile");
-                System.out.println("2. Update Profile");
-                System.out.println("3. View Catalog");
-                System.out.println("4. Place Rental Order");
-                System.out.println("5. View Full Rental Order History");
-                System.out.println("6. View Past 5 Rental Orders");
-                System.out.println("7. View Rental Order Information");
-                System.out.println("8. View Tracking Information");
-
-                //the following functionalities basically used by employees & managers
-                System.out.println("9. Update Tracking Information");
-
-                //the following functionalities basically used by managers
-                System.out.println("10. Update Catalog");
-                System.out.println("11. Update User");
-
-                System.out.println(".........................");
-                System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1: 
-                   viewProfile(esql, authorisedUser); 
-                   break;
-                   case 2: 
-                   try {
-                     updateProfile(esql, authorisedUser);
-                  } catch (SQLException e) {
-                     // Handle the SQLException here
-                     e.printStackTrace();
-                 }
-                 break;
-                   case 3: viewCatalog(esql); break;
-                   case 4: 
-                   try {
-                     placeOrder(esql, authorisedUser);
-                  } catch (SQLException e) {
-                     // Handle the SQLException here
-                     e.printStackTrace();
-                 }
-                 break;
-                   case 5: viewAllOrders(esql, authorisedUser); break;
-                  case 6: viewRecentOrders(esql, authorisedUser); break;
-                   case 7: viewOrderInfo(esql, authorisedUser); break;
-                   case 8: viewTrackingInfo(esql, authorisedUser); break;
-                   case 9: 
-                   try {
-                     updateTrackingInfo(esql, authorisedUser);
-                  } catch (SQLException e) {
-                     // Handle the SQLException here
-                     e.printStackTrace();
-                 }
-                   break;                   
-                   case 10: 
-                   try {
-                     updateCatalog(esql, authorisedUser);
-                  } catch (SQLException e) {
-                     // Handle the SQLException here
-                     e.printStackTrace();
-                 }
-                   break;
-                   case 11:                      
-                   try {
-                     updateUser(esql, authorisedUser);
-                  } catch (SQLException e) {
-                     // Handle the SQLException here
-                     e.printStackTrace();
-                 }
-                 break;
-
-
-
-                   case 20: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
-                }
-              }
-            }
+            if (profile != null) {
+               final UserProfile session = profile;
+               boolean usermenu = true;
+               while(usermenu) {
+                  System.out.println("MAIN MENU");
+                  System.out.println("---------");
+                  System.out.println("1. View Profile");
+                  System.out.println("2. Update Profile");
+                  System.out.println("3. View Catalog");
+                  System.out.println("4. Place Rental Order");
+                  System.out.println("5. View Full Rental Order History");
+                  System.out.println("6. View Past 5 Rental Orders");
+                  System.out.println("7. View Rental Order Information");
+                  System.out.println("8. View Tracking Information");
+
+                  //the following functionalities basically used by employees & managers
+                  System.out.println("9. Update Tracking Information");
+
+                  //the following functionalities basically used by managers
+                  System.out.println("10. Update Catalog");
+                  System.out.println("11. Update User");
+
+                  //bulk courier feeds, used by employees & managers
+                  System.out.println("12. Import Courier Scan File");
+
+                  //favorites-based targeting, used by managers
+                  System.out.println("13. Find Users by Favorite Game");
+
+                  //rental and revenue reports, used by managers
+                  System.out.println("14. Analytics");
+
+                  System.out.println(".........................");
+                  System.out.println("20. Log out");
+                  switch (readChoice()){
+                     case 1: viewProfile(service, session); break;
+                     case 2: menu(() -> updateProfile(service, session)); break;
+                     case 3: menu(() -> viewCatalog(service)); break;
+                     case 4: menu(() -> placeOrder(service, session)); break;
+                     case 5: menu(() -> viewAllOrders(service, session)); break;
+                     case 6: menu(() -> viewRecentOrders(service, session)); break;
+                     case 7: menu(() -> viewOrderInfo(service, session)); break;
+                     case 8: menu(() -> viewTrackingInfo(service, session)); break;
+                     case 9: menu(() -> updateTrackingInfo(service, session)); break;
+                     case 10: menu(() -> updateCatalog(service, session)); break;
+                     case 11: menu(() -> updateUser(service, session)); break;
+                     case 12: menu(() -> importTrackingEvents(service, session)); break;
+                     case 13: menu(() -> findFans(service, session)); break;
+                     case 14: menu(() -> viewAnalytics(service, session)); break;
+                     case 20: usermenu = false; break;
+                     default : System.out.println("Unrecognized choice!"); break;
+                  }//end switch
+               }//end while
+            }//end if
          }//end while
       }catch(Exception e) {
          System.err.println (e.getMessage ());
@@ -353,6 +737,9 @@ public class GameRental {
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
+               System.out.println("Connection pool: " + esql.getPool ());
+               System.out.println("Statement cache: " + esql.getPool ().statementCacheStats ());
+               System.out.println("Catalog cache: " + esql.getCatalog ());
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
@@ -363,6 +750,98 @@ public class GameRental {
       }//end try
    }//end main
 
+   /*
+    * Runs a command given on the command line after <dbname> <port> <user>
+    **/
+   public static void runCommand(GameRental esql, String[] args) throws Exception {
+      String command = args[3];
+      if (command.equals("load") && args.length >= 5) {
+         boolean truncate = args.length > 5 && args[5].equals("--truncate");
+         BulkLoader.fromDirectory(esql.getPool(), new File(args[4])).load(truncate);
+         rebuildDerived(esql);
+      } else if (command.equals("generate") && args.length >= 7) {
+         List<String> rest = java.util.Arrays.asList(args).subList(7, args.length);
+         boolean truncate = rest.contains("--truncate");
+         long seed = rest.isEmpty() || rest.get(0).equals("--truncate") ? 42L : Long.parseLong(rest.get(0));
+         SyntheticData data = new SyntheticData(Integer.parseInt(args[4]), Integer.parseInt(args[5]),
+                                                Long.parseLong(args[6]), seed);
+         new BulkLoader(esql.getPool(), data).load(truncate);
+         rebuildDerived(esql);
+      } else if (command.equals("analytics") && args.length >= 5 && args[4].equals("rebuild")) {
+         new Analytics(esql).rebuild();
+      } else if (command.equals("scan") && args.length >= 5) {
+         OrderSnapshot.GroupBy by = OrderSnapshot.GroupBy.valueOf(args[4].toUpperCase());
+         java.time.LocalDateTime from = args.length > 5 ? java.time.LocalDate.parse(args[5]).atStartOfDay() : null;
+         java.time.LocalDateTime to = args.length > 6 ? java.time.LocalDate.parse(args[6]).plusDays(1).atStartOfDay() : null;
+         OrderSnapshot snapshot = new OrderSnapshot(esql);
+         long start = System.nanoTime();
+         snapshot.refresh();
+         System.out.printf("Loaded %s in %.1f s%n", snapshot, (System.nanoTime() - start) / 1e9);
+         start = System.nanoTime();
+         List<OrderSnapshot.Group> groups = snapshot.aggregate(new OrderSnapshot.Filter(null, from, to, null), by);
+         System.out.printf("%d groups in %.1f ms%n", groups.size(), (System.nanoTime() - start) / 1e6);
+         if (by != OrderSnapshot.GroupBy.MONTH)
+            groups.sort((a, b) -> Long.compare(b.orders, a.orders));
+         for (OrderSnapshot.Group g : groups.subList(0, by == OrderSnapshot.GroupBy.MONTH ? groups.size() : Math.min(20, groups.size())))
+            System.out.println(g.key + "  orders: " + g.orders + "  games: " + g.games
+                               + (by == OrderSnapshot.GroupBy.GAME ? "" : "  revenue: $" + BigDecimal.valueOf(g.cents, 2)));
+      } else if (command.equals("catalog") && args.length >= 6 && args[4].equals("export")) {
+         File file = new File(args[5]);
+         long start = System.nanoTime();
+         int games;
+         if (args.length > 6) {
+            List<CatalogCache.Game> rows = CatalogFile.readCsv(new File(args[6]));
+            // version 0: never trusted over a database whose catalog changed
+            CatalogFile.write(rows, 0, file);
+            games = rows.size();
+         } else {
+            games = esql.getCatalog().export(file);
+         }//end if
+         System.out.printf("Wrote %d games to %s in %.1f ms%n", games, file, (System.nanoTime() - start) / 1e6);
+      } else if (command.equals("overdue") && args.length >= 5 && args[4].equals("rebuild")) {
+         System.out.println("Recounted the overdue games of " + new OverdueEngine(esql).rebuild() + " users");
+      } else if (command.equals("overdue") && args.length >= 5 && args[4].equals("tick")) {
+         System.out.println("Updated the overdue games of " + new OverdueEngine(esql).tick() + " users");
+      } else if (command.equals("serve") && args.length >= 5) {
+         final OverdueEngine overdue = new OverdueEngine(esql);
+         overdue.start(OverdueEngine.TICK_MILLIS);
+         final Analytics analytics = new Analytics(esql);
+         analytics.start(Analytics.FOLD_MILLIS);
+         final RentalServer server = new RentalServer(new RentalService(esql), Integer.parseInt(args[4]));
+         System.out.println("Serving on port " + server.getPort() + " with "
+                            + (SessionExecutors.isVirtual() ? "virtual" : "platform") + " session threads");
+         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Server: " + server);
+            System.out.println("Overdue engine: " + overdue);
+            System.out.println("Analytics: " + analytics);
+         }));
+         server.serve();
+      } else {
+         System.err.println("Unknown command: " + String.join(" ", java.util.Arrays.copyOfRange(args, 3, args.length)));
+      }
+   }//end runCommand
+
+   /*
+    * Recomputes what the application maintains on write from the tables a
+    * bulk load just replaced: the analytics rollups, the overdue counters,
+    * since the loaded orders may already be past a due date the
+    * OverdueWatermark has moved beyond, and the catalog, which running
+    * processes hold in memory or in a catalog file
+    **/
+   static void rebuildDerived(GameRental esql) throws SQLException, IOException {
+      new Analytics(esql).rebuild();
+      System.out.println("Recounted the overdue games of " + new OverdueEngine(esql).rebuild() + " users");
+      if (CatalogCache.FILE != null) {
+         // bumps CatalogVersion and notifies before writing the file
+         System.out.println("Wrote " + esql.getCatalog().export(new File(CatalogCache.FILE)) + " games to " + CatalogCache.FILE);
+      } else {
+         esql.inTransaction(() -> {
+            CatalogCache.recordChange(esql);
+            return null;
+         });
+      }//end if
+   }//end rebuildDerived
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -391,880 +870,441 @@ public class GameRental {
    }//end readChoice
 
    /*
-    * Creates a new user
+    * Prints a question and reads the answer line from the keyboard
     **/
-    public static void CreateUser(GameRental esql) {
-      Scanner scan = new Scanner(System.in);
-      String userName;
-      String password;
-      String phoneNumber;
-  
-      try {
-          System.out.print("Username: ");
-          userName = scan.nextLine();
-          System.out.print("Password: ");
-          password = scan.nextLine();
-          System.out.print("Phone Number: ");
-          phoneNumber = scan.nextLine();
-  
-          // Check if username already exists
-          String checkUserQuery = "SELECT login FROM Users WHERE login = '" + userName + "'";
-          List<List<String>> existingUser = esql.executeQueryAndReturnResult(checkUserQuery);
-          
-          if (!existingUser.isEmpty()) {
-              System.out.println("Username already exists. Please choose a different username.");
-              return;
-          }
-  
-          // Insert new user into the Users table
-          String insertQuery = "INSERT INTO Users (login, password, role, favGames, phoneNum, numOverdueGames) VALUES ('" 
-                               + userName + "', '" + password + "', 'customer', null, '" + phoneNumber + "', 0)";
-          esql.executeUpdate(insertQuery);
-          System.out.println("User created successfully!");
-  
-      } catch (SQLException e) {
-          System.err.println("SQL Error: " + e.getMessage());
-      } catch (Exception e) {
-          System.err.println("Error: " + e.getMessage());
+   static String prompt(String question) throws IOException {
+      System.out.print(question + " ");
+      String line = in.readLine();
+      if (line == null) {
+         throw new IOException("No more input");
       }
-  }
-  
+      return line;
+   }//end prompt
+
+   /*
+    * A menu entry, run by menu()
+    **/
+   interface MenuAction {
+      void run() throws Exception;
+   }
+
+   /*
+    * Runs a menu entry and reports what went wrong, if anything
+    **/
+   static void menu(MenuAction action) {
+      try {
+         action.run();
+      }catch (RentalService.RejectedException e) {
+         System.out.println(e.getMessage());
+      }catch (SQLException e) {
+         e.printStackTrace();
+      }catch (Exception e) {
+         System.out.println("Error: " + e.getMessage());
+      }//end try
+   }//end menu
 
+   /*
+    * Creates a new user
+    **/
+   public static void CreateUser(RentalService service) throws Exception {
+      String userName = prompt("Username:");
+      String password = prompt("Password:");
+      String phoneNumber = prompt("Phone Number:");
+      service.createUser(new RentalService.CreateUserRequest(userName, password, phoneNumber));
+      System.out.println("User created successfully!");
+   }//end CreateUser
 
    /*
     * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * @return the user's profile or null is the user does not exist
     **/
-    public static String LogIn(GameRental esql) {
-      Scanner scan = new Scanner(System.in);
-      String userName;
-      String password;
-      System.out.print("Please enter your username: ");
-      userName = scan.nextLine();
-      System.out.print("Please enter your password: ");
-      password = scan.nextLine();
-  
-      // Check if username and password both inside the query, if true, return the login
-      String query = "SELECT login FROM USERS WHERE login = '" + userName + "' AND password = '" + password + "'";
-  
+   public static UserProfile LogIn(RentalService service) {
       try {
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-         if (!result.isEmpty()) {
-             // Login successful
-             return result.get(0).get(0); // Assuming login is the first column
-         } else {
-             // Login failed
-             System.out.println("Login failed. Username or password is incorrect.");
-             return null;
+         String userName = prompt("Please enter your username:");
+         String password = prompt("Please enter your password:");
+         UserProfile profile = service.logIn(new RentalService.LogInRequest(userName, password));
+         if (profile == null) {
+            System.out.println("Login failed. Username or password is incorrect.");
          }
-     } catch (SQLException e) {
+         return profile;
+      }catch (SQLException e) {
          e.printStackTrace();
-         return null;
-     }
-  }
-  
-
-// Rest of the functions definition go in here
+      }catch (IOException e) {
+         System.out.println("Error: " + e.getMessage());
+      }//end try
+      return null;
+   }//end LogIn
 
-   public static void viewProfile(GameRental esql, String authorisedUser) {
+   public static void viewProfile(RentalService service, UserProfile profile) {
       System.out.println("Please select which you would like to view?");
       System.out.println("1. Favorite Games?");
       System.out.println("2. Number Overdue Games?");
       System.out.println("3. Phone Number?");
       System.out.println("9. Exit ");
+      RentalService.ProfileView view = service.viewProfile(profile);
       switch (readChoice()){
-         // Case 1: 
-         case 1: 
-         printFavoriteGames(esql, authorisedUser);
-         break;
-         case 2: 
-         // "View Overdue games"updateProfile""(esql); break;
-         printOverdueGames(esql, authorisedUser);
-         break;
-         case 3: 
-         printPhoneNumber(esql, authorisedUser);
-         break;
-         case 9: 
-         break;
+         case 1:
+            System.out.println(view.favGames != null ? view.favGames : "No favorite games found.");
+            break;
+         case 2: System.out.println("Number of Overdue Games: " + view.numOverDueGames); break;
+         case 3: System.out.println("Phone Number: " + view.phoneNum); break;
+         case 9: break;
          default : System.out.println("Unrecognized choice!"); break;
+      }//end switch
+   }//end viewProfile
 
+   public static void updateProfile(RentalService service, UserProfile profile) throws Exception {
+      if (profile.isManager()) {
+         updateUser(service, profile);
+         return;
       }
-   }
-
-
-   public static void updateProfile(GameRental esql, String authorisedUser) throws SQLException{
-      Scanner scan = new Scanner(System.in);
-      String userRole = "Select role FROM USERS WHERE login = '" + authorisedUser + "'";
-      List<List<String>> result = esql.executeQueryAndReturnResult(userRole);
-      String role = result.get(0).get(0);
-      if (role != null && role.trim().equalsIgnoreCase("manager")) {
-         System.out.print("Please select the user you would like to change ");
-         String userName = scan.nextLine();
-         if (userName == null) {
-            System.out.println("No user is logged in.");
-            return;
-         }
-         System.out.println("Please select which you would like to change?");
-         System.out.println("1. Password?");
-         System.out.println("2. Phone Number?");
-         System.out.println("3. Username?");
-         System.out.println("4. Role?");
-         System.out.println("5. Overdue Games?");
-         System.out.println("9. Exit ");
-         switch (readChoice()){
-            // Case 1: 
-            case 1: 
-            try {
-               updatePassword(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 2: 
-            try {
-               updatePhoneNumber(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 3: 
-            try {
-               updateUserName(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 4:
-            try {
-               updateRole(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 5:
-            try {
-               updateOverdueGames(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;            
-           case 9: 
-           break;
-           default : System.out.println("Unrecognized choice!"); break;
-         }
+      System.out.println("Please select which you would like to change?");
+      System.out.println("1. Password?");
+      System.out.println("2. Phone Number?");
+      System.out.println("9. Exit ");
+      RentalService.UpdateUserRequest.Field field;
+      switch (readChoice()){
+         case 1: field = RentalService.UpdateUserRequest.Field.PASSWORD; break;
+         case 2: field = RentalService.UpdateUserRequest.Field.PHONE_NUMBER; break;
+         case 9: return;
+         default : System.out.println("Unrecognized choice!"); return;
+      }//end switch
+      String newVal = prompt("What would you like to change it to?");
+      service.updateUser(profile, new RentalService.UpdateUserRequest(profile.getLogin(), field, newVal));
+   }//end updateProfile
+
+   public static void updateUser(RentalService service, UserProfile profile) throws Exception {
+      if (!profile.isManager()) {
+         System.out.println("Only managers can update other users.");
+         return;
       }
-      else {
-         System.out.println("Please select which you would like to change?");
-         System.out.println("1. Password?");
-         System.out.println("2. Phone Number?");
-         System.out.println("9. Exit ");
-         switch (readChoice()){
-            // Case 1: 
-            case 1: 
-            try {
-               updatePassword(esql, authorisedUser);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 2: 
-            try {
-               updatePhoneNumber(esql, authorisedUser);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 9: 
-            break;
-            default : System.out.println("Unrecognized choice!"); 
-            break;
-         }
+      String userName = prompt("Please select the user you would like to change");
+      System.out.println("Please select which you would like to change?");
+      System.out.println("1. Password?");
+      System.out.println("2. Phone Number?");
+      System.out.println("3. Username?");
+      System.out.println("4. Role?");
+      System.out.println("5. Overdue Games?");
+      System.out.println("9. Exit ");
+      RentalService.UpdateUserRequest.Field field;
+      switch (readChoice()){
+         case 1: field = RentalService.UpdateUserRequest.Field.PASSWORD; break;
+         case 2: field = RentalService.UpdateUserRequest.Field.PHONE_NUMBER; break;
+         case 3: field = RentalService.UpdateUserRequest.Field.LOGIN; break;
+         case 4: field = RentalService.UpdateUserRequest.Field.ROLE; break;
+         case 5: field = RentalService.UpdateUserRequest.Field.OVERDUE_GAMES; break;
+         case 9: return;
+         default : System.out.println("Unrecognized choice!"); return;
+      }//end switch
+      String newVal = prompt("What would you like to change it to?");
+      if (service.updateUser(profile, new RentalService.UpdateUserRequest(userName, field, newVal)) == 0) {
+         System.out.println("No user named " + userName);
       }
-   }
-   
-
-   public static void updatePassword(GameRental esql, String authorisedUser) throws SQLException{
-      Scanner scan = new Scanner(System.in);
-      System.out.println("What would you like to change your password to?");
-      String newVal = scan.nextLine();
-      String insertQuery = "UPDATE users Set password = '" + newVal + "' where login = '" + authorisedUser + "'";
-      esql.executeUpdate(insertQuery);
-   }
-   public static void updatePhoneNumber(GameRental esql, String authorisedUser) throws SQLException{
-      Scanner scan = new Scanner(System.in);
-      System.out.println("What would you like to change your phone number to?");
-      String newVal = scan.nextLine();
-      String insertQuery = "UPDATE users Set phoneNum = '" + newVal + "' where login = '" + authorisedUser + "'";
-      esql.executeUpdate(insertQuery);
-
-   }
-
-   public static void updateUserName(GameRental esql, String authorisedUser) throws SQLException{
-      Scanner scan = new Scanner(System.in);
-      System.out.println("What would you like to change your username to?");
-      String newVal = scan.nextLine();
-      String insertQuery = "UPDATE users Set login = '" + newVal + "' where login = '" + authorisedUser + "'";
-      esql.executeUpdate(insertQuery);
-
-   }
-   public static void updateRole(GameRental esql, String authorisedUser) throws SQLException{
-      Scanner scan = new Scanner(System.in);
-      System.out.println("What would you like to change your role to?");
-      String newVal = scan.nextLine();
-      String insertQuery = "UPDATE users Set role = '" + newVal + "' where login = '" + authorisedUser + "'";
-      esql.executeUpdate(insertQuery);
-   }
-
-   public static void updateOverdueGames(GameRental esql, String authorisedUser) throws SQLException{
-      Scanner scan = new Scanner(System.in);
-      System.out.println("What would you like to change your overdue games to?");
-      String newVal = scan.nextLine();
-      String insertQuery = "UPDATE users Set numOverDueGames = '" + newVal + "' where login = '" + authorisedUser + "'";
-      esql.executeUpdate(insertQuery);
-   }
-
+   }//end updateUser
 
-
-   public static void viewCatalog(GameRental esql) {
-      Scanner scan = new Scanner(System.in);
+   public static void viewCatalog(RentalService service) throws Exception {
       System.out.println("How would you like to view Catalog");
       System.out.println("1. Genre");
       System.out.println("2. Price");
       System.out.println("3. Lowest to Highest Price");
       System.out.println("4. Highest to Lowest Price");
+      System.out.println("5. Search by name, platform or publisher");
+      RentalService.CatalogRequest request;
+      boolean showPrice = false;
       switch(readChoice()){
-         case 1: 
-        findGenre(esql);
-        break;
-        case 2:
-        findPrice(esql);
-        break; 
-        case 3: 
-        LowtoHigh(esql);
-        break;
-        case 4: 
-         HightoLow(esql);
-       break;
-       default : System.out.println("Unrecognized choice!");
-       break;
-      }
-   }   
-   public static void placeOrder(GameRental esql, String authorisedUser) throws SQLException{
-      boolean finishedPurchase = false;
-      List<String> gameIDs = new ArrayList<>();
-      List<Integer> unitsOrdered = new ArrayList<>();
-      Scanner scan = new Scanner(System.in);
-      double totalPrice = 0.0;
-      int totalGames = 0;
-      while (!finishedPurchase) {
-         System.out.println("Enter the Game ID of the game you want to purchase ");
-         String gameID = scan.nextLine();
-         gameIDs.add(gameID);
-         System.out.println("Enter units ordered: ");
-         int units = scan.nextInt();
-         scan.nextLine();
-         unitsOrdered.add(units);
-         totalGames += units;
-         totalPrice += getGamePrice(esql, gameID) * units;
-         System.out.println("Do you want to buy more games? ");
-         String answer = scan.nextLine();
-         answer = answer.toLowerCase();
-         if (answer.equals("no")) {
-            finishedPurchase = true;
+         case 1:
+            request = RentalService.CatalogRequest.byGenre(prompt("What's the name of the genre?"));
+            break;
+         case 2:
+            try {
+               request = RentalService.CatalogRequest.byPrice(new BigDecimal(prompt("How much for a game?").trim()));
+            }catch (NumberFormatException e) {
+               System.out.println("Your input is invalid!");
+               return;
+            }//end try
+            break;
+         case 3: request = RentalService.CatalogRequest.sortedByPrice(true); showPrice = true; break;
+         case 4: request = RentalService.CatalogRequest.sortedByPrice(false); showPrice = true; break;
+         case 5: searchCatalog(service); return;
+         default : System.out.println("Unrecognized choice!"); return;
+      }//end switch
+      List<CatalogCache.Game> games = service.browseCatalog(request).games;
+      for (CatalogCache.Game game : games) {
+         System.out.println(game.gameName);
+         if (showPrice) {
+            System.out.println(game.price);
          }
-         else if (!answer.equals("yes") && !answer.equals("no")){
-            System.out.println("Wrong command, say yes or no");
-            String response;
-            do {
-                response = scan.nextLine(); 
-                response = response.toLowerCase(); 
-                if (response.equals("no")) {
-                  finishedPurchase = true;
-                }
-            } while (!response.equals("yes") && !response.equals("no")); 
-            answer = response; 
-        }   
       }
-      Timestamp orderTimestamp = new Timestamp(System.currentTimeMillis());
-      Timestamp dueDate = new Timestamp(orderTimestamp.getTime() + (30L * 24 * 60 * 60 * 1000)); // 30 days later
-      int rentalID = (int)(Math.random() * (100000-5000) + 5000);
-      String rentalOrderID = "gamerentalorder" + rentalID;
-      String rentalOrderQuery = "SELECT rentalOrderID FROM RentalOrder WHERE rentalOrderID = '" + rentalOrderID + "'";
-      List<List<String>> result = esql.executeQueryAndReturnResult(rentalOrderQuery);
-      if (result.isEmpty()) {
-         String rentalOrderSQL =  "INSERT INTO RentalOrder (rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) VALUES ('" 
-         + rentalOrderID + "', '" + authorisedUser +  "', '" + totalGames + "', '" + totalPrice + "', '" + orderTimestamp + "', '" + dueDate + "')";
-         esql.executeUpdate(rentalOrderSQL);
-         String gameIDPer = "";
-         int unitsOrderedPer = 0;
-            for (int i = 0; i < gameIDs.size(); i++) {
-               gameIDPer = gameIDs.get(i);
-               unitsOrderedPer = unitsOrdered.get(i);   
-               String gamesInOrderSQL = "INSERT INTO GamesInOrder (rentalOrderID, gameID, unitsOrdered) VALUES ('" + rentalOrderID + "', '" + gameIDPer + "', '" + unitsOrderedPer + "')";
-               esql.executeUpdate(gamesInOrderSQL);
-
-            }
-            String trackingIDPer = "trackingid" + rentalID;
-            String trackingInfoSQL = "INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate) VALUES ('" + trackingIDPer + "', '" + rentalOrderID + "', 'Order Placed', 'Warehouse', 'CourierX', '" + orderTimestamp + "')";
-            esql.executeUpdate(trackingInfoSQL);
-            System.out.println("This worked");
+      if (games.isEmpty()) {
+         System.out.println("No games found.");
       }
-      System.out.println("The total price of all purchase are: " + totalPrice);
-   }
+   }//end viewCatalog
 
-   public static void updateUser(GameRental esql, String authorisedUser) throws SQLException{
-      Scanner scan = new Scanner(System.in);
-      String userRole = "Select role FROM USERS WHERE login = '" + authorisedUser + "'";
-      List<List<String>> result = esql.executeQueryAndReturnResult(userRole);
-      String role = result.get(0).get(0);
-      if (role != null && role.trim().equalsIgnoreCase("manager")) {
-         System.out.print("Please select the user you would like to change ");
-         String userName = scan.nextLine();
-         if (userName == null) {
-            System.out.println("No user is logged in.");
+   /*
+    * Keyword search with optional genre, platform and price range filters,
+    * paged through on request
+    **/
+   static void searchCatalog(RentalService service) throws Exception {
+      String text = prompt("Search for (words in the name, platform or publisher):");
+      String genre = prompt("Genre (leave empty for any):").trim();
+      String platform = prompt("Platform (leave empty for any):").trim();
+      BigDecimal minPrice, maxPrice;
+      try {
+         String min = prompt("Lowest price (leave empty for any):").trim();
+         String max = prompt("Highest price (leave empty for any):").trim();
+         minPrice = min.isEmpty() ? null : new BigDecimal(min);
+         maxPrice = max.isEmpty() ? null : new BigDecimal(max);
+      }catch (NumberFormatException e) {
+         System.out.println("Your input is invalid!");
+         return;
+      }//end try
+      int offset = 0;
+      while (true) {
+         CatalogSearch.Result result = service.searchCatalog(new CatalogSearch.Query(
+            text, genre.isEmpty() ? null : genre, platform.isEmpty() ? null : platform, minPrice, maxPrice,
+            offset, CatalogSearch.PAGE_SIZE));
+         if (offset == 0) {
+            System.out.println(result.totalHits + " games found.");
+            System.out.println("Genres: " + result.genres);
+            System.out.println("Platforms: " + result.platforms);
+            System.out.println("Prices: " + result.prices);
+         }//end if
+         for (CatalogCache.Game game : result.games)
+            System.out.println(game.gameID + "  " + game.gameName + "  " + game.genre + "  " + game.price);
+         offset += result.games.size();
+         if (result.games.isEmpty() || offset >= result.totalHits
+             || offset + CatalogSearch.PAGE_SIZE > CatalogSearch.MAX_RESULTS
+             || !prompt("Show more games? (yes/no)").trim().equalsIgnoreCase("yes"))
             return;
+      }//end while
+   }//end searchCatalog
+
+   public static void placeOrder(RentalService service, UserProfile profile) throws Exception {
+      List<RentalService.OrderLine> lines = new ArrayList<>();
+      boolean finishedPurchase = false;
+      while (!finishedPurchase) {
+         String gameID = prompt("Enter the Game ID of the game you want to purchase");
+         int units;
+         try {
+            units = Integer.parseInt(prompt("Enter units ordered:").trim());
+         }catch (NumberFormatException e) {
+            System.out.println("Your input is invalid!");
+            continue;
+         }//end try
+         lines.add(new RentalService.OrderLine(gameID, units));
+         String answer = prompt("Do you want to buy more games?").toLowerCase();
+         while (!answer.equals("yes") && !answer.equals("no")) {
+            answer = prompt("Wrong command, say yes or no").toLowerCase();
          }
-         System.out.println("Please select which you would like to change?");
-         System.out.println("1. Password?");
-         System.out.println("2. Phone Number?");
-         System.out.println("3. Username?");
-         System.out.println("4. Role?");
-         System.out.println("5. Overdue Games?");
-         System.out.println("9. Exit ");
-         switch (readChoice()){
-            // Case 1: 
-            case 1: 
-            try {
-               updatePassword(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 2: 
-            try {
-               updatePhoneNumber(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 3: 
-            try {
-               updateUserName(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 4:
-            try {
-               updateRole(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;
-            case 5:
-            try {
-               updateOverdueGames(esql, userName);
-           } catch (SQLException e) {
-               // Handle the SQLException here
-               e.printStackTrace();
-           }
-           break;            
-           case 9: 
-           break;
-           default : System.out.println("Unrecognized choice!"); break;
-         }
+         finishedPurchase = answer.equals("no");
       }
-   }
-
-   public static void updateCatalog(GameRental esql, String authorisedUser) throws SQLException{
-      String userRole = "Select role FROM USERS WHERE login = '" + authorisedUser + "'";
-      List<List<String>> result = esql.executeQueryAndReturnResult(userRole);
-      String role = result.get(0).get(0);
+      RentalService.PlaceOrderResponse order =
+         service.placeOrder(profile, new RentalService.PlaceOrderRequest(lines));
+      System.out.println("Order " + order.rentalOrderID + " placed, tracking ID " + order.trackingID);
+      System.out.println("The total price of all purchase are: " + order.totalPrice);
+   }//end placeOrder
 
-      if (role != null && role.trim().equalsIgnoreCase("manager")) {
-         Scanner scan = new Scanner(System.in);
-         System.out.println("Please enter the game ID of the game you want to change");
-         String newVal = scan.nextLine();
-         if (ifGameExist(esql, newVal) == false) {
-            return;
-         }
-         else {
-            System.out.println("Please select which you would like to change?");
-            System.out.println("1. Game Name?");
-            System.out.println("2. Genre?");
-            System.out.println("3. Price?");
-            System.out.println("4. Description?");
-            System.out.println("5. Image?");
-            System.out.println("9. Exit");
-            switch (readChoice()){
-               case 1: 
-               try {
-                  updateGameName(esql, newVal);
-            } catch (SQLException e) {
-                  e.printStackTrace();
-            }
-            break;
-               case 2: 
-               try {
-                  updateGenre(esql, newVal);
-            } catch (SQLException e) {
-                  e.printStackTrace();
-            }
-            break;
-            case 3: 
-               try {
-                  updatePrice(esql, newVal);
-            } catch (SQLException e) {
-                  e.printStackTrace();
-            }
-            break;
-               case 4: 
-               try {
-                  updateDescription(esql, newVal);
-            } catch (SQLException e) {
-                  e.printStackTrace();
-            }
-            break;
-            case 5: 
-               try {
-                  updateImages(esql, newVal);
-            } catch (SQLException e) {
-                  e.printStackTrace();
-            }
-            break;
-               case 9: 
-               break;
-               default : System.out.println("Unrecognized choice!"); 
-               break;
-            }
-         }
-      }     
+   // Rental Order
+   /*
+    * Shows the order history a page at a time, newest first
+    **/
+   public static void viewAllOrders(RentalService service, UserProfile profile) throws Exception {
+      RentalService.OrderHistoryResponse page =
+         service.orderHistory(profile, RentalService.OrderHistoryRequest.firstPage(RentalService.ORDER_PAGE_SIZE));
+      printOrders(page.rentalOrderIDs);
+      while (page.nextPageToken != null && prompt("Show more orders? (yes/no)").trim().equalsIgnoreCase("yes")) {
+         page = service.orderHistory(profile, new RentalService.OrderHistoryRequest(RentalService.ORDER_PAGE_SIZE, page.nextPageToken));
+         printOrders(page.rentalOrderIDs);
+      }
    }
 
+   public static void viewRecentOrders(RentalService service, UserProfile profile) throws Exception {
+      printOrders(service.orderHistory(profile, RentalService.OrderHistoryRequest.firstPage(5)).rentalOrderIDs);
+   }
 
-   // Rental Order
-   public static void viewAllOrders(GameRental esql, String authorisedUser) {
-      String query = "SELECT rentalOrderID FROM RentalOrder WHERE login = '" + authorisedUser + "'";
-      try {
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-         if (!result.isEmpty()) {
-             // Loop through the result and print each element
-             for (List<String> row : result) {
-                 for (String rentalOrder : row) {
-                     System.out.println(rentalOrder);
-                 }
-             }
-         } else {
-             System.out.println("No RentalOrderIDS found.");
-         }
-     } catch (SQLException e) {
-         e.printStackTrace();
-     }
-    }
-    public static void viewRecentOrders(GameRental esql, String authorisedUser) {
-     String query = "SELECT rentalOrderID FROM RentalOrder WHERE login = '" + authorisedUser + "' ORDER BY orderTimestamp DESC LIMIT 5 ";
-     try {
-      List<List<String>> result = esql.executeQueryAndReturnResult(query);
-      if (!result.isEmpty()) {
-          // Loop through the result and print each element
-          for (List<String> row : result) {
-              for (String rentalOrder : row) {
-                  System.out.println(rentalOrder);
-              }
-          }
-      } else {
-          System.out.println("No RentalOrderIDS found.");
+   static void printOrders(List<String> rentalOrderIDs) {
+      for (String rentalOrderID : rentalOrderIDs) {
+         System.out.println(rentalOrderID);
       }
-  } catch (SQLException e) {
-      e.printStackTrace();
-  }
-    }
-    public static void viewOrderInfo(GameRental esql, String authorisedUser) {
-      Scanner scan = new Scanner(System.in);
-      String rentID; 
-      System.out.println("Enter rentalID: ");
-      try {  
-  rentID = scan.nextLine();
-  String query = "SELECT DISTINCT R.orderTimestamp, R.dueDate, R.totalPrice, T.trackingID FROM RentalOrder R INNER JOIN TrackingInfo T ON R.rentalOrderID = T.rentalOrderID INNER JOIN GamesInOrder G On R.rentalOrderID = G.rentalOrderID INNER JOIN Catalog C ON C.gameID = G.gameID WHERE login =  '" + authorisedUser + "' AND R.rentalOrderID = '" + rentID + "' ";
-  List<List<String>> result = esql.executeQueryAndReturnResult(query);
-  if (!result.isEmpty()) {
-      // Loop through the result and print each element
-      for (List<String> row : result) {
-          for (String rentalOrder : row) {
-              System.out.println(rentalOrder);
-          }
+      if (rentalOrderIDs.isEmpty()) {
+         System.out.println("No RentalOrderIDS found.");
       }
-  } else {
-      System.out.println("No RentalOrderID found.");
-  }
-  String query2 = "SELECT C.gameName FROM GamesInOrder G INNER JOIN Catalog C ON G.gameID = C.gameID WHERE G.rentalOrderID = '" + rentID + "' Order BY C.gameName";
-  List<List<String>> result2 = esql.executeQueryAndReturnResult(query2);
-  if (!result.isEmpty()) {
-      // Loop through the result and print each element
-      for (List<String> row2 : result2) {
-          for (String rentalOrder2 : row2) {
-              System.out.println(rentalOrder2);
-          }
-      }
-  } else {
-      System.out.println("No RentalOrderID found.");
-  }
-} catch (SQLException e) {
-  e.printStackTrace();
-}
-}
+   }//end printOrders
 
-   // Trackinng Info
-   public static void viewTrackingInfo(GameRental esql, String authorisedUser) {
-      Scanner scan = new Scanner(System.in);
-      String trackerID;
-      System.out.println("Enter trackingID: ");
-      try {
-      trackerID = scan.nextLine();
-      String query = "SELECT T.courierName, T.rentalOrderID, T.currentLocation, T.status, T.lastUpdateDate, T.additionalComments FROM TrackingInfo T INNER JOIN RentalOrder R ON R.rentalOrderID = T.rentalOrderID WHERE R.login = '" + authorisedUser + "' AND trackingID = '" + trackerID + "' ";
-          List<List<String>> result = esql.executeQueryAndReturnResult(query);
-          if (!result.isEmpty()) {
-              // Loop through the result and print each element
-              for (List<String> row : result) {
-                  for (String trackOrder : row) {
-                      System.out.println(trackOrder);
-                  }
-              }
-          } else {
-              System.out.println("No TrackingOrderIDS found.");
-          }
-      } catch (SQLException e) {
-          e.printStackTrace();
+   public static void viewOrderInfo(RentalService service, UserProfile profile) throws Exception {
+      RentalService.OrderDetail order = service.orderInfo(profile, prompt("Enter rentalID:"));
+      if (order == null) {
+         System.out.println("No RentalOrderID found.");
+         return;
       }
-  }
-   public static void updateTrackingInfo(GameRental esql, String authorisedUser)throws SQLException{
-      String userRole = "Select role FROM USERS WHERE login = '" + authorisedUser + "'";
-      List<List<String>> result = esql.executeQueryAndReturnResult(userRole);
-      String role = result.get(0).get(0);
-      if ((role != null && role.trim().equalsIgnoreCase("manager")) || (role != null && role.trim().equalsIgnoreCase("employee"))) {
-         Scanner scan = new Scanner(System.in);
-         System.out.println("Please enter the tracking ID of the order you want to change");
-         String newVal = scan.nextLine();
-         if (ifTrackingIDExists(esql, newVal) == false) {
-            return;
-         }
-         else {
-            System.out.println("Please select which you would like to change?");
-            System.out.println("1. Status?");
-            System.out.println("2. Current Location?");
-            System.out.println("3. Courier Name?");
-            System.out.println("4. Additional Comments?");
-            System.out.println("9. Exit");
-            switch (readChoice()){
-               case 1:
-               try {
-                  updateStatus(esql, newVal);
-            } catch (SQLException e) {
-                  e.printStackTrace();
-            }
-            break;
-               case 2: 
-               try {
-                  updateCurrentLocation(esql, newVal);
-            } catch (SQLException e) {
-                  e.printStackTrace();
-            }
-            break;
-            case 3: 
-               try {
-                  updateCourierName(esql, newVal);
-            } catch (SQLException e) {
-                  e.printStackTrace();
-            }
-            break;
-               case 4: 
-               try {
-                  updateAdditionalComments(esql, newVal);
-            } catch (SQLException e) {
-                  e.printStackTrace();
-            }
-            break;
-               case 9: 
-               break;
-               default : System.out.println("Unrecognized choice!"); 
-               break;
-            }
-         }
-      }     
-   }
-
-   
-   // Helper functions
-   public static void printFavoriteGames(GameRental esql, String authorisedUser) {
-      String query = "SELECT favGames FROM USERS where login = '" + authorisedUser + "'";
-      try {
-          List<List<String>> result = esql.executeQueryAndReturnResult(query);
-          if (!result.isEmpty()) {
-              // Loop through the result and print each element
-              for (List<String> row : result) {
-                  for (String favGame : row) {
-                      System.out.println(favGame);
-                  }
-              }
-          } else {
-              System.out.println("No favorite games found.");
-          }
-      } catch (SQLException e) {
-          e.printStackTrace();
+      System.out.println(order.orderTimestamp);
+      System.out.println(order.dueDate);
+      System.out.println(order.totalPrice);
+      System.out.println(order.trackingID);
+      for (RentalService.OrderDetail.Line line : order.lines) {
+         System.out.println(line.gameName + " x " + line.units);
       }
-  }
-
-  public static void printOverdueGames(GameRental esql, String authorisedUser) {
-   String query = "SELECT numOverdueGames FROM USERS WHERE login = '" + authorisedUser + "'";
-   try {
-       List<List<String>> result = esql.executeQueryAndReturnResult(query);
-       if (!result.isEmpty()) {
-           System.out.println("Number of Overdue Games: " + result.get(0).get(0));
-       } else {
-           System.out.println("No data found for user: " + authorisedUser);
-       }
-   } catch (SQLException e) {
-       e.printStackTrace();
-   }
-}  
-
-public static void printPhoneNumber(GameRental esql, String authorisedUser) {
-   String query = "SELECT phoneNum FROM USERS WHERE login = '" + authorisedUser + "'";
-   try {
-       List<List<String>> result = esql.executeQueryAndReturnResult(query);
-       if (!result.isEmpty()) {
-           System.out.println("Phone Number: " + result.get(0).get(0));
-       } else {
-           System.out.println("No data found for user: " + authorisedUser);
-       }
-   } catch (SQLException e) {
-       e.printStackTrace();
-   }
-}
-
-public static boolean ifGameExist(GameRental esql, String ID) {
-   String query = "SELECT gameID FROM Catalog WHERE gameID = '" + ID + "'";
-   try {
-       List<List<String>> result = esql.executeQueryAndReturnResult(query);
-       if (!result.isEmpty()) {
-           return true;
-       } else {
-           return false;
-       }
-   } catch (SQLException e) {
-       e.printStackTrace();
-   }
-   return false;
-}
-
-public static boolean ifTrackingIDExists(GameRental esql, String ID) {
-   String query = "SELECT trackingID FROM TrackingInfo WHERE trackingID = '" + ID + "'";
-   try {
-       List<List<String>> result = esql.executeQueryAndReturnResult(query);
-       if (!result.isEmpty()) {
-           return true;
-       } else {
-           return false;
-       }
-   } catch (SQLException e) {
-       e.printStackTrace();
-   }
-   return false;
-}
-
-public static void updateGameName(GameRental esql, String ID) throws SQLException{
-   Scanner scan = new Scanner(System.in);
-   System.out.println("What would you like to change the game name to?");
-   String newVal = scan.nextLine();
-   String insertQuery = "UPDATE catalog Set gameName = '" + newVal + "' where gameID = '" + ID + "'";
-   esql.executeUpdate(insertQuery);
-}
-
-public static void updateDescription(GameRental esql, String ID) throws SQLException{
-   Scanner scan = new Scanner(System.in);
-   System.out.println("What would you like to change the description to?");
-   String newVal = scan.nextLine();
-   String insertQuery = "UPDATE catalog Set description = '" + newVal + "' where gameID = '" + ID + "'";
-   esql.executeUpdate(insertQuery);
-}
-
-public static void updatePrice(GameRental esql, String ID) throws SQLException{
-   Scanner scan = new Scanner(System.in);
-   System.out.println("What would you like to change the game price to?");
-   BigDecimal newVal = scan.nextBigDecimal();
-   String insertQuery = "UPDATE catalog Set price = '" + newVal + "' where gameID = '" + ID + "'";
-   esql.executeUpdate(insertQuery);
-}
-
-public static void updateGenre(GameRental esql, String ID) throws SQLException{
-   Scanner scan = new Scanner(System.in);
-   System.out.println("What would you like to change the game genre to?");
-   String newVal = scan.nextLine();
-   String insertQuery = "UPDATE catalog Set genre = '" + newVal + "' where gameID = '" + ID + "'";
-   esql.executeUpdate(insertQuery);
-}
-
-public static void updateImages(GameRental esql, String ID) throws SQLException{
-   Scanner scan = new Scanner(System.in);
-   System.out.println("What would you like to change the game image to?");
-   String newVal = scan.nextLine();
-   String insertQuery = "UPDATE catalog Set imageURL = '" + newVal + "' where gameID = '" + ID + "'";
-   esql.executeUpdate(insertQuery);
-}
-
-
-public static void HightoLow(GameRental esql){
-   String query = "SELECT gameName,price FROM Catalog Order By price DESC";
-   try {
-   List<List<String>> result = esql.executeQueryAndReturnResult(query);
-   if (!result.isEmpty()) {
-      // Loop through the result and print each element
-      for (List<String> row : result) {
-          for (String gameName : row) {
-              System.out.println(gameName);
-          }
+   }//end viewOrderInfo
+
+   // Trackinng Info
+   public static void viewTrackingInfo(RentalService service, UserProfile profile) throws Exception {
+      RentalService.TrackingInfoResponse tracking = service.trackingInfo(profile, prompt("Enter trackingID:"));
+      if (tracking == null) {
+         System.out.println("No TrackingOrderIDS found.");
+         return;
       }
-  } else {
-      System.out.println("No games found.");
-  }
-   }catch (SQLException e) {
-      e.printStackTrace();
-  }
- }
- public static void LowtoHigh(GameRental esql){
-   String query = "SELECT gameName,price FROM Catalog Order By price ASC";
-   try {
-   List<List<String>> result = esql.executeQueryAndReturnResult(query);
-   if (!result.isEmpty()) {
-      // Loop through the result and print each element
-      for (List<String> row : result) {
-          for (String gameName : row) {
-              System.out.println(gameName);
-          }
+      System.out.println(tracking.courierName);
+      System.out.println(tracking.rentalOrderID);
+      System.out.println(tracking.currentLocation);
+      System.out.println(tracking.status);
+      System.out.println(tracking.lastUpdateDate);
+      System.out.println(tracking.additionalComments);
+   }//end viewTrackingInfo
+
+   public static void updateTrackingInfo(RentalService service, UserProfile profile) throws Exception {
+      if (!profile.isManager() && !profile.isEmployee()) {
+         System.out.println("Only employees and managers can update tracking information.");
+         return;
       }
-  } else {
-      System.out.println("No games found.");
-  }
-   }catch (SQLException e) {
-      e.printStackTrace();
-  }
- }
- public static void findPrice(GameRental esql){
-   Scanner scan = new Scanner(System.in);
-   String gamePrice; 
-   try {
-   System.out.println("How much for a game?");
-   gamePrice = scan.nextLine();
-   String query = "SELECT gameName FROM Catalog WHERE price = '" + gamePrice + "'";
-   List<List<String>> result = esql.executeQueryAndReturnResult(query);
-   if (!result.isEmpty()) {
-      // Loop through the result and print each element
-      for (List<String> row : result) {
-          for (String gameName : row) {
-              System.out.println(gameName);
-          }
+      String trackingID = prompt("Please enter the tracking ID of the order you want to change");
+      System.out.println("Please select which you would like to change?");
+      System.out.println("1. Status?");
+      System.out.println("2. Current Location?");
+      System.out.println("3. Courier Name?");
+      System.out.println("4. Additional Comments?");
+      System.out.println("9. Exit");
+      RentalService.UpdateTrackingRequest.Field field;
+      switch (readChoice()){
+         case 1: field = RentalService.UpdateTrackingRequest.Field.STATUS; break;
+         case 2: field = RentalService.UpdateTrackingRequest.Field.CURRENT_LOCATION; break;
+         case 3: field = RentalService.UpdateTrackingRequest.Field.COURIER_NAME; break;
+         case 4: field = RentalService.UpdateTrackingRequest.Field.ADDITIONAL_COMMENTS; break;
+         case 9: return;
+         default : System.out.println("Unrecognized choice!"); return;
+      }//end switch
+      String newVal = prompt("What would you like to change it to?");
+      service.updateTracking(profile, new RentalService.UpdateTrackingRequest(trackingID, field, newVal));
+   }//end updateTrackingInfo
+
+   public static void updateCatalog(RentalService service, UserProfile profile) throws Exception {
+      if (!profile.isManager()) {
+         System.out.println("Only managers can update the catalog.");
+         return;
       }
-  } else {
-      System.out.println("No games found.");
-  }
-   }catch (SQLException e) {
-      e.printStackTrace();
-  }
- }
- public static void findGenre(GameRental esql){
-   Scanner scan = new Scanner(System.in);
-   String genreName; 
-   try {
-   System.out.println("What's the name of the genre?");
-   genreName = scan.nextLine();
-   String query = "SELECT gameName FROM Catalog WHERE genre = '" + genreName + "'";
-   List<List<String>> result = esql.executeQueryAndReturnResult(query);
-   if (!result.isEmpty()) {
-      // Loop through the result and print each element
-      for (List<String> row : result) {
-          for (String gameName : row) {
-              System.out.println(gameName);
-          }
+      String gameID = prompt("Please enter the game ID of the game you want to change");
+      if (service.getGamePrice(gameID) == null) {
+         System.out.println("No game with ID " + gameID);
+         return;
       }
-  } else {
-      System.out.println("No games found.");
-  }
-   }catch (SQLException e) {
-      e.printStackTrace();
-  }
-}
-
-public static void updateStatus(GameRental esql, String ID) throws SQLException{
-   Scanner scan = new Scanner(System.in);
-   System.out.println("What would you like to change the status to?");
-   String newVal = scan.nextLine();
-   Timestamp orderTimestamp = new Timestamp(System.currentTimeMillis());
-   String insertQuery = "UPDATE TrackingInfo Set status = '" + newVal + "' where trackingID = '" + ID + "'";
-   String insertQueryTime = "UPDATE TrackingInfo Set lastUpdateDate = '" + orderTimestamp + "' where trackingID = '" + ID + "'";
-   esql.executeUpdate(insertQuery);
-   esql.executeUpdate(insertQueryTime);
-}
-
-public static void updateCurrentLocation(GameRental esql, String ID) throws SQLException{
-   Scanner scan = new Scanner(System.in);
-   System.out.println("What would you like to change the Current Location to?");
-   String newVal = scan.nextLine();
-   Timestamp orderTimestamp = new Timestamp(System.currentTimeMillis());
-   String insertQuery = "UPDATE TrackingInfo Set currentLocation = '" + newVal + "' where trackingID = '" + ID + "'";
-   String insertQueryTime = "UPDATE TrackingInfo Set lastUpdateDate = '" + orderTimestamp + "' where trackingID = '" + ID + "'";
-   esql.executeUpdate(insertQuery);
-   esql.executeUpdate(insertQueryTime);
-}
-
-
-public static void updateCourierName(GameRental esql, String ID) throws SQLException{
-   Scanner scan = new Scanner(System.in);
-   System.out.println("What would you like to change the Courier Name to?");
-   String newVal = scan.nextLine();
-   Timestamp orderTimestamp = new Timestamp(System.currentTimeMillis());
-   String insertQuery = "UPDATE TrackingInfo Set courierName = '" + newVal + "' where trackingID = '" + ID + "'";
-   String insertQueryTime = "UPDATE TrackingInfo Set lastUpdateDate = '" + orderTimestamp + "' where trackingID = '" + ID + "'";
-   esql.executeUpdate(insertQuery);
-   esql.executeUpdate(insertQueryTime);
-}
-
-
-
-public static void updateAdditionalComments(GameRental esql, String ID) throws SQLException{
-   Scanner scan = new Scanner(System.in);
-   System.out.println("What would you like to change the Additional Comments to?");
-   String newVal = scan.nextLine();
-   Timestamp orderTimestamp = new Timestamp(System.currentTimeMillis());
-   String insertQuery = "UPDATE TrackingInfo Set additionalComments = '" + newVal + "' where trackingID = '" + ID + "'";
-   String insertQueryTime = "UPDATE TrackingInfo Set lastUpdateDate = '" + orderTimestamp + "' where trackingID = '" + ID + "'";
-   esql.executeUpdate(insertQuery);
-   esql.executeUpdate(insertQueryTime);
-}
-
-// getGamePrice
-public static double getGamePrice(GameRental esql, String ID) throws SQLException{
-   double price = 0.0;
-   String query = "Select price FROM Catalog WHERE gameID = '" + ID + "'";
-   List<List<String>> result = esql.executeQueryAndReturnResult(query);
-   if (!result.isEmpty() && !result.get(0).isEmpty()) {
-      price = Double.parseDouble(result.get(0).get(0)); 
-   }
-   return price;
-}
+      System.out.println("Please select which you would like to change?");
+      System.out.println("1. Game Name?");
+      System.out.println("2. Genre?");
+      System.out.println("3. Price?");
+      System.out.println("4. Description?");
+      System.out.println("5. Image?");
+      System.out.println("9. Exit");
+      RentalService.UpdateCatalogRequest.Field field;
+      switch (readChoice()){
+         case 1: field = RentalService.UpdateCatalogRequest.Field.GAME_NAME; break;
+         case 2: field = RentalService.UpdateCatalogRequest.Field.GENRE; break;
+         case 3: field = RentalService.UpdateCatalogRequest.Field.PRICE; break;
+         case 4: field = RentalService.UpdateCatalogRequest.Field.DESCRIPTION; break;
+         case 5: field = RentalService.UpdateCatalogRequest.Field.IMAGE_URL; break;
+         case 9: return;
+         default : System.out.println("Unrecognized choice!"); return;
+      }//end switch
+      String newVal = prompt("What would you like to change it to?");
+      service.updateCatalog(profile, new RentalService.UpdateCatalogRequest(gameID, field, newVal));
+   }//end updateCatalog
 
+   /*
+    * Reads a courier scan file (trackingID,status,currentLocation,time per
+    * line) and applies it with RentalService.ingestTrackingEvents
+    **/
+   public static void importTrackingEvents(RentalService service, UserProfile profile) throws Exception {
+      if (!profile.isManager() && !profile.isEmployee()) {
+         System.out.println("Only employees and managers can update tracking information.");
+         return;
+      }
+      String path = prompt("Please enter the path of the courier scan file");
+      List<TrackingEvent> events = new ArrayList<>();
+      try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+               events.add(TrackingEvent.parse(line));
+            }
+         }
+      }catch (IOException | IllegalArgumentException e) {
+         System.out.println("Could not read the scan file: " + e.getMessage());
+         return;
+      }//end try
+      long start = System.nanoTime();
+      int updated = service.ingestTrackingEvents(profile, events);
+      long millis = (System.nanoTime() - start) / 1000000;
+      System.out.println("Applied " + events.size() + " scans to " + updated + " shipments in " + millis + " ms");
+   }//end importTrackingEvents
 
+   /*
+    * Lists the users who named a game among their favorites, a page at a time
+    **/
+   public static void findFans(RentalService service, UserProfile profile) throws Exception {
+      String gameName = prompt("Enter the name of the game:");
+      System.out.println(service.countFans(profile, gameName) + " users list " + gameName.trim() + " as a favorite.");
+      RentalService.FansResponse page = service.fans(profile, new RentalService.FansRequest(gameName, RentalService.ORDER_PAGE_SIZE, null));
+      for (String login : page.logins)
+         System.out.println(login);
+      while (page.nextAfterLogin != null && prompt("Show more users? (yes/no)").trim().equalsIgnoreCase("yes")) {
+         page = service.fans(profile, new RentalService.FansRequest(gameName, RentalService.ORDER_PAGE_SIZE, page.nextAfterLogin));
+         for (String login : page.logins)
+            System.out.println(login);
+      }//end while
+   }//end findFans
 
+   /*
+    * Manager reports, read from the analytics rollups
+    **/
+   public static void viewAnalytics(RentalService service, UserProfile profile) throws Exception {
+      if (!profile.isManager()) {
+         System.out.println("Only managers can see the reports.");
+         return;
+      }
+      System.out.println("Please select a report");
+      System.out.println("1. Revenue by Day and Genre");
+      System.out.println("2. Most Rented Games");
+      System.out.println("3. Top Renters");
+      System.out.println("4. Shipments by Status");
+      System.out.println("5. Rebuild the Reports");
+      System.out.println("9. Exit");
+      switch (readChoice()){
+         case 1:
+            String from = prompt("First day (yyyy-mm-dd):");
+            String to = prompt("Last day (yyyy-mm-dd):");
+            for (Analytics.RevenueBucket b : service.revenueReport(profile, from, to))
+               System.out.println(b.day + "  " + b.genre + "  units: " + b.units + "  revenue: $" + b.revenue);
+            break;
+         case 2:
+            int games = Integer.parseInt(prompt("How many games?").trim());
+            for (Analytics.GameTotal g : service.topGames(profile, games)) {
+               CatalogCache.Game game = service.getDatabase().getCatalog().get(g.gameID);
+               System.out.println(g.gameID + "  " + (game == null ? "" : game.gameName)
+                                  + "  units: " + g.units + "  orders: " + g.orders);
+            }//end for
+            break;
+         case 3:
+            int renters = Integer.parseInt(prompt("How many renters?").trim());
+            for (Analytics.RenterTotal r : service.topRenters(profile, renters))
+               System.out.println(r.login + "  spent: $" + r.spent + "  games: " + r.games + "  orders: " + r.orders);
+            break;
+         case 4:
+            for (Map.Entry<String, Long> e : service.shipmentStatuses(profile).entrySet())
+               System.out.println(e.getKey() + ": " + e.getValue());
+            break;
+         case 5: service.rebuildAnalytics(profile); break;
+         case 9: return;
+         default : System.out.println("Unrecognized choice!"); return;
+      }//end switch
+   }//end viewAnalytics
 
 }//end GameRental
 
@@ -0,0 +1,58 @@
+import java.sql.SQLException;
+
+/**
+ * Hands out IDs such as "gamerentalorder1234" from a Postgres sequence.
+ * Every nextval reserves a block of BLOCK_SIZE consecutive numbers for this
+ * process, so only one ID in BLOCK_SIZE costs a database round trip and IDs
+ * never collide across processes.  Numbers left over in a block when the
+ * process exits are simply skipped.
+ */
+public class IdAllocator {
+
+   // must equal the INCREMENT BY of the sequences in create_tables.sql
+   public static final int BLOCK_SIZE = 50;
+
+   private final GameRental _esql;
+   private final String _sequence;
+   private final IdCodec _codec;
+
+   // next number to hand out and the end (exclusive) of the reserved block
+   private long _next = 0;
+   private long _limit = 0;
+   private long _refills = 0;
+
+   /**
+    * Creates an allocator drawing blocks from the given sequence
+    *
+    * @param esql the database the sequence lives in
+    * @param sequence name of the DB sequence
+    * @param codec spells the numbers as IDs, e.g. IdCodec.TRACKING
+    */
+   public IdAllocator(GameRental esql, String sequence, IdCodec codec) {
+      this._esql = esql;
+      this._sequence = sequence;
+      this._codec = codec;
+   }//end IdAllocator
+
+   /**
+    * @return a new, unused ID
+    * @throws java.sql.SQLException when a new block could not be reserved
+    */
+   public synchronized String nextId() throws SQLException {
+      if (this._next >= this._limit) {
+         long start = this._esql.getNextSeqVal(this._sequence);
+         this._next = start;
+         this._limit = start + BLOCK_SIZE;
+         ++this._refills;
+      }//end if
+      return this._codec.format(this._next++);
+   }//end nextId
+
+   /**
+    * @return how many blocks have been reserved from the sequence
+    */
+   public synchronized long getRefills() {
+      return this._refills;
+   }//end getRefills
+
+}//end IdAllocator
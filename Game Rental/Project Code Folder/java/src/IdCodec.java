@@ -0,0 +1,84 @@
+/**
+ * Converts between the string IDs of the schema, a fixed prefix followed by
+ * a decimal number ("game0001", "gamerentalorder1000", "trackingid1000"),
+ * and their numbers, so that in-memory structures can key on primitives
+ * instead of strings.
+ *
+ * Only the canonical spelling of a number is accepted: digits only,
+ * zero-padded up to the codec's width and no further, so format(parse(id))
+ * always gives id back.  Anything else parses to -1.
+ */
+public final class IdCodec {
+
+   public static final IdCodec GAME = new IdCodec("game", 4);
+   public static final IdCodec RENTAL_ORDER = new IdCodec("gamerentalorder", 1);
+   public static final IdCodec TRACKING = new IdCodec("trackingid", 1);
+
+   // digits of the largest number parse() accepts; Long.MAX_VALUE has 19
+   static final int MAX_DIGITS = 18;
+
+   private final String _prefix;
+   private final int _width;
+
+   /**
+    * @param prefix the text in front of every number
+    * @param width the number of digits numbers are zero-padded to, at least 1
+    */
+   public IdCodec(String prefix, int width) {
+      if (width < 1 || width > MAX_DIGITS)
+         throw new IllegalArgumentException("Width must be between 1 and " + MAX_DIGITS);
+      this._prefix = prefix;
+      this._width = width;
+   }//end IdCodec
+
+   public String getPrefix() { return this._prefix; }
+
+   /**
+    * @return the number of the ID, or -1 if it is not a canonical ID of this codec
+    */
+   public long parse(String id) {
+      int start = this._prefix.length();
+      int digits = id.length() - start;
+      if (digits < this._width || digits > MAX_DIGITS || !id.startsWith(this._prefix))
+         return -1;
+      // zeros beyond the padding would give a second spelling of the number
+      if (digits > this._width && id.charAt(start) == '0')
+         return -1;
+      long number = 0;
+      for (int i = start; i < id.length(); ++i) {
+         char c = id.charAt(i);
+         if (c < '0' || c > '9')
+            return -1;
+         number = number * 10 + (c - '0');
+      }//end for
+      return number;
+   }//end parse
+
+   /**
+    * @return the number of the ID, or -1 if it is not a canonical ID of this
+    *         codec or its number does not fit an int
+    */
+   public int parseInt(String id) {
+      long number = parse(id);
+      return number > Integer.MAX_VALUE ? -1 : (int) number;
+   }//end parseInt
+
+   public boolean matches(String id) {
+      return parse(id) >= 0;
+   }//end matches
+
+   /**
+    * @return the ID of a number
+    */
+   public String format(long number) {
+      if (number < 0)
+         throw new IllegalArgumentException("IDs have no negative numbers: " + number);
+      String digits = Long.toString(number);
+      StringBuilder id = new StringBuilder(this._prefix.length() + Math.max(this._width, digits.length()));
+      id.append(this._prefix);
+      for (int pad = digits.length(); pad < this._width; ++pad)
+         id.append('0');
+      return id.append(digits).toString();
+   }//end format
+
+}//end IdCodec
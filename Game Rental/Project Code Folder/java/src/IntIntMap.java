@@ -0,0 +1,113 @@
+import java.util.Arrays;
+
+/**
+ * Map from non-negative int keys to int values without boxing, for the
+ * small collections on the order path such as a basket of game numbers and
+ * units.  Entries are kept in insertion order in two arrays and found
+ * through an open-addressing table of their positions.
+ */
+public final class IntIntMap {
+
+   private int[] _keys;
+   private int[] _values;
+   private int _size = 0;
+   // position + 1 of the entry hashed to each slot, 0 for a free slot;
+   // the length is a power of two, at least twice the capacity
+   private int[] _slots;
+
+   public IntIntMap(int expected) {
+      int capacity = Math.max(4, expected);
+      this._keys = new int[capacity];
+      this._values = new int[capacity];
+      this._slots = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+   }//end IntIntMap
+
+   public int size() { return this._size; }
+   public int keyAt(int position) { return this._keys[position]; }
+   public int valueAt(int position) { return this._values[position]; }
+
+   /**
+    * @return the value of key, or missing if it has none
+    */
+   public int get(int key, int missing) {
+      int position = find(key);
+      return position < 0 ? missing : this._values[position];
+   }//end get
+
+   public boolean containsKey(int key) {
+      return find(key) >= 0;
+   }//end containsKey
+
+   public void put(int key, int value) {
+      int position = find(key);
+      if (position >= 0)
+         this._values[position] = value;
+      else
+         insert(key, value);
+   }//end put
+
+   /**
+    * Adds delta to the value of key, which starts at 0
+    *
+    * @return the new value
+    */
+   public int add(int key, int delta) {
+      int position = find(key);
+      if (position >= 0)
+         return this._values[position] += delta;
+      insert(key, delta);
+      return delta;
+   }//end add
+
+   /**
+    * @return the keys in ascending order
+    */
+   public int[] sortedKeys() {
+      int[] keys = Arrays.copyOf(this._keys, this._size);
+      Arrays.sort(keys);
+      return keys;
+   }//end sortedKeys
+
+   /**
+    * @return the position of key, or -1
+    */
+   private int find(int key) {
+      if (key < 0)
+         throw new IllegalArgumentException("Keys must not be negative: " + key);
+      int mask = this._slots.length - 1;
+      for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+         int position = this._slots[slot] - 1;
+         if (position < 0)
+            return -1;
+         if (this._keys[position] == key)
+            return position;
+      }//end for
+   }//end find
+
+   private void insert(int key, int value) {
+      if (this._size == this._keys.length) {
+         this._keys = Arrays.copyOf(this._keys, this._size * 2);
+         this._values = Arrays.copyOf(this._values, this._size * 2);
+         this._slots = new int[this._slots.length * 2];
+         for (int position = 0; position < this._size; ++position)
+            place(this._keys[position], position);
+      }//end if
+      this._keys[this._size] = key;
+      this._values[this._size] = value;
+      place(key, this._size++);
+   }//end insert
+
+   private void place(int key, int position) {
+      int mask = this._slots.length - 1;
+      int slot = hash(key) & mask;
+      while (this._slots[slot] != 0)
+         slot = (slot + 1) & mask;
+      this._slots[slot] = position + 1;
+   }//end place
+
+   private static int hash(int key) {
+      int h = key * 0x9E3779B9;
+      return h ^ (h >>> 16);
+   }//end hash
+
+}//end IntIntMap
@@ -0,0 +1,568 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Read-only, column-oriented copy of RentalOrder and GamesInOrder for
+ * analytical scans (totals by login, by month, by game) that would
+ * otherwise read both tables on the database serving placeOrder.
+ *
+ * Every column is an array of primitives split into chunks of CHUNK rows:
+ * per order the login, orderTimestamp in epoch seconds, noOfGames and
+ * totalPrice in cents; per line item the row of its order, the gameID and
+ * unitsOrdered.  Logins and gameIDs are stored as dictionary codes, so an
+ * order takes 24 bytes and a line item 12, and 100M line items with their
+ * orders fit in about 2 GB of heap.
+ *
+ * refresh() streams the orders placed since the last refresh, in
+ * rentalOrderID order, and appends them.  Rows never change once loaded,
+ * so scans read them without locking while a refresh runs, and see a
+ * refresh all at once when it ends.  Orders changed or deleted afterwards
+ * stay as they were loaded; build a new snapshot to see them.
+ *
+ * aggregate() scans the orders, or the line items when grouping by game or
+ * filtering on one, on a fork/join pool of PARALLELISM workers.
+ */
+public class OrderSnapshot {
+
+   static final int CHUNK_BITS = 16;
+   static final int CHUNK = 1 << CHUNK_BITS;
+   // rows per fork/join leaf, a whole number of chunks
+   static final int LEAF_ROWS = 16 * CHUNK;
+   // longs a scan may allocate to give every worker its own totals; beyond
+   // that (a scan by login over millions of users) workers add into one
+   // shared atomic array instead
+   static final long MAX_LOCAL_TOTALS = 1L << 24;
+   static final int PARALLELISM = Integer.getInteger("gamerental.snapshot.parallelism",
+                                                     Runtime.getRuntime().availableProcessors());
+   // how far before the newest loaded order a refresh reads again, for
+   // orders whose transaction committed after a later one's
+   static final long LAG_SECONDS = Long.getLong("gamerental.snapshot.lagMs", 60000L) / 1000;
+
+   static final String SELECT_ORDERS =
+      "SELECT R.rentalOrderID, R.login, R.orderTimestamp, R.noOfGames, R.totalPrice, G.gameID, G.unitsOrdered"
+      + " FROM RentalOrder R LEFT JOIN GamesInOrder G ON G.rentalOrderID = R.rentalOrderID";
+
+   public enum GroupBy { LOGIN, MONTH, GAME }
+
+   /**
+    * Restricts a scan; a null field does not restrict it.
+    */
+   public static class Filter {
+      public static final Filter ALL = new Filter(null, null, null, null);
+
+      public final String login;
+      public final LocalDateTime from;   // inclusive
+      public final LocalDateTime to;     // exclusive
+      public final String gameID;
+
+      public Filter(String login, LocalDateTime from, LocalDateTime to, String gameID) {
+         this.login = login;
+         this.from = from;
+         this.to = to;
+         this.gameID = gameID;
+      }
+   }//end Filter
+
+   /**
+    * Totals of one group.  Scans of line items (grouped by game or filtered
+    * on one) count the matching lines as orders and their units as games,
+    * and leave cents at 0 since line items carry no price.
+    */
+   public static class Group {
+      public final String key;
+      public final long orders;
+      public final long games;
+      public final long cents;
+
+      Group(String key, long orders, long games, long cents) {
+         this.key = key;
+         this.orders = orders;
+         this.games = games;
+         this.cents = cents;
+      }
+   }//end Group
+
+   // ---- columns
+
+   static final class IntColumn {
+      // chunks are replaced by a longer copy when full; readers only index
+      // rows published before they read the array, which every copy holds
+      private int[][] _chunks = new int[16][];
+
+      void set(int row, int value) {
+         int c = row >>> CHUNK_BITS;
+         if (c == this._chunks.length)
+            this._chunks = Arrays.copyOf(this._chunks, c * 2);
+         if (this._chunks[c] == null)
+            this._chunks[c] = new int[CHUNK];
+         this._chunks[c][row & (CHUNK - 1)] = value;
+      }
+
+      int get(int row) { return this._chunks[row >>> CHUNK_BITS][row & (CHUNK - 1)]; }
+      int[] chunk(int c) { return this._chunks[c]; }
+   }//end IntColumn
+
+   static final class LongColumn {
+      private long[][] _chunks = new long[16][];
+
+      void set(int row, long value) {
+         int c = row >>> CHUNK_BITS;
+         if (c == this._chunks.length)
+            this._chunks = Arrays.copyOf(this._chunks, c * 2);
+         if (this._chunks[c] == null)
+            this._chunks[c] = new long[CHUNK];
+         this._chunks[c][row & (CHUNK - 1)] = value;
+      }
+
+      long get(int row) { return this._chunks[row >>> CHUNK_BITS][row & (CHUNK - 1)]; }
+      long[] chunk(int c) { return this._chunks[c]; }
+   }//end LongColumn
+
+   /**
+    * Codes strings in order of first appearance.  Only the refreshing
+    * thread adds; scans look codes up concurrently.
+    */
+   static final class Dictionary {
+      private final Map<String, Integer> _codes = new ConcurrentHashMap<String, Integer>();
+      private String[] _names = new String[1024];
+      private int _size = 0;
+
+      int encode(String name) {
+         Integer code = this._codes.get(name);
+         if (code != null)
+            return code;
+         if (this._size == this._names.length)
+            this._names = Arrays.copyOf(this._names, this._size * 2);
+         this._names[this._size] = name;
+         this._codes.put(name, this._size);
+         return this._size++;
+      }
+
+      /** @return the code of name, or -1 if it never appeared */
+      int code(String name) {
+         Integer code = this._codes.get(name);
+         return code == null ? -1 : code;
+      }
+
+      String name(int code) { return this._names[code]; }
+      int size() { return this._size; }
+   }//end Dictionary
+
+   /**
+    * What scans may read: the rows and codes loaded by the last finished
+    * refresh, and the range of their order times.
+    */
+   private static final class Extent {
+      final int orders;
+      final int lines;
+      final int logins;
+      final int games;
+      final long firstSecond;
+      final long lastSecond;
+
+      Extent(int orders, int lines, int logins, int games, long firstSecond, long lastSecond) {
+         this.orders = orders;
+         this.lines = lines;
+         this.logins = logins;
+         this.games = games;
+         this.firstSecond = firstSecond;
+         this.lastSecond = lastSecond;
+      }
+   }//end Extent
+
+   private final GameRental _esql;
+   private final ForkJoinPool _workers;
+
+   private final Dictionary _logins = new Dictionary();
+   private final Dictionary _games = new Dictionary();
+   // per order
+   private final IntColumn _orderLogin = new IntColumn();
+   private final LongColumn _orderSecond = new LongColumn();
+   private final IntColumn _orderGames = new IntColumn();
+   private final LongColumn _orderCents = new LongColumn();
+   // per line item
+   private final IntColumn _lineOrder = new IntColumn();
+   private final IntColumn _lineGame = new IntColumn();
+   private final IntColumn _lineUnits = new IntColumn();
+
+   private volatile Extent _extent = new Extent(0, 0, 0, 0, Long.MAX_VALUE, Long.MIN_VALUE);
+
+   // refresh state, guarded by this
+   private int _orderRows = 0;
+   private int _lineRows = 0;
+   private long _firstSecond = Long.MAX_VALUE;
+   private long _lastSecond = Long.MIN_VALUE;
+   // rentalOrderID and time of the orders within LAG_SECONDS of the newest,
+   // which the next refresh reads again and must not append twice
+   private final Map<String, Long> _recent = new HashMap<String, Long>();
+   private ScheduledExecutorService _timer = null;
+
+   // counters
+   private final AtomicLong _refreshes = new AtomicLong();
+   private final AtomicLong _ordersAdded = new AtomicLong();
+   private final AtomicLong _scans = new AtomicLong();
+   private final AtomicLong _failures = new AtomicLong();
+
+   public OrderSnapshot(GameRental esql) {
+      this(esql, PARALLELISM);
+   }//end OrderSnapshot
+
+   OrderSnapshot(GameRental esql, int parallelism) {
+      this._esql = esql;
+      this._workers = new ForkJoinPool(parallelism);
+   }//end OrderSnapshot
+
+   // ---- loading
+
+   /**
+    * Appends the orders placed since the last refresh; the first refresh
+    * loads every order.  On failure nothing of this refresh becomes visible
+    * and the next one starts over from the same point.
+    *
+    * @return the number of orders appended
+    * @throws java.sql.SQLException when failed to stream the orders
+    */
+   public synchronized int refresh() throws SQLException {
+      final Extent before = this._extent;
+      final List<String> added = new ArrayList<String>();
+      final String[] current = { null };
+      final int[] order = { -1 };
+      GameRental.RowHandler handler = row -> {
+         String rentalOrderID = row.getString(1);
+         if (!rentalOrderID.equals(current[0])) {
+            current[0] = rentalOrderID;
+            order[0] = -1;
+            if (this._recent.containsKey(rentalOrderID))
+               return;
+            long second = epochSecond(Timestamp.valueOf(row.getString(3)).toLocalDateTime());
+            order[0] = appendOrder(row.getString(2), second, row.getInt(4),
+                                   row.getBigDecimal(5).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValue());
+            if (second >= this._lastSecond - LAG_SECONDS) {
+               this._recent.put(rentalOrderID, second);
+               added.add(rentalOrderID);
+            }//end if
+         }//end if
+         String gameID = row.getString(6);
+         if (order[0] >= 0 && gameID != null)
+            appendLine(order[0], gameID, row.getInt(7));
+      };
+      try {
+         if (before.orders == 0)
+            this._esql.executeQueryAndStreamResult(SELECT_ORDERS + " ORDER BY R.rentalOrderID", handler);
+         else
+            this._esql.executeQueryAndStreamResult(
+               SELECT_ORDERS + " WHERE R.orderTimestamp >= ? ORDER BY R.rentalOrderID", handler,
+               Timestamp.valueOf(LocalDateTime.ofEpochSecond(before.lastSecond - LAG_SECONDS, 0, ZoneOffset.UTC)));
+      }catch (SQLException | RuntimeException e) {
+         // forget the unpublished rows; the dictionaries may keep a few unused entries
+         this._orderRows = before.orders;
+         this._lineRows = before.lines;
+         this._firstSecond = before.firstSecond;
+         this._lastSecond = before.lastSecond;
+         for (String rentalOrderID : added)
+            this._recent.remove(rentalOrderID);
+         throw e;
+      }//end try
+      publish();
+      this._recent.values().removeIf(second -> second < this._lastSecond - LAG_SECONDS);
+      int appended = this._orderRows - before.orders;
+      this._refreshes.incrementAndGet();
+      this._ordersAdded.addAndGet(appended);
+      return appended;
+   }//end refresh
+
+   /**
+    * @return the row of the new order
+    */
+   int appendOrder(String login, long epochSecond, int noOfGames, long cents) {
+      int row = this._orderRows++;
+      this._orderLogin.set(row, this._logins.encode(login));
+      this._orderSecond.set(row, epochSecond);
+      this._orderGames.set(row, noOfGames);
+      this._orderCents.set(row, cents);
+      this._firstSecond = Math.min(this._firstSecond, epochSecond);
+      this._lastSecond = Math.max(this._lastSecond, epochSecond);
+      return row;
+   }//end appendOrder
+
+   void appendLine(int order, String gameID, int units) {
+      int row = this._lineRows++;
+      this._lineOrder.set(row, order);
+      this._lineGame.set(row, this._games.encode(gameID));
+      this._lineUnits.set(row, units);
+   }//end appendLine
+
+   /**
+    * Makes the rows appended so far visible to scans
+    */
+   void publish() {
+      this._extent = new Extent(this._orderRows, this._lineRows, this._logins.size(), this._games.size(),
+                                this._firstSecond, this._lastSecond);
+   }//end publish
+
+   static long epochSecond(LocalDateTime time) {
+      // orderTimestamp has no time zone; UTC just numbers its seconds
+      return time.toEpochSecond(ZoneOffset.UTC);
+   }//end epochSecond
+
+   // ---- scans
+
+   /**
+    * Totals the orders matching filter per group, in parallel.  Groups
+    * come in order of first appearance for logins and games, and in
+    * calendar order for months; groups without a matching order are left
+    * out.
+    *
+    * @return one Group per login, month (yyyy-mm) or gameID
+    */
+   public List<Group> aggregate(Filter filter, GroupBy by) {
+      Extent extent = this._extent;
+      final Scan scan = new Scan();
+      scan.by = by;
+      scan.login = filter.login == null ? -1 : this._logins.code(filter.login);
+      scan.game = filter.gameID == null ? -1 : this._games.code(filter.gameID);
+      scan.from = filter.from == null ? Long.MIN_VALUE : epochSecond(filter.from);
+      scan.to = filter.to == null ? Long.MAX_VALUE : epochSecond(filter.to);
+      scan.lines = by == GroupBy.GAME || filter.gameID != null;
+      this._scans.incrementAndGet();
+      if ((filter.login != null && (scan.login < 0 || scan.login >= extent.logins))
+          || (filter.gameID != null && (scan.game < 0 || scan.game >= extent.games))
+          || extent.orders == 0)
+         return new ArrayList<Group>();
+
+      if (by == GroupBy.MONTH) {
+         scan.firstMonth = monthNumber(extent.firstSecond);
+         scan.groups = monthNumber(extent.lastSecond) - scan.firstMonth + 1;
+      } else {
+         scan.groups = by == GroupBy.LOGIN ? extent.logins : extent.games;
+      }//end if
+      long[] totals;
+      if ((long) scan.groups * 3 * (this._workers.getParallelism() + 1) <= MAX_LOCAL_TOTALS) {
+         scan.local = new ConcurrentHashMap<Thread, long[]>();
+         this._workers.invoke(new Range(scan, 0, scan.lines ? extent.lines : extent.orders));
+         totals = new long[scan.groups * 3];
+         for (long[] local : scan.local.values())
+            for (int i = 0; i < totals.length; ++i)
+               totals[i] += local[i];
+      } else {
+         scan.shared = new AtomicLongArray(scan.groups * 3);
+         this._workers.invoke(new Range(scan, 0, scan.lines ? extent.lines : extent.orders));
+         totals = new long[scan.groups * 3];
+         for (int i = 0; i < totals.length; ++i)
+            totals[i] = scan.shared.get(i);
+      }//end if
+
+      List<Group> result = new ArrayList<Group>();
+      for (int g = 0; g < scan.groups; ++g) {
+         if (totals[g * 3] == 0)
+            continue;
+         int month = scan.firstMonth + g;
+         String key = by == GroupBy.LOGIN ? this._logins.name(g)
+                    : by == GroupBy.GAME ? this._games.name(g)
+                    : String.format("%04d-%02d", month / 12, month % 12 + 1);
+         result.add(new Group(key, totals[g * 3], totals[g * 3 + 1], totals[g * 3 + 2]));
+      }//end for
+      return result;
+   }//end aggregate
+
+   /**
+    * @return year * 12 + month - 1 of an epoch second, as LocalDateTime
+    *         would give it but without allocating: the inverse of the
+    *         days-from-civil conversion, on the proleptic Gregorian calendar
+    */
+   static int monthNumber(long second) {
+      long z = Math.floorDiv(second, 86400L) + 719468;
+      long era = Math.floorDiv(z, 146097L);
+      long dayOfEra = z - era * 146097;
+      long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      long m = (5 * dayOfYear + 2) / 153;   // 0 is March
+      long month = m < 10 ? m + 3 : m - 9;
+      long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+      return (int) (year * 12 + month - 1);
+   }//end monthNumber
+
+   /**
+    * What one aggregate() looks for and where its totals go, shared by its
+    * fork/join tasks
+    */
+   private static final class Scan {
+      GroupBy by;
+      boolean lines;
+      int login;
+      int game;
+      long from;
+      long to;
+      int firstMonth;
+      int groups;
+      // orders, games and cents per group: per thread that ran a leaf, or
+      // when that would take too much memory, one array added to atomically
+      Map<Thread, long[]> local;
+      AtomicLongArray shared;
+   }//end Scan
+
+   /**
+    * Totals rows [from, to) of the scanned table: splits in halves on chunk
+    * boundaries down to LEAF_ROWS, then scans a chunk at a time.
+    */
+   private final class Range extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Scan _scan;
+      private final int _from;
+      private final int _to;
+
+      Range(Scan scan, int from, int to) {
+         this._scan = scan;
+         this._from = from;
+         this._to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if (this._to - this._from > LEAF_ROWS) {
+            int mid = (int) (((long) this._from + this._to) >>> 1) & ~(CHUNK - 1);
+            if (mid <= this._from)
+               mid = this._from + CHUNK;
+            invokeAll(new Range(this._scan, this._from, mid), new Range(this._scan, mid, this._to));
+            return;
+         }//end if
+         long[] totals = null;
+         if (this._scan.local != null)
+            totals = this._scan.local.computeIfAbsent(Thread.currentThread(), t -> new long[this._scan.groups * 3]);
+         for (int row = this._from; row < this._to; ) {
+            int end = Math.min(this._to, ((row >>> CHUNK_BITS) + 1) << CHUNK_BITS);
+            if (this._scan.lines)
+               scanLines(row, end, totals);
+            else
+               scanOrders(row, end, totals);
+            row = end;
+         }//end for
+      }//end compute
+
+      private void scanOrders(int from, int to, long[] totals) {
+         Scan s = this._scan;
+         int c = from >>> CHUNK_BITS;
+         int[] login = _orderLogin.chunk(c);
+         long[] second = _orderSecond.chunk(c);
+         int[] games = _orderGames.chunk(c);
+         long[] cents = _orderCents.chunk(c);
+         for (int i = from & (CHUNK - 1), end = i + (to - from); i < end; ++i) {
+            if (s.login >= 0 && login[i] != s.login)
+               continue;
+            long t = second[i];
+            if (t < s.from || t >= s.to)
+               continue;
+            add(totals, s.by == GroupBy.LOGIN ? login[i] : monthNumber(t) - s.firstMonth, games[i], cents[i]);
+         }//end for
+      }//end scanOrders
+
+      private void scanLines(int from, int to, long[] totals) {
+         Scan s = this._scan;
+         int c = from >>> CHUNK_BITS;
+         int[] order = _lineOrder.chunk(c);
+         int[] game = _lineGame.chunk(c);
+         int[] units = _lineUnits.chunk(c);
+         for (int i = from & (CHUNK - 1), end = i + (to - from); i < end; ++i) {
+            if (s.game >= 0 && game[i] != s.game)
+               continue;
+            int o = order[i];
+            int login = _orderLogin.get(o);
+            if (s.login >= 0 && login != s.login)
+               continue;
+            long t = _orderSecond.get(o);
+            if (t < s.from || t >= s.to)
+               continue;
+            int group = s.by == GroupBy.GAME ? game[i] : s.by == GroupBy.LOGIN ? login : monthNumber(t) - s.firstMonth;
+            add(totals, group, units[i], 0);
+         }//end for
+      }//end scanLines
+
+      private void add(long[] totals, int group, long games, long cents) {
+         if (totals != null) {
+            totals[group * 3] += 1;
+            totals[group * 3 + 1] += games;
+            totals[group * 3 + 2] += cents;
+         } else {
+            this._scan.shared.getAndIncrement(group * 3);
+            this._scan.shared.getAndAdd(group * 3 + 1, games);
+            this._scan.shared.getAndAdd(group * 3 + 2, cents);
+         }//end if
+      }//end add
+   }//end Range
+
+   // ---- background refresh
+
+   /**
+    * Starts a daemon thread running refresh() every periodMillis.  A failed
+    * refresh is reported and retried at the next one.
+    */
+   public synchronized void start(long periodMillis) {
+      if (this._timer != null)
+         return;
+      this._timer = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "OrderSnapshot");
+         t.setDaemon(true);
+         return t;
+      });
+      this._timer.scheduleWithFixedDelay(() -> {
+         try {
+            refresh();
+         }catch (SQLException | RuntimeException e) {
+            this._failures.incrementAndGet();
+            System.err.println("Order snapshot refresh failed: " + e.getMessage());
+         }//end try
+      }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+   }//end start
+
+   public synchronized void stop() {
+      if (this._timer != null)
+         this._timer.shutdownNow();
+      this._timer = null;
+   }//end stop
+
+   public int orders() { return this._extent.orders; }
+   public int lines() { return this._extent.lines; }
+
+   /**
+    * @return the bytes held by the columns, chunks rounded up
+    */
+   public long columnBytes() {
+      Extent e = this._extent;
+      long orderChunks = (e.orders + CHUNK - 1) / CHUNK;
+      long lineChunks = (e.lines + CHUNK - 1) / CHUNK;
+      return (orderChunks * 24 + lineChunks * 12) * CHUNK;
+   }//end columnBytes
+
+   @Override
+   public String toString() {
+      Extent e = this._extent;
+      return "orders=" + e.orders
+           + " lines=" + e.lines
+           + " logins=" + e.logins
+           + " games=" + e.games
+           + " columnMB=" + columnBytes() / (1024 * 1024)
+           + " refreshes=" + this._refreshes.get()
+           + " ordersAdded=" + this._ordersAdded.get()
+           + " scans=" + this._scans.get()
+           + " failures=" + this._failures.get();
+   }//end toString
+
+}//end OrderSnapshot
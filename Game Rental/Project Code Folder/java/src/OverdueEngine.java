@@ -0,0 +1,160 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps Users.numOverDueGames current as rentals pass their due date.
+ *
+ * The single OverdueWatermark row records the time up to which due dates
+ * have been accounted for.  Every tick reads the orders falling due between
+ * the watermark and now from rentalorder_duedate_idx, adds their games to
+ * their users' counters and moves the watermark, so a tick costs in
+ * proportion to the orders that became overdue since the last one, not to
+ * the size of RentalOrder.  A long backlog, e.g. after downtime, is worked
+ * off in transactions of at most BATCH_ORDERS orders each.
+ *
+ * The watermark row is locked for the duration of each batch, so any number
+ * of processes may run the engine against the same database without
+ * counting an order twice.  There is no record of returned rentals, so
+ * every order counts as overdue once due; managers can still correct a
+ * counter through updateUser.  Orders written with a due date already
+ * behind the watermark (backdated imports) are only picked up by rebuild().
+ */
+public class OverdueEngine {
+
+   static final long TICK_MILLIS = Long.getLong("gamerental.overdueTickMs", 60000L);
+   static final int BATCH_ORDERS = Integer.getInteger("gamerental.overdueBatchSize", 5000);
+
+   private final GameRental _esql;
+   private ScheduledExecutorService _timer = null;
+
+   // counters
+   private final AtomicLong _ticks = new AtomicLong();
+   private final AtomicLong _batches = new AtomicLong();
+   private final AtomicLong _usersUpdated = new AtomicLong();
+   private final AtomicLong _failures = new AtomicLong();
+
+   public OverdueEngine(GameRental esql) {
+      this._esql = esql;
+   }//end OverdueEngine
+
+   /**
+    * Accounts for every order that fell due since the last tick
+    *
+    * @return the number of user counters changed
+    * @throws java.sql.SQLException when a batch failed; the batches before it stay committed
+    */
+   public int tick() throws SQLException {
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      int updated = 0;
+      int[] batch;
+      do {
+         batch = advance(now);
+         updated += batch[0];
+         this._batches.incrementAndGet();
+         this._usersUpdated.addAndGet(batch[0]);
+      } while (batch[1] != 0);
+      this._ticks.incrementAndGet();
+      return updated;
+   }//end tick
+
+   /**
+    * Moves the watermark towards now by at most BATCH_ORDERS orders, in one
+    * transaction
+    *
+    * @return the users updated, and 1 if orders are left before now or 0 if not
+    */
+   private int[] advance(final Timestamp now) throws SQLException {
+      return this._esql.inTransaction(() -> {
+         Timestamp from = watermark();
+         if (!from.before(now))
+            return new int[] { 0, 0 };
+         // the batch ends at the due date of its last order, ties included
+         List<List<String>> cut = this._esql.executeQueryAndReturnResult(
+            "SELECT dueDate FROM RentalOrder WHERE dueDate > ? AND dueDate <= ? ORDER BY dueDate OFFSET ? LIMIT 1",
+            from, now, BATCH_ORDERS - 1);
+         Timestamp to = cut.isEmpty() ? now : Timestamp.valueOf(cut.get(0).get(0));
+         int updated = this._esql.executeUpdate(
+            "UPDATE Users U SET numOverDueGames = COALESCE(U.numOverDueGames, 0) + D.games"
+            + " FROM (SELECT login, sum(noOfGames) AS games FROM RentalOrder"
+            + "       WHERE dueDate > ? AND dueDate <= ? GROUP BY login) D"
+            + " WHERE U.login = D.login",
+            from, to);
+         this._esql.executeUpdate("UPDATE OverdueWatermark SET checkedUpTo = ?", to);
+         return new int[] { updated, to.before(now) ? 1 : 0 };
+      });
+   }//end advance
+
+   /**
+    * Recounts every user's overdue games from all orders due by now and
+    * moves the watermark to now; for the first run on loaded data and after
+    * backdated imports.  Scans the whole of RentalOrder.
+    *
+    * @return the number of users whose counter was rewritten
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public int rebuild() throws SQLException {
+      final Timestamp now = new Timestamp(System.currentTimeMillis());
+      return this._esql.inTransaction(() -> {
+         watermark();
+         int updated = this._esql.executeUpdate(
+            "UPDATE Users U SET numOverDueGames ="
+            + " COALESCE((SELECT sum(noOfGames) FROM RentalOrder R WHERE R.login = U.login AND R.dueDate <= ?), 0)",
+            now);
+         this._esql.executeUpdate("UPDATE OverdueWatermark SET checkedUpTo = ?", now);
+         return updated;
+      });
+   }//end rebuild
+
+   /**
+    * @return the watermark, locked until the transaction ends
+    */
+   private Timestamp watermark() throws SQLException {
+      List<List<String>> row = this._esql.executeQueryAndReturnResult(
+         "SELECT checkedUpTo FROM OverdueWatermark FOR UPDATE");
+      if (row.isEmpty())
+         throw new SQLException("OverdueWatermark is empty; run sql/src/migrate_overdue.sql");
+      return Timestamp.valueOf(row.get(0).get(0));
+   }//end watermark
+
+   /**
+    * Starts a daemon thread running tick() every periodMillis.  A failed
+    * tick is reported and retried at the next one.
+    */
+   public synchronized void start(long periodMillis) {
+      if (this._timer != null)
+         return;
+      this._timer = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "OverdueEngine");
+         t.setDaemon(true);
+         return t;
+      });
+      this._timer.scheduleWithFixedDelay(() -> {
+         try {
+            tick();
+         }catch (SQLException | RuntimeException e) {
+            this._failures.incrementAndGet();
+            System.err.println("Overdue tick failed: " + e.getMessage());
+         }//end try
+      }, 0, periodMillis, TimeUnit.MILLISECONDS);
+   }//end start
+
+   public synchronized void stop() {
+      if (this._timer != null)
+         this._timer.shutdownNow();
+      this._timer = null;
+   }//end stop
+
+   @Override
+   public String toString() {
+      return "ticks=" + this._ticks.get()
+           + " batches=" + this._batches.get()
+           + " usersUpdated=" + this._usersUpdated.get()
+           + " failures=" + this._failures.get();
+   }//end toString
+
+}//end OverdueEngine
@@ -0,0 +1,86 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser for the text form of a one-dimensional PostgreSQL array, as
+ * returned by getString() on an array column: {a,"b c","d\"e",NULL}.
+ * Used instead of ResultSet.getArray(), which the bundled driver does not
+ * implement for every element type.  format() goes the other way, for
+ * binding a list as one CAST(? AS type[]) parameter, which the bundled
+ * driver has no setArray() for either.
+ */
+public class PgArray {
+
+   private PgArray() {
+   }
+
+   /**
+    * Splits an array literal into its elements
+    *
+    * @param literal the array text, or null for a NULL array
+    * @return the elements, an unquoted NULL element as null; empty for a NULL array
+    * @throws IllegalArgumentException when the text is not a one-dimensional array
+    */
+   public static List<String> parse(String literal) {
+      List<String> elements = new ArrayList<String>();
+      if (literal == null)
+         return elements;
+      if (literal.length() < 2 || literal.charAt(0) != '{' || literal.charAt(literal.length() - 1) != '}')
+         throw new IllegalArgumentException("Not an array: " + literal);
+      int end = literal.length() - 1;
+      if (end == 1)
+         return elements;
+      StringBuilder element = new StringBuilder();
+      int i = 1;
+      while (i <= end) {
+         element.setLength(0);
+         if (literal.charAt(i) == '"') {
+            // quoted element, backslash escapes the next character
+            for (++i; i < end && literal.charAt(i) != '"'; ++i) {
+               if (literal.charAt(i) == '\\')
+                  ++i;
+               element.append(literal.charAt(i));
+            }//end for
+            elements.add(element.toString());
+            ++i;   // closing quote
+         } else {
+            for (; i < end && literal.charAt(i) != ','; ++i)
+               element.append(literal.charAt(i));
+            String value = element.toString().trim();
+            elements.add(value.equalsIgnoreCase("NULL") ? null : value);
+         }//end if
+         ++i;      // separator or closing brace
+      }//end while
+      return elements;
+   }//end parse
+
+   /**
+    * Writes the elements as an array literal, every element quoted so any
+    * text survives
+    *
+    * @param elements the elements, a null element written as NULL
+    * @return the array text, e.g. {"a","b c",NULL}
+    */
+   public static String format(Iterable<?> elements) {
+      StringBuilder literal = new StringBuilder("{");
+      for (Object element : elements) {
+         if (literal.length() > 1)
+            literal.append(',');
+         if (element == null) {
+            literal.append("NULL");
+            continue;
+         }//end if
+         literal.append('"');
+         String text = element.toString();
+         for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\')
+               literal.append('\\');
+            literal.append(c);
+         }//end for
+         literal.append('"');
+      }//end for
+      return literal.append('}').toString();
+   }//end format
+
+}//end PgArray
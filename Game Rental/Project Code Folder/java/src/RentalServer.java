@@ -0,0 +1,357 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP front end of RentalService speaking a line protocol, one session per
+ * connection and one thread (virtual when available) per session.  All
+ * sessions share the GameRental connection pool, so the pool size bounds
+ * the database work in flight while the number of open sessions is only
+ * bounded by memory.
+ *
+ * Protocol: every request is one line of tab separated fields, the command
+ * first.  The reply is either
+ *
+ *    OK <n>           followed by n lines of tab separated fields, or
+ *    ERR <message>
+ *
+ * Tabs, newlines and backslashes inside fields are written as \t, \n and
+ * \\.  Commands, following the console menu:
+ *
+ *    CREATEUSER login password phone     LOGIN login password     LOGOUT
+ *    PROFILE                             UPDATEUSER login field value
+ *    CATALOG GENRE genre | PRICE price | ASC | DESC
+ *    SEARCH words [genre [platform [minPrice [maxPrice [offset [pageSize]]]]]]
+ *    ORDER gameID units [gameID units ...]
+ *    ORDERS [pageSize [pageToken]]       ORDERINFO rentalOrderID
+ *    TRACKING trackingID                 UPDATETRACKING trackingID field value
+ *    UPDATECATALOG gameID field value    FANS gameName [pageSize [afterLogin]]
+ *    QUIT
+ *
+ * Field names are the constants of the RentalService update requests, e.g.
+ * PHONE_NUMBER or CURRENT_LOCATION.  The first row of an ORDERS reply is
+ * the token of the next page, empty on the last page, followed by one row
+ * per order, and a FANS reply is laid out the same way with one login per
+ * row; an ORDERINFO reply has the order in its first row and then
+ * one row per game.  A SEARCH reply starts with the number of matching
+ * games, then has one row per facet value (GENRE, PLATFORM or PRICE, the
+ * value and its count) and one GAME row per game of the page; empty
+ * arguments match anything.
+ */
+public class RentalServer {
+
+   static final int IDLE_TIMEOUT_MILLIS = Integer.getInteger("gamerental.server.idleTimeoutMs", 300000);
+
+   private final RentalService _service;
+   private final ServerSocket _socket;
+   private final ExecutorService _sessions = SessionExecutors.newThreadPerSession("RentalSession");
+   private volatile boolean _running = true;
+
+   // counters
+   private final AtomicInteger _open = new AtomicInteger();
+   private final AtomicInteger _maxOpen = new AtomicInteger();
+   private final AtomicLong _accepted = new AtomicLong();
+   private final AtomicLong _requests = new AtomicLong();
+   private final AtomicLong _errors = new AtomicLong();
+
+   /**
+    * Binds the server socket
+    *
+    * @param service the operations to serve
+    * @param port the TCP port, 0 for any free one
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public RentalServer(RentalService service, int port) throws IOException {
+      this._service = service;
+      this._socket = new ServerSocket(port, 1024);
+   }//end RentalServer
+
+   public int getPort() {
+      return this._socket.getLocalPort();
+   }
+
+   /**
+    * Accepts connections until close() is called, handing each to a
+    * session thread
+    */
+   public void serve() {
+      while (this._running) {
+         try {
+            final Socket client = this._socket.accept();
+            this._accepted.incrementAndGet();
+            this._sessions.execute(() -> session(client));
+         }catch (IOException e) {
+            if (this._running)
+               System.err.println("accept failed: " + e.getMessage());
+         }//end try
+      }//end while
+   }//end serve
+
+   public void close() {
+      this._running = false;
+      try {
+         this._socket.close();
+      }catch (IOException e) {
+         // ignored.
+      }//end try
+      this._sessions.shutdownNow();
+   }//end close
+
+   private void session(Socket client) {
+      this._maxOpen.accumulateAndGet(this._open.incrementAndGet(), Math::max);
+      UserProfile[] profile = new UserProfile[1];
+      try {
+         client.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+         client.setTcpNoDelay(true);
+         BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+         Writer out = new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8));
+         String line;
+         while ((line = in.readLine()) != null) {
+            List<String> request = split(line);
+            if (request.isEmpty() || request.get(0).isEmpty())
+               continue;
+            if (request.get(0).equalsIgnoreCase("QUIT"))
+               break;
+            this._requests.incrementAndGet();
+            try {
+               List<List<String>> rows = handle(request, profile);
+               out.write("OK " + rows.size() + "\n");
+               for (List<String> row : rows)
+                  out.write(join(row) + "\n");
+            }catch (RentalService.RejectedException | IllegalArgumentException | IndexOutOfBoundsException e) {
+               this._errors.incrementAndGet();
+               out.write("ERR " + escape(String.valueOf(e.getMessage())) + "\n");
+            }catch (SQLException e) {
+               this._errors.incrementAndGet();
+               out.write("ERR database error: " + escape(String.valueOf(e.getMessage())) + "\n");
+            }catch (RuntimeException e) {
+               // a bug or a request the parsing above let through; the
+               // session stays usable for the next request
+               this._errors.incrementAndGet();
+               // the command only: the arguments may hold a password
+               System.err.println(request.get(0) + " request failed:");
+               e.printStackTrace();
+               out.write("ERR internal error\n");
+            }//end try
+            out.flush();
+         }//end while
+      }catch (SocketTimeoutException e) {
+         // idle session, dropped.
+      }catch (IOException e) {
+         // client went away.
+      } finally {
+         this._open.decrementAndGet();
+         try {
+            client.close();
+         }catch (IOException e) {
+            // ignored.
+         }//end try
+      }//end try
+   }//end session
+
+   /**
+    * Runs one request of a session
+    *
+    * @param request the command and its arguments
+    * @param profile holds the session's profile, null until LOGIN
+    * @return the reply rows
+    */
+   List<List<String>> handle(List<String> request, UserProfile[] profile) throws SQLException, RentalService.RejectedException {
+      String command = request.get(0).toUpperCase();
+      List<List<String>> rows = new ArrayList<List<String>>();
+      switch (command) {
+         case "CREATEUSER":
+            this._service.createUser(new RentalService.CreateUserRequest(request.get(1), request.get(2), request.get(3)));
+            return rows;
+         case "LOGIN":
+            profile[0] = this._service.logIn(new RentalService.LogInRequest(request.get(1), request.get(2)));
+            if (profile[0] == null)
+               throw new RentalService.RejectedException("Login failed. Username or password is incorrect.");
+            rows.add(row(profile[0].getLogin(), profile[0].getRole()));
+            return rows;
+         case "CATALOG":
+            String by = request.get(1).toUpperCase();
+            RentalService.CatalogRequest catalog =
+               by.equals("GENRE") ? RentalService.CatalogRequest.byGenre(request.get(2))
+             : by.equals("PRICE") ? RentalService.CatalogRequest.byPrice(new BigDecimal(request.get(2)))
+             : RentalService.CatalogRequest.sortedByPrice(!by.equals("DESC"));
+            for (CatalogCache.Game game : this._service.browseCatalog(catalog).games)
+               rows.add(row(game.gameID, game.gameName, game.genre, game.price.toPlainString()));
+            return rows;
+         case "SEARCH":
+            CatalogSearch.Result found = this._service.searchCatalog(new CatalogSearch.Query(
+               request.get(1), optional(request, 2), optional(request, 3),
+               optional(request, 4) == null ? null : new BigDecimal(request.get(4)),
+               optional(request, 5) == null ? null : new BigDecimal(request.get(5)),
+               optional(request, 6) == null ? 0 : Integer.parseInt(request.get(6)),
+               optional(request, 7) == null ? CatalogSearch.PAGE_SIZE : Integer.parseInt(request.get(7))));
+            rows.add(row(Integer.toString(found.totalHits)));
+            facetRows("GENRE", found.genres, rows);
+            facetRows("PLATFORM", found.platforms, rows);
+            facetRows("PRICE", found.prices, rows);
+            for (CatalogCache.Game game : found.games)
+               rows.add(row("GAME", game.gameID, game.gameName, game.genre, game.price.toPlainString()));
+            return rows;
+         default:
+            break;
+      }//end switch
+
+      UserProfile session = profile[0];
+      if (session == null)
+         throw new RentalService.RejectedException("Please LOGIN first.");
+      switch (command) {
+         case "LOGOUT":
+            profile[0] = null;
+            return rows;
+         case "PROFILE":
+            RentalService.ProfileView view = this._service.viewProfile(session);
+            rows.add(row(view.login, view.role, view.favGames, view.phoneNum, Integer.toString(view.numOverDueGames)));
+            return rows;
+         case "UPDATEUSER":
+            int updated = this._service.updateUser(session, new RentalService.UpdateUserRequest(
+               request.get(1), RentalService.UpdateUserRequest.Field.valueOf(request.get(2).toUpperCase()), request.get(3)));
+            rows.add(row(Integer.toString(updated)));
+            return rows;
+         case "ORDER":
+            List<RentalService.OrderLine> lines = new ArrayList<RentalService.OrderLine>();
+            for (int i = 1; i + 1 < request.size(); i += 2)
+               lines.add(new RentalService.OrderLine(request.get(i), Integer.parseInt(request.get(i + 1))));
+            RentalService.PlaceOrderResponse order =
+               this._service.placeOrder(session, new RentalService.PlaceOrderRequest(lines));
+            rows.add(row(order.rentalOrderID, order.trackingID, Integer.toString(order.noOfGames),
+                         order.totalPrice.toPlainString()));
+            return rows;
+         case "ORDERS":
+            int pageSize = request.size() > 1 ? Integer.parseInt(request.get(1)) : RentalService.ORDER_PAGE_SIZE;
+            String pageToken = request.size() > 2 && !request.get(2).isEmpty() ? request.get(2) : null;
+            RentalService.OrderHistoryResponse page =
+               this._service.orderHistory(session, new RentalService.OrderHistoryRequest(pageSize, pageToken));
+            rows.add(row(page.nextPageToken));
+            for (String id : page.rentalOrderIDs)
+               rows.add(row(id));
+            return rows;
+         case "FANS":
+            RentalService.FansResponse fans = this._service.fans(session, new RentalService.FansRequest(
+               request.get(1), optional(request, 2) == null ? RentalService.ORDER_PAGE_SIZE : Integer.parseInt(request.get(2)),
+               optional(request, 3)));
+            rows.add(row(fans.nextAfterLogin));
+            for (String login : fans.logins)
+               rows.add(row(login));
+            return rows;
+         case "ORDERINFO":
+            RentalService.OrderDetail info = this._service.orderInfo(session, request.get(1));
+            if (info == null)
+               throw new RentalService.RejectedException("No RentalOrderID found.");
+            rows.add(row(info.rentalOrderID, info.orderTimestamp.toString(), info.dueDate.toString(),
+                         info.totalPrice.toPlainString(), Integer.toString(info.noOfGames), info.trackingID));
+            for (RentalService.OrderDetail.Line line : info.lines)
+               rows.add(row(line.gameID, line.gameName, Integer.toString(line.units)));
+            return rows;
+         case "TRACKING":
+            RentalService.TrackingInfoResponse t = this._service.trackingInfo(session, request.get(1));
+            if (t == null)
+               throw new RentalService.RejectedException("No TrackingOrderIDS found.");
+            rows.add(row(t.trackingID, t.rentalOrderID, t.courierName, t.currentLocation, t.status,
+                         t.lastUpdateDate, t.additionalComments));
+            return rows;
+         case "UPDATETRACKING":
+            this._service.updateTracking(session, new RentalService.UpdateTrackingRequest(
+               request.get(1), RentalService.UpdateTrackingRequest.Field.valueOf(request.get(2).toUpperCase()), request.get(3)));
+            return rows;
+         case "UPDATECATALOG":
+            this._service.updateCatalog(session, new RentalService.UpdateCatalogRequest(
+               request.get(1), RentalService.UpdateCatalogRequest.Field.valueOf(request.get(2).toUpperCase()), request.get(3)));
+            return rows;
+         default:
+            throw new IllegalArgumentException("Unknown command " + command);
+      }//end switch
+   }//end handle
+
+   /**
+    * @return the argument at the index, or null when it is missing or empty
+    */
+   private static String optional(List<String> request, int index) {
+      return index < request.size() && !request.get(index).isEmpty() ? request.get(index) : null;
+   }//end optional
+
+   private static void facetRows(String facet, Map<String, Integer> counts, List<List<String>> rows) {
+      for (Map.Entry<String, Integer> e : counts.entrySet())
+         rows.add(row(facet, e.getKey(), e.getValue().toString()));
+   }//end facetRows
+
+   private static List<String> row(String... fields) {
+      List<String> row = new ArrayList<String>(fields.length);
+      for (String field : fields)
+         row.add(field == null ? "" : field);
+      return row;
+   }//end row
+
+   // ---- wire format, shared with the load generator
+
+   static String escape(String field) {
+      StringBuilder sb = new StringBuilder(field.length());
+      for (int i = 0; i < field.length(); ++i) {
+         char c = field.charAt(i);
+         switch (c) {
+            case '\\': sb.append("\\\\"); break;
+            case '\t': sb.append("\\t"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': break;
+            default: sb.append(c);
+         }//end switch
+      }//end for
+      return sb.toString();
+   }//end escape
+
+   static String join(List<String> fields) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < fields.size(); ++i)
+         sb.append(i == 0 ? "" : "\t").append(escape(fields.get(i)));
+      return sb.toString();
+   }//end join
+
+   static List<String> split(String line) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < line.length(); ++i) {
+         char c = line.charAt(i);
+         if (c == '\t') {
+            fields.add(sb.toString());
+            sb.setLength(0);
+         } else if (c == '\\' && i + 1 < line.length()) {
+            char next = line.charAt(++i);
+            sb.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+         } else {
+            sb.append(c);
+         }//end if
+      }//end for
+      fields.add(sb.toString());
+      return fields;
+   }//end split
+
+   @Override
+   public String toString() {
+      return "sessions open=" + this._open.get()
+           + " maxOpen=" + this._maxOpen.get()
+           + " accepted=" + this._accepted.get()
+           + " requests=" + this._requests.get()
+           + " errors=" + this._errors.get()
+           + " virtualThreads=" + SessionExecutors.isVirtual();
+   }//end toString
+
+}//end RentalServer
@@ -0,0 +1,974 @@
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The operations of the rental store, one method per menu operation, taking
+ * and returning typed request and response objects instead of reading the
+ * keyboard and printing.
+ *
+ * A single RentalService is shared by every session of the process and is
+ * safe to call from any number of threads: it keeps no per-call state, and
+ * the GameRental it runs on hands each thread its own pooled connection.
+ * A session is the UserProfile returned by logIn(); it belongs to one caller
+ * and is passed back with every request that needs a logged in user.
+ *
+ * Database failures surface as SQLException.  Requests that are not allowed
+ * or refer to something that does not exist are refused with a
+ * RejectedException whose message can be shown to the user as is.
+ */
+public class RentalService {
+
+   static final long RENTAL_PERIOD_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+   // order history page size used by the menu, and the largest one accepted
+   static final int ORDER_PAGE_SIZE = Integer.getInteger("gamerental.orderPageSize", 20);
+   static final int MAX_ORDER_PAGE_SIZE = 1000;
+
+   /**
+    * A request refused by the service, e.g. for lack of permission.
+    */
+   public static class RejectedException extends Exception {
+      private static final long serialVersionUID = 1L;
+
+      public RejectedException(String message) {
+         super(message);
+      }
+   }//end RejectedException
+
+   // ---- users and sessions
+
+   public static class CreateUserRequest {
+      public final String login;
+      public final String password;
+      public final String phoneNum;
+
+      public CreateUserRequest(String login, String password, String phoneNum) {
+         this.login = login;
+         this.password = password;
+         this.phoneNum = phoneNum;
+      }
+   }//end CreateUserRequest
+
+   public static class LogInRequest {
+      public final String login;
+      public final String password;
+
+      public LogInRequest(String login, String password) {
+         this.login = login;
+         this.password = password;
+      }
+   }//end LogInRequest
+
+   public static class ProfileView {
+      public final String login;
+      public final String role;
+      public final String favGames;
+      public final String phoneNum;
+      public final int numOverDueGames;
+
+      ProfileView(UserProfile profile) {
+         this.login = profile.getLogin();
+         this.role = profile.getRole();
+         this.favGames = profile.getFavGames();
+         this.phoneNum = profile.getPhoneNum();
+         this.numOverDueGames = profile.getNumOverDueGames();
+      }
+   }//end ProfileView
+
+   /**
+    * One page of the users listing a game among their favorites; managers
+    * only.
+    */
+   public static class FansRequest {
+      public final String gameName;
+      public final int pageSize;
+      public final String afterLogin;
+
+      /**
+       * @param gameName the game, as spelled in the favorites
+       * @param pageSize the number of logins per page
+       * @param afterLogin nextAfterLogin of the previous page, or null for the first page
+       */
+      public FansRequest(String gameName, int pageSize, String afterLogin) {
+         this.gameName = gameName;
+         this.pageSize = pageSize;
+         this.afterLogin = afterLogin;
+      }
+   }//end FansRequest
+
+   public static class FansResponse {
+      public final List<String> logins;
+      // null on the last page
+      public final String nextAfterLogin;
+
+      FansResponse(List<String> logins, String nextAfterLogin) {
+         this.logins = logins;
+         this.nextAfterLogin = nextAfterLogin;
+      }
+   }//end FansResponse
+
+   /**
+    * Changes one column of a Users row.  Customers and employees may only
+    * change their own password and phone number; managers may change any
+    * field of any user.
+    */
+   public static class UpdateUserRequest {
+      public enum Field { PASSWORD, PHONE_NUMBER, LOGIN, ROLE, OVERDUE_GAMES }
+
+      public final String login;
+      public final Field field;
+      public final String value;
+
+      public UpdateUserRequest(String login, Field field, String value) {
+         this.login = login;
+         this.field = field;
+         this.value = value;
+      }
+   }//end UpdateUserRequest
+
+   // ---- catalog
+
+   public static class CatalogRequest {
+      public enum By { GENRE, PRICE, PRICE_ASCENDING, PRICE_DESCENDING }
+
+      public final By by;
+      public final String genre;
+      public final BigDecimal price;
+
+      private CatalogRequest(By by, String genre, BigDecimal price) {
+         this.by = by;
+         this.genre = genre;
+         this.price = price;
+      }
+
+      public static CatalogRequest byGenre(String genre) { return new CatalogRequest(By.GENRE, genre, null); }
+      public static CatalogRequest byPrice(BigDecimal price) { return new CatalogRequest(By.PRICE, null, price); }
+      public static CatalogRequest sortedByPrice(boolean ascending) {
+         return new CatalogRequest(ascending ? By.PRICE_ASCENDING : By.PRICE_DESCENDING, null, null);
+      }
+   }//end CatalogRequest
+
+   public static class CatalogResponse {
+      public final List<CatalogCache.Game> games;
+
+      CatalogResponse(List<CatalogCache.Game> games) {
+         this.games = games;
+      }
+   }//end CatalogResponse
+
+   /**
+    * Changes one column of a Catalog row; managers only.
+    */
+   public static class UpdateCatalogRequest {
+      public enum Field { GAME_NAME, GENRE, PRICE, DESCRIPTION, IMAGE_URL }
+
+      public final String gameID;
+      public final Field field;
+      public final String value;
+
+      public UpdateCatalogRequest(String gameID, Field field, String value) {
+         this.gameID = gameID;
+         this.field = field;
+         this.value = value;
+      }
+   }//end UpdateCatalogRequest
+
+   // ---- orders
+
+   public static class OrderLine {
+      public final String gameID;
+      public final int units;
+
+      public OrderLine(String gameID, int units) {
+         this.gameID = gameID;
+         this.units = units;
+      }
+   }//end OrderLine
+
+   /**
+    * The games of an order with their units, one entry per game.  Games are
+    * kept by IdCodec.GAME number; the few whose IDs the codec cannot encode
+    * are kept by gameID instead, so that every game in the catalog can be
+    * ordered, and cost a map only when a basket holds one.
+    */
+   public static final class Basket {
+      private final IntIntMap _numbered;
+      private TreeMap<String, Integer> _named = null;
+
+      Basket(int expected) {
+         this._numbered = new IntIntMap(expected);
+      }
+
+      void add(String gameID, int units) {
+         int game = IdCodec.GAME.parseInt(gameID);
+         if (game >= 0) {
+            this._numbered.add(game, units);
+            return;
+         }//end if
+         if (this._named == null)
+            this._named = new TreeMap<String, Integer>();
+         this._named.merge(gameID, units, Integer::sum);
+      }
+
+      /** @return units per IdCodec.GAME number, in order of first entry */
+      public IntIntMap numbered() { return this._numbered; }
+
+      /** @return units per gameID of the games IdCodec cannot encode, in gameID order */
+      public Map<String, Integer> named() {
+         return this._named == null ? Collections.<String, Integer>emptyMap() : this._named;
+      }
+
+      public int size() { return this._numbered.size() + named().size(); }
+   }//end Basket
+
+   public static class PlaceOrderRequest {
+      public final List<OrderLine> lines;
+
+      public PlaceOrderRequest(List<OrderLine> lines) {
+         this.lines = Collections.unmodifiableList(new ArrayList<OrderLine>(lines));
+      }
+   }//end PlaceOrderRequest
+
+   public static class PlaceOrderResponse {
+      public final String rentalOrderID;
+      public final String trackingID;
+      public final int noOfGames;
+      public final BigDecimal totalPrice;
+      public final Timestamp orderTimestamp;
+      public final Timestamp dueDate;
+
+      PlaceOrderResponse(String rentalOrderID, String trackingID, int noOfGames, BigDecimal totalPrice,
+                         Timestamp orderTimestamp, Timestamp dueDate) {
+         this.rentalOrderID = rentalOrderID;
+         this.trackingID = trackingID;
+         this.noOfGames = noOfGames;
+         this.totalPrice = totalPrice;
+         this.orderTimestamp = orderTimestamp;
+         this.dueDate = dueDate;
+      }
+   }//end PlaceOrderResponse
+
+   /**
+    * One page of the session user's orders, newest first.  The first page
+    * has no token; each following page is requested with the token of the
+    * page before it.
+    */
+   public static class OrderHistoryRequest {
+      public final int pageSize;
+      public final String pageToken;
+
+      /**
+       * @param pageSize the number of orders per page
+       * @param pageToken nextPageToken of the previous page, or null for the first page
+       */
+      public OrderHistoryRequest(int pageSize, String pageToken) {
+         this.pageSize = pageSize;
+         this.pageToken = pageToken;
+      }
+
+      public static OrderHistoryRequest firstPage(int pageSize) {
+         return new OrderHistoryRequest(pageSize, null);
+      }
+   }//end OrderHistoryRequest
+
+   public static class OrderHistoryResponse {
+      public final List<String> rentalOrderIDs;
+      // null on the last page
+      public final String nextPageToken;
+
+      OrderHistoryResponse(List<String> rentalOrderIDs, String nextPageToken) {
+         this.rentalOrderIDs = rentalOrderIDs;
+         this.nextPageToken = nextPageToken;
+      }
+   }//end OrderHistoryResponse
+
+   /**
+    * An order with its shipment and its games, sorted by name.
+    */
+   public static class OrderDetail {
+      public static class Line {
+         public final String gameID;
+         public final String gameName;
+         public final int units;
+
+         Line(String gameID, String gameName, int units) {
+            this.gameID = gameID;
+            this.gameName = gameName;
+            this.units = units;
+         }
+      }//end Line
+
+      public final String rentalOrderID;
+      public final Timestamp orderTimestamp;
+      public final Timestamp dueDate;
+      public final BigDecimal totalPrice;
+      public final int noOfGames;
+      // null when the order has no shipment yet
+      public final String trackingID;
+      public final List<Line> lines;
+
+      OrderDetail(List<String> row) {
+         this.rentalOrderID = row.get(0);
+         this.orderTimestamp = Timestamp.valueOf(row.get(1));
+         this.dueDate = Timestamp.valueOf(row.get(2));
+         this.totalPrice = new BigDecimal(row.get(3));
+         this.noOfGames = Integer.parseInt(row.get(4));
+         this.trackingID = row.get(5);
+         List<String> ids = PgArray.parse(row.get(6));
+         List<String> names = PgArray.parse(row.get(7));
+         List<String> units = PgArray.parse(row.get(8));
+         List<Line> lines = new ArrayList<Line>(ids.size());
+         for (int i = 0; i < ids.size(); ++i)
+            lines.add(new Line(ids.get(i), names.get(i), Integer.parseInt(units.get(i))));
+         this.lines = Collections.unmodifiableList(lines);
+      }
+   }//end OrderDetail
+
+   // ---- tracking
+
+   public static class TrackingInfoResponse {
+      public final String trackingID;
+      public final String courierName;
+      public final String rentalOrderID;
+      public final String currentLocation;
+      public final String status;
+      public final String lastUpdateDate;
+      public final String additionalComments;
+
+      TrackingInfoResponse(String trackingID, List<String> row) {
+         this.trackingID = trackingID;
+         this.courierName = row.get(0);
+         this.rentalOrderID = row.get(1);
+         this.currentLocation = row.get(2);
+         this.status = row.get(3);
+         this.lastUpdateDate = row.get(4);
+         this.additionalComments = row.get(5);
+      }
+   }//end TrackingInfoResponse
+
+   /**
+    * Changes one column of a TrackingInfo row; employees and managers only.
+    */
+   public static class UpdateTrackingRequest {
+      public enum Field { STATUS, CURRENT_LOCATION, COURIER_NAME, ADDITIONAL_COMMENTS }
+
+      public final String trackingID;
+      public final Field field;
+      public final String value;
+
+      public UpdateTrackingRequest(String trackingID, Field field, String value) {
+         this.trackingID = trackingID;
+         this.field = field;
+         this.value = value;
+      }
+   }//end UpdateTrackingRequest
+
+   // status of the shipment created with every order
+   static final String ORDER_PLACED = "Order Placed";
+
+   private final GameRental _esql;
+   private final Analytics _analytics;
+
+   public RentalService(GameRental esql) {
+      this._esql = esql;
+      this._analytics = new Analytics(esql);
+   }//end RentalService
+
+   public GameRental getDatabase() {
+      return this._esql;
+   }
+
+   /**
+    * Registers a new customer
+    *
+    * @throws RentalService.RejectedException when the login is taken
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public void createUser(CreateUserRequest request) throws SQLException, RejectedException {
+      if (this._esql.executeExists("SELECT 1 FROM Users WHERE login = ?", request.login))
+         throw new RejectedException("Username already exists. Please choose a different username.");
+      this._esql.executeUpdate(
+         "INSERT INTO Users (login, password, role, favGames, phoneNum, numOverdueGames) VALUES (?, ?, 'customer', null, ?, 0)",
+         request.login, request.password, request.phoneNum);
+   }//end createUser
+
+   /**
+    * Checks the credentials and opens a session
+    *
+    * @return the session profile, or null if the login or password is wrong
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public UserProfile logIn(LogInRequest request) throws SQLException {
+      return UserProfile.logIn(this._esql, request.login, request.password);
+   }//end logIn
+
+   public ProfileView viewProfile(UserProfile session) {
+      return new ProfileView(session);
+   }//end viewProfile
+
+   /**
+    * @return the favorite games of a user, in the order the user listed them
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<String> favoriteGames(String login) throws SQLException {
+      List<String> games = new ArrayList<String>();
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+               "SELECT gameName FROM FavoriteGames WHERE login = ? ORDER BY position", login))
+         games.add(row.get(0));
+      return games;
+   }//end favoriteGames
+
+   /**
+    * Lists the users with a game among their favorites, a page at a time in
+    * login order, seeking past the last login of the previous page in
+    * favoritegames_gamename_idx
+    *
+    * @throws RentalService.RejectedException when the session is not a manager or the page size is invalid
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public FansResponse fans(UserProfile session, FansRequest request) throws SQLException, RejectedException {
+      if (!session.isManager())
+         throw new RejectedException("Only managers can look up users by favorite game.");
+      if (request.pageSize <= 0 || request.pageSize > MAX_ORDER_PAGE_SIZE)
+         throw new RejectedException("Page size must be between 1 and " + MAX_ORDER_PAGE_SIZE);
+      // one row more than the page tells whether there is a next page
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(
+         "SELECT login FROM FavoriteGames WHERE gameName = ? AND login > ? ORDER BY login LIMIT ?",
+         request.gameName.trim(), request.afterLogin == null ? "" : request.afterLogin, request.pageSize + 1);
+      List<String> logins = new ArrayList<String>();
+      for (int i = 0; i < rows.size() && i < request.pageSize; ++i)
+         logins.add(rows.get(i).get(0));
+      String next = rows.size() > request.pageSize ? logins.get(logins.size() - 1) : null;
+      return new FansResponse(logins, next);
+   }//end fans
+
+   /**
+    * @return the number of users with a game among their favorites, counted in favoritegames_gamename_idx
+    * @throws RentalService.RejectedException when the session is not a manager
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int countFans(UserProfile session, String gameName) throws SQLException, RejectedException {
+      if (!session.isManager())
+         throw new RejectedException("Only managers can look up users by favorite game.");
+      return Integer.parseInt(this._esql.executeQueryAndReturnResult(
+         "SELECT count(*) FROM FavoriteGames WHERE gameName = ?", gameName.trim()).get(0).get(0));
+   }//end countFans
+
+   /**
+    * Updates a user.  When the session user changed their own row, the
+    * session profile is reloaded (and follows a renamed login).
+    *
+    * @return the number of rows updated
+    * @throws RentalService.RejectedException when the session may not make the change
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public int updateUser(UserProfile session, UpdateUserRequest request) throws SQLException, RejectedException {
+      boolean self = request.login.equals(session.getLogin());
+      boolean ownContact = self && (request.field == UpdateUserRequest.Field.PASSWORD
+                                    || request.field == UpdateUserRequest.Field.PHONE_NUMBER);
+      if (!session.isManager() && !ownContact)
+         throw new RejectedException("Only managers can change that.");
+
+      String column;
+      Object value = request.value;
+      switch (request.field) {
+         case PASSWORD: column = "password"; break;
+         case PHONE_NUMBER: column = "phoneNum"; break;
+         case LOGIN: column = "login"; break;
+         case ROLE: column = "role"; break;
+         case OVERDUE_GAMES:
+            column = "numOverDueGames";
+            value = parseInt(request.value);
+            break;
+         default: throw new RejectedException("Unknown field " + request.field);
+      }//end switch
+      int updated = this._esql.executeUpdate("UPDATE Users Set " + column + " = ? where login = ?", value, request.login);
+      if (self && updated > 0) {
+         if (request.field == UpdateUserRequest.Field.LOGIN)
+            session.setLogin(request.value);
+         session.refresh(this._esql);
+      }//end if
+      return updated;
+   }//end updateUser
+
+   /**
+    * Browses the catalog; served from the catalog cache
+    *
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   public CatalogResponse browseCatalog(CatalogRequest request) throws SQLException {
+      CatalogCache catalog = this._esql.getCatalog();
+      switch (request.by) {
+         case GENRE: return new CatalogResponse(catalog.byGenre(request.genre));
+         case PRICE: return new CatalogResponse(catalog.byPrice(request.price));
+         case PRICE_ASCENDING: return new CatalogResponse(catalog.sortedByPrice(true));
+         default: return new CatalogResponse(catalog.sortedByPrice(false));
+      }//end switch
+   }//end browseCatalog
+
+   /**
+    * Searches the catalog by keywords in the game names and descriptions,
+    * filtered by genre, platform and price range; served from the search
+    * index of the catalog cache
+    *
+    * @throws RentalService.RejectedException when the page is out of range
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   public CatalogSearch.Result searchCatalog(CatalogSearch.Query query) throws SQLException, RejectedException {
+      if (query.pageSize <= 0 || query.pageSize > CatalogSearch.MAX_PAGE_SIZE)
+         throw new RejectedException("Page size must be between 1 and " + CatalogSearch.MAX_PAGE_SIZE);
+      if (query.offset < 0 || query.offset + query.pageSize > CatalogSearch.MAX_RESULTS)
+         throw new RejectedException("Only the first " + CatalogSearch.MAX_RESULTS + " results can be paged through.");
+      return this._esql.getCatalog().search(query);
+   }//end searchCatalog
+
+   /**
+    * Applies a single-column Catalog update, tells the other processes to
+    * drop their catalog cache and patches this process's cache with the
+    * new row.
+    *
+    * @throws RentalService.RejectedException when the session is not a manager or the game does not exist
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public void updateCatalog(UserProfile session, final UpdateCatalogRequest request) throws SQLException, RejectedException {
+      if (!session.isManager())
+         throw new RejectedException("Only managers can update the catalog.");
+      if (!this._esql.getCatalog().contains(request.gameID))
+         throw new RejectedException("No game with ID " + request.gameID);
+
+      final String column;
+      final Object value;
+      switch (request.field) {
+         case GAME_NAME: column = "gameName"; value = request.value; break;
+         case GENRE: column = "genre"; value = request.value; break;
+         case PRICE: column = "price"; value = parseDecimal(request.value); break;
+         case DESCRIPTION: column = "description"; value = request.value; break;
+         case IMAGE_URL: column = "imageURL"; value = request.value; break;
+         default: throw new RejectedException("Unknown field " + request.field);
+      }//end switch
+      this._esql.inTransaction(() -> {
+         this._esql.executeUpdate("UPDATE catalog Set " + column + " = ? where gameID = ?", value, request.gameID);
+         CatalogCache.recordChange(this._esql);
+         return null;
+      });
+      this._esql.getCatalog().refresh(request.gameID);
+   }//end updateCatalog
+
+   /**
+    * @return the price of a game, or null if it is not in the catalog
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   public BigDecimal getGamePrice(String gameID) throws SQLException {
+      return this._esql.getCatalog().price(gameID);
+   }//end getGamePrice
+
+   /**
+    * Looks up the prices of all the given games in the catalog cache.  Games
+    * that are not in the catalog are left out of the returned map.
+    *
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   public Map<String, BigDecimal> getGamePrices(Collection<String> gameIDs) throws SQLException {
+      Map<String, BigDecimal> prices = new HashMap<String, BigDecimal>();
+      for (String gameID : gameIDs) {
+         BigDecimal price = this._esql.getCatalog().price(gameID);
+         if (price != null)
+            prices.put(gameID, price);
+      }//end for
+      return prices;
+   }//end getGamePrices
+
+   /**
+    * Prices the basket from the catalog and places the order for the
+    * session user, due back in 30 days
+    *
+    * @throws RentalService.RejectedException when the basket is empty or holds an unknown game
+    * @throws java.sql.SQLException when failed to write the order
+    */
+   public PlaceOrderResponse placeOrder(UserProfile session, PlaceOrderRequest request) throws SQLException, RejectedException {
+      if (request.lines.isEmpty())
+         throw new RejectedException("The order has no games.");
+      Basket basket = basket(request.lines);
+      int totalGames = 0;
+      for (int i = 0; i < basket.numbered().size(); ++i)
+         totalGames += basket.numbered().valueAt(i);
+      for (int units : basket.named().values())
+         totalGames += units;
+      BigDecimal totalPrice = BigDecimal.valueOf(priceCents(this._esql.getCatalog(), basket), 2);
+      Timestamp orderTimestamp = new Timestamp(System.currentTimeMillis());
+      Timestamp dueDate = new Timestamp(orderTimestamp.getTime() + RENTAL_PERIOD_MILLIS);
+      String rentalOrderID = this._esql.nextRentalOrderID();
+      String trackingID = this._esql.nextTrackingID();
+      insertOrder(rentalOrderID, trackingID, session.getLogin(), basket,
+                  totalGames, totalPrice, orderTimestamp, dueDate);
+      return new PlaceOrderResponse(rentalOrderID, trackingID, totalGames, totalPrice, orderTimestamp, dueDate);
+   }//end placeOrder
+
+   /**
+    * Writes the order header, its games and the initial tracking row as one
+    * transaction, together with the order's share of the analytics rollups.
+    * The games are sent as three array parameters unnested into one INSERT,
+    * so an order costs the same number of round trips and one commit
+    * whatever its size.  Each line keeps the catalog price it was ordered
+    * at, which the revenue rollups are computed from.
+    *
+    * @throws java.sql.SQLException when failed to write the order
+    */
+   public void insertOrder(final String rentalOrderID, final String trackingID, final String login,
+                           final Basket basket, final int totalGames, final BigDecimal totalPrice,
+                           final Timestamp orderTimestamp, final Timestamp dueDate) throws SQLException {
+      final List<String> gameIDs = new ArrayList<String>(basket.size());
+      final List<Integer> units = new ArrayList<Integer>(basket.size());
+      final List<BigDecimal> prices = new ArrayList<BigDecimal>(basket.size());
+      CatalogCache catalog = this._esql.getCatalog();
+      IntIntMap numbered = basket.numbered();
+      for (int i = 0; i < numbered.size(); ++i) {
+         gameIDs.add(IdCodec.GAME.format(numbered.keyAt(i)));
+         units.add(numbered.valueAt(i));
+         prices.add(catalog.price(IdCodec.GAME.format(numbered.keyAt(i))));
+      }//end for
+      for (Map.Entry<String, Integer> line : basket.named().entrySet()) {
+         gameIDs.add(line.getKey());
+         units.add(line.getValue());
+         prices.add(catalog.price(line.getKey()));
+      }//end for
+      this._esql.inTransaction(() -> {
+         this._esql.executeUpdate("INSERT INTO RentalOrder (rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) VALUES (?, ?, ?, ?, ?, ?)",
+                                  rentalOrderID, login, totalGames, totalPrice, orderTimestamp, dueDate);
+         this._esql.executeUpdate("INSERT INTO GamesInOrder (rentalOrderID, gameID, unitsOrdered, unitPrice)"
+                                  + " SELECT ?, G.gameID, G.units, G.price"
+                                  + " FROM unnest(CAST(? AS varchar[]), CAST(? AS int[]), CAST(? AS decimal[])) AS G(gameID, units, price)",
+                                  rentalOrderID, PgArray.format(gameIDs), PgArray.format(units), PgArray.format(prices));
+         this._esql.executeUpdate("INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate) VALUES (?, ?, ?, 'Warehouse', 'CourierX', ?)",
+                                  trackingID, rentalOrderID, ORDER_PLACED, orderTimestamp);
+         // appends deltas only, which Analytics folds into the shared rollup rows later
+         this._analytics.recordOrder(login, basket, totalGames, totalPrice, orderTimestamp, ORDER_PLACED);
+         return null;
+      });
+   }//end insertOrder
+
+   /**
+    * Collects the order lines by game.  GamesInOrder is keyed on
+    * (rentalOrderID, gameID), so a game entered twice becomes one line with
+    * the units added up.
+    *
+    * @throws RentalService.RejectedException when units are not positive
+    */
+   public static Basket basket(List<OrderLine> lines) throws RejectedException {
+      Basket basket = new Basket(lines.size());
+      for (OrderLine line : lines) {
+         if (line.units <= 0)
+            throw new RejectedException("Units ordered must be positive.");
+         basket.add(line.gameID, line.units);
+      }//end for
+      return basket;
+   }//end basket
+
+   /**
+    * Prices the basket from the catalog
+    *
+    * @return the total price in cents
+    * @throws RentalService.RejectedException when a game is not in the catalog
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   static long priceCents(CatalogCache catalog, Basket basket) throws SQLException, RejectedException {
+      long totalCents = 0;
+      IntIntMap numbered = basket.numbered();
+      for (int i = 0; i < numbered.size(); ++i) {
+         long cents = catalog.priceCents(numbered.keyAt(i));
+         if (cents < 0)
+            throw new RejectedException("No game with ID " + IdCodec.GAME.format(numbered.keyAt(i)));
+         totalCents += cents * numbered.valueAt(i);
+      }//end for
+      for (Map.Entry<String, Integer> line : basket.named().entrySet()) {
+         long cents = catalog.priceCents(line.getKey());
+         if (cents < 0)
+            throw new RejectedException("No game with ID " + line.getKey());
+         totalCents += cents * line.getValue();
+      }//end for
+      return totalCents;
+   }//end priceCents
+
+   /**
+    * Reads one page of order history by seeking past the last order of the
+    * previous page on (orderTimestamp, rentalOrderID) in the
+    * rentalorder_login_ts_idx order, so every page costs the same as the
+    * first whatever its depth.
+    *
+    * @throws RentalService.RejectedException when the page size or token is invalid
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public OrderHistoryResponse orderHistory(UserProfile session, OrderHistoryRequest request) throws SQLException, RejectedException {
+      if (request.pageSize <= 0 || request.pageSize > MAX_ORDER_PAGE_SIZE)
+         throw new RejectedException("Page size must be between 1 and " + MAX_ORDER_PAGE_SIZE);
+      List<List<String>> rows;
+      // one row more than the page tells whether there is a next page
+      if (request.pageToken == null) {
+         rows = this._esql.executeQueryAndReturnResult(
+            "SELECT rentalOrderID, orderTimestamp FROM RentalOrder WHERE login = ?"
+            + " ORDER BY orderTimestamp DESC, rentalOrderID DESC LIMIT ?",
+            session.getLogin(), request.pageSize + 1);
+      } else {
+         String[] after = decodePageToken(request.pageToken);
+         rows = this._esql.executeQueryAndReturnResult(
+            "SELECT rentalOrderID, orderTimestamp FROM RentalOrder WHERE login = ?"
+            + " AND (orderTimestamp, rentalOrderID) < (CAST(? AS timestamp), ?)"
+            + " ORDER BY orderTimestamp DESC, rentalOrderID DESC LIMIT ?",
+            session.getLogin(), after[0], after[1], request.pageSize + 1);
+      }//end if
+      List<String> ids = new ArrayList<String>(Math.min(rows.size(), request.pageSize));
+      for (List<String> row : rows.subList(0, Math.min(rows.size(), request.pageSize)))
+         ids.add(row.get(0));
+      String next = null;
+      if (rows.size() > request.pageSize) {
+         List<String> last = rows.get(request.pageSize - 1);
+         next = encodePageToken(last.get(1), last.get(0));
+      }//end if
+      return new OrderHistoryResponse(ids, next);
+   }//end orderHistory
+
+   /**
+    * @return an opaque token for the position after the given order
+    */
+   static String encodePageToken(String orderTimestamp, String rentalOrderID) {
+      return Base64.getUrlEncoder().withoutPadding()
+         .encodeToString((orderTimestamp + "\n" + rentalOrderID).getBytes(StandardCharsets.UTF_8));
+   }//end encodePageToken
+
+   /**
+    * @return the orderTimestamp and rentalOrderID the token points after
+    */
+   static String[] decodePageToken(String token) throws RejectedException {
+      try {
+         String position = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+         int split = position.indexOf('\n');
+         if (split > 0) {
+            String orderTimestamp = position.substring(0, split);
+            // rejects tokens that were not made by encodePageToken
+            Timestamp.valueOf(orderTimestamp);
+            return new String[] { orderTimestamp, position.substring(split + 1) };
+         }//end if
+      }catch (IllegalArgumentException e) {
+         // falls through.
+      }//end try
+      throw new RejectedException("Invalid page token.");
+   }//end decodePageToken
+
+   // the order header with its game lines aggregated into parallel arrays
+   // by a lateral subquery, so lines do not multiply the header row
+   static final String SELECT_ORDER_DETAIL =
+      "SELECT R.rentalOrderID, R.orderTimestamp, R.dueDate, R.totalPrice, R.noOfGames,"
+      + " (SELECT T.trackingID FROM TrackingInfo T WHERE T.rentalOrderID = R.rentalOrderID"
+      + "  ORDER BY T.lastUpdateDate DESC LIMIT 1),"
+      + " L.gameIDs, L.gameNames, L.units"
+      + " FROM RentalOrder R CROSS JOIN LATERAL"
+      + " (SELECT array_agg(G.gameID ORDER BY C.gameName, G.gameID) AS gameIDs,"
+      + "         array_agg(C.gameName ORDER BY C.gameName, G.gameID) AS gameNames,"
+      + "         array_agg(G.unitsOrdered ORDER BY C.gameName, G.gameID) AS units"
+      + "  FROM GamesInOrder G INNER JOIN Catalog C ON C.gameID = G.gameID"
+      + "  WHERE G.rentalOrderID = R.rentalOrderID) L"
+      + " WHERE R.login = ? AND R.rentalOrderID = ?";
+
+   /**
+    * Reads an order, its tracking ID and its games in one query
+    *
+    * @return the order, or null if the session user has no such order
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public OrderDetail orderInfo(UserProfile session, String rentalOrderID) throws SQLException {
+      List<List<String>> result = this._esql.executeQueryAndReturnResult(
+         SELECT_ORDER_DETAIL, session.getLogin(), rentalOrderID);
+      return result.isEmpty() ? null : new OrderDetail(result.get(0));
+   }//end orderInfo
+
+   /**
+    * @return the shipment, or null if it is not one of the session user's
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public TrackingInfoResponse trackingInfo(UserProfile session, String trackingID) throws SQLException {
+      List<List<String>> result = this._esql.executeQueryAndReturnResult(
+         "SELECT T.courierName, T.rentalOrderID, T.currentLocation, T.status, T.lastUpdateDate, T.additionalComments FROM TrackingInfo T INNER JOIN RentalOrder R ON R.rentalOrderID = T.rentalOrderID WHERE R.login = ? AND T.trackingID = ?",
+         session.getLogin(), trackingID);
+      return result.isEmpty() ? null : new TrackingInfoResponse(trackingID, result.get(0));
+   }//end trackingInfo
+
+   /**
+    * Changes one field of a shipment and its lastUpdateDate in one statement;
+    * a status change also moves the shipment between the status counts
+    *
+    * @throws RentalService.RejectedException when the session is a customer or the shipment does not exist
+    * @throws java.sql.SQLException when failed to execute the update
+    */
+   public void updateTracking(UserProfile session, final UpdateTrackingRequest request) throws SQLException, RejectedException {
+      requireStaff(session);
+      if (!this._esql.executeExists("SELECT 1 FROM TrackingInfo WHERE trackingID = ?", request.trackingID))
+         throw new RejectedException("No shipment with tracking ID " + request.trackingID);
+      String column;
+      switch (request.field) {
+         case STATUS: column = "status"; break;
+         case CURRENT_LOCATION: column = "currentLocation"; break;
+         case COURIER_NAME: column = "courierName"; break;
+         case ADDITIONAL_COMMENTS: column = "additionalComments"; break;
+         default: throw new RejectedException("Unknown field " + request.field);
+      }//end switch
+      final String sql = "UPDATE TrackingInfo Set " + column + " = ?, lastUpdateDate = ? where trackingID = ?";
+      final Timestamp now = new Timestamp(System.currentTimeMillis());
+      if (request.field != UpdateTrackingRequest.Field.STATUS) {
+         this._esql.executeUpdate(sql, request.value, now, request.trackingID);
+         return;
+      }//end if
+      this._esql.inTransaction(() -> {
+         List<List<String>> old = this._esql.executeQueryAndReturnResult(
+            "SELECT status FROM TrackingInfo WHERE trackingID = ? FOR UPDATE", request.trackingID);
+         this._esql.executeUpdate(sql, request.value, now, request.trackingID);
+         if (!old.isEmpty())
+            this._analytics.recordStatusChanges(Collections.singletonList(new String[] { old.get(0).get(0), request.value }));
+         return null;
+      });
+   }//end updateTracking
+
+   /**
+    * Applies a burst of courier scans.  Scans are first coalesced to the
+    * latest one per trackingID, then written gamerental.trackingBatchSize
+    * at a time, each batch in one transaction of two statements: a SELECT
+    * that locks and reads its shipments, to move the changed ones between
+    * the status counts, and one UPDATE over the batch unnested from array
+    * parameters.  A scan older than what is already stored is ignored, so
+    * replays and out of order feeds never move a shipment backwards.
+    *
+    * @return the number of shipments that changed
+    * @throws RentalService.RejectedException when the session is a customer
+    * @throws java.sql.SQLException when failed to execute the updates
+    */
+   public int ingestTrackingEvents(UserProfile session, List<TrackingEvent> events) throws SQLException, RejectedException {
+      requireStaff(session);
+      Map<String, TrackingEvent> latest = new LinkedHashMap<String, TrackingEvent>();
+      for (TrackingEvent event : events) {
+         TrackingEvent seen = latest.get(event.trackingID);
+         if (seen == null || !event.scannedAt.before(seen.scannedAt))
+            latest.put(event.trackingID, event);
+      }//end for
+      final String lock = "SELECT trackingID, status, lastUpdateDate FROM TrackingInfo"
+                        + " WHERE trackingID = ANY(CAST(? AS varchar[])) ORDER BY trackingID FOR UPDATE";
+      final String update = "UPDATE TrackingInfo T Set status = E.status, currentLocation = E.currentLocation, lastUpdateDate = E.scannedAt"
+                          + " FROM unnest(CAST(? AS varchar[]), CAST(? AS varchar[]), CAST(? AS varchar[]), CAST(? AS timestamp[]))"
+                          + " AS E(trackingID, status, currentLocation, scannedAt)"
+                          + " WHERE T.trackingID = E.trackingID AND T.lastUpdateDate <= E.scannedAt";
+      int batchSize = Integer.getInteger("gamerental.trackingBatchSize", 1000);
+      List<TrackingEvent> pending = new ArrayList<TrackingEvent>(latest.values());
+      int updated = 0;
+      for (int from = 0; from < pending.size(); from += batchSize) {
+         final List<TrackingEvent> batch = pending.subList(from, Math.min(from + batchSize, pending.size()));
+         List<String> trackingIDs = new ArrayList<String>(batch.size());
+         List<String> statuses = new ArrayList<String>(batch.size());
+         List<String> locations = new ArrayList<String>(batch.size());
+         List<Timestamp> scannedAt = new ArrayList<Timestamp>(batch.size());
+         for (TrackingEvent event : batch) {
+            trackingIDs.add(event.trackingID);
+            statuses.add(event.status);
+            locations.add(event.currentLocation);
+            scannedAt.add(event.scannedAt);
+         }//end for
+         final String ids = PgArray.format(trackingIDs);
+         final Object[] params = { ids, PgArray.format(statuses), PgArray.format(locations), PgArray.format(scannedAt) };
+         updated += this._esql.inTransaction(() -> {
+            Map<String, List<String>> current = new HashMap<String, List<String>>();
+            for (List<String> row : this._esql.executeQueryAndReturnResult(lock, ids))
+               current.put(row.get(0), row);
+            List<String[]> changes = new ArrayList<String[]>();
+            for (TrackingEvent event : batch) {
+               List<String> row = current.get(event.trackingID);
+               if (row != null && !Timestamp.valueOf(row.get(2)).after(event.scannedAt))
+                  changes.add(new String[] { row.get(1), event.status });
+            }//end for
+            int count = this._esql.executeUpdate(update, params);
+            this._analytics.recordStatusChanges(changes);
+            return count;
+         });
+      }//end for
+      return updated;
+   }//end ingestTrackingEvents
+
+   // ---- manager reports, read from the analytics rollups
+
+   /**
+    * @return units and revenue per day and genre between two days, inclusive
+    * @throws RentalService.RejectedException when the session is not a manager or a day is not yyyy-mm-dd
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<Analytics.RevenueBucket> revenueReport(UserProfile session, String fromDay, String toDay)
+         throws SQLException, RejectedException {
+      requireManager(session);
+      try {
+         return this._analytics.revenue(java.time.LocalDate.parse(fromDay.trim()).toString(),
+                                        java.time.LocalDate.parse(toDay.trim()).toString());
+      }catch (java.time.format.DateTimeParseException e) {
+         throw new RejectedException("Days are written yyyy-mm-dd.");
+      }//end try
+   }//end revenueReport
+
+   public List<Analytics.GameTotal> topGames(UserProfile session, int n) throws SQLException, RejectedException {
+      requireManager(session);
+      return this._analytics.topGames(Math.max(1, Math.min(n, MAX_ORDER_PAGE_SIZE)));
+   }//end topGames
+
+   public List<Analytics.RenterTotal> topRenters(UserProfile session, int n) throws SQLException, RejectedException {
+      requireManager(session);
+      return this._analytics.topRenters(Math.max(1, Math.min(n, MAX_ORDER_PAGE_SIZE)));
+   }//end topRenters
+
+   public Map<String, Long> shipmentStatuses(UserProfile session) throws SQLException, RejectedException {
+      requireManager(session);
+      return this._analytics.shipmentStatuses();
+   }//end shipmentStatuses
+
+   /**
+    * Recomputes the analytics rollups from the orders and shipments
+    *
+    * @throws RentalService.RejectedException when the session is not a manager
+    * @throws java.sql.SQLException when failed to recompute
+    * @see Analytics#rebuild
+    */
+   public void rebuildAnalytics(UserProfile session) throws SQLException, RejectedException {
+      requireManager(session);
+      this._analytics.rebuild();
+   }//end rebuildAnalytics
+
+   private static void requireManager(UserProfile session) throws RejectedException {
+      if (!session.isManager())
+         throw new RejectedException("Only managers can see the reports.");
+   }//end requireManager
+
+   private static void requireStaff(UserProfile session) throws RejectedException {
+      if (!session.isManager() && !session.isEmployee())
+         throw new RejectedException("Only employees and managers can update tracking information.");
+   }//end requireStaff
+
+   private static Integer parseInt(String value) throws RejectedException {
+      try {
+         return Integer.valueOf(value.trim());
+      }catch (NumberFormatException e) {
+         throw new RejectedException("Your input is invalid!");
+      }//end try
+   }//end parseInt
+
+   private static BigDecimal parseDecimal(String value) throws RejectedException {
+      try {
+         return new BigDecimal(value.trim());
+      }catch (NumberFormatException e) {
+         throw new RejectedException("Your input is invalid!");
+      }//end try
+   }//end parseDecimal
+
+}//end RentalService
@@ -0,0 +1,50 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Typed, read-only view of the current row of a streamed query.  The same
+ * instance is reused for every row, so handlers must copy out what they
+ * want to keep.
+ */
+public class ResultRow {
+
+   private final ResultSet _rs;
+   private final int _numCol;
+
+   ResultRow(ResultSet rs) throws SQLException {
+      this._rs = rs;
+      this._numCol = rs.getMetaData().getColumnCount();
+   }//end ResultRow
+
+   public int getColumnCount() { return this._numCol; }
+
+   public String getString(int column) throws SQLException {
+      return this._rs.getString(column);
+   }
+
+   public int getInt(int column) throws SQLException {
+      return this._rs.getInt(column);
+   }
+
+   public long getLong(int column) throws SQLException {
+      return this._rs.getLong(column);
+   }
+
+   public BigDecimal getBigDecimal(int column) throws SQLException {
+      return this._rs.getBigDecimal(column);
+   }
+
+   public Timestamp getTimestamp(int column) throws SQLException {
+      return this._rs.getTimestamp(column);
+   }
+
+   /**
+    * @return true when the column last read with a typed getter was NULL
+    */
+   public boolean wasNull() throws SQLException {
+      return this._rs.wasNull();
+   }
+
+}//end ResultRow
@@ -0,0 +1,66 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors that run every submitted session on a thread of its own.
+ *
+ * On Java 21 and later the threads are virtual threads, so a process can
+ * hold tens of thousands of mostly idle sessions for the cost of their
+ * stacks on the heap.  The code is compiled for older releases as well,
+ * so the virtual thread API is looked up reflectively; without it the
+ * sessions run on daemon platform threads.
+ */
+public class SessionExecutors {
+
+   private SessionExecutors() {
+   }
+
+   /**
+    * @return whether this JVM runs sessions on virtual threads
+    */
+   public static boolean isVirtual() {
+      return virtualThreadFactory("probe") != null;
+   }//end isVirtual
+
+   /**
+    * Creates an executor starting a new thread per task
+    *
+    * @param name prefix of the thread names
+    * @return the executor
+    */
+   public static ExecutorService newThreadPerSession(final String name) {
+      ThreadFactory factory = virtualThreadFactory(name);
+      if (factory != null) {
+         try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+               .invoke(null, factory);
+         }catch (ReflectiveOperationException e) {
+            // ignored.
+         }//end try
+      }//end if
+      final AtomicInteger count = new AtomicInteger();
+      return Executors.newCachedThreadPool(r -> {
+         Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+         t.setDaemon(true);
+         return t;
+      });
+   }//end newThreadPerSession
+
+   /**
+    * @return Thread.ofVirtual().name(name + "-", 1).factory(), or null
+    *         before Java 21
+    */
+   static ThreadFactory virtualThreadFactory(String name) {
+      try {
+         Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+         Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+         builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+         return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+      }catch (ReflectiveOperationException | RuntimeException e) {
+         return null;
+      }//end try
+   }//end virtualThreadFactory
+
+}//end SessionExecutors
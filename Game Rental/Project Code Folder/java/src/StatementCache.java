@@ -0,0 +1,132 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded LRU cache of PreparedStatements for one physical
+ * connection, keyed by the SQL template.  Hot lookups are parsed and
+ * planned once and then re-executed with freshly bound parameters.
+ *
+ * The bundled driver binds parameters into the SQL text on the client, so
+ * on its own it would have the server parse and plan every execution.
+ * Statements the server can PREPARE are therefore switched to server-side
+ * prepare: the first execution sends PREPARE and EXECUTE, later ones only
+ * EXECUTE with the new parameters, and the plan lives as long as the
+ * statement stays in the cache.  -Dgamerental.serverPrepare=false turns
+ * this off.
+ *
+ * Statements handed out by the cache belong to the cache: callers close
+ * their ResultSets but never the statement itself.
+ */
+public class StatementCache {
+
+   // default number of statements kept open per connection
+   public static final int DEFAULT_SIZE = 64;
+   static final boolean SERVER_PREPARE = Boolean.parseBoolean(System.getProperty("gamerental.serverPrepare", "true"));
+
+   private final Connection _connection;
+   private final int _maxSize;
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+
+   /**
+    * Creates a statement cache on top of the given connection
+    *
+    * @param connection the physical connection the statements are prepared on
+    * @param maxSize the maximum number of statements kept open
+    */
+   public StatementCache(Connection connection, int maxSize) {
+      this._connection = connection;
+      this._maxSize = maxSize < 1 ? 1 : maxSize;
+      // access-ordered so the eldest entry is always the least recently used
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= StatementCache.this._maxSize)
+               return false;
+            closeQuietly(eldest.getValue());
+            ++StatementCache.this._evictions;
+            return true;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the prepared statement for the SQL template, preparing it on
+    * the first use.  Any parameters left over from a previous use are
+    * cleared.
+    *
+    * @param sql the SQL template with '?' placeholders
+    * @return a prepared statement ready to be bound
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public synchronized PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt != null) {
+         ++this._hits;
+         stmt.clearParameters();
+         return stmt;
+      }//end if
+      ++this._misses;
+      stmt = this._connection.prepareStatement(sql);
+      if (SERVER_PREPARE && serverPreparable(sql))
+         ((org.postgresql.PGStatement) stmt).setUseServerPrepare(true);
+      this._statements.put(sql, stmt);
+      return stmt;
+   }//end prepare
+
+   /**
+    * @return true if the server accepts the statement in PREPARE, which
+    *         takes only SELECT, INSERT, UPDATE and DELETE, with or
+    *         without a WITH clause
+    */
+   static boolean serverPreparable(String sql) {
+      String head = sql.trim();
+      int end = 0;
+      while (end < head.length() && Character.isLetter(head.charAt(end)))
+         ++end;
+      head = head.substring(0, end).toUpperCase();
+      return head.equals("SELECT") || head.equals("INSERT") || head.equals("UPDATE")
+          || head.equals("DELETE") || head.equals("WITH");
+   }//end serverPreparable
+
+   public synchronized long getHits() { return this._hits; }
+   public synchronized long getMisses() { return this._misses; }
+   public synchronized long getEvictions() { return this._evictions; }
+   public synchronized int size() { return this._statements.size(); }
+
+   /**
+    * Closes every cached statement.  The cache can still be used afterwards
+    * and will simply prepare the statements again.
+    */
+   public synchronized void clear() {
+      Iterator<PreparedStatement> it = this._statements.values().iterator();
+      while (it.hasNext()) {
+         closeQuietly(it.next());
+         it.remove();
+      }//end while
+   }//end clear
+
+   @Override
+   public synchronized String toString() {
+      return "size=" + this._statements.size() + "/" + this._maxSize
+           + " hits=" + this._hits
+           + " misses=" + this._misses
+           + " evictions=" + this._evictions;
+   }//end toString
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try {
+         stmt.close();
+      }catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
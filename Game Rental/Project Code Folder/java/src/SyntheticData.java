@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Random;
+
+/**
+ * Deterministic generator of a scaled-up GameRental dataset, used as a
+ * BulkLoader.Source so the rows go straight into the database without
+ * being staged on disk.
+ *
+ * Every value is a pure function of the seed and the row number, which lets
+ * the five tables be generated independently and in parallel while staying
+ * consistent: an order's games, units and total are recomputed identically
+ * by the RentalOrder and the GamesInOrder generators.  Games are picked with
+ * a Zipf distribution (a few titles are rented far more than the rest) and
+ * so are the users placing orders (a few heavy renters).
+ *
+ * IDs keep the formats of data/: userN logins, gameNNNN, gamerentalorderN
+ * and trackingidN, with order and tracking numbers starting at 1000.
+ */
+public class SyntheticData implements BulkLoader.Source {
+
+   static final String[] GENRES = { "Action", "Shooter", "Platform", "Sports", "Role-Playing", "Misc",
+                                    "Racing", "Fighting", "Simulation", "Puzzle", "Adventure", "Strategy" };
+   static final String[] PLATFORMS = { "Wii", "DS", "PS2", "PS3", "PS4", "X360", "XOne", "PC", "GBA", "3DS", "Switch" };
+   static final String[] PUBLISHERS = { "Nintendo", "Electronic Arts", "Activision", "Ubisoft", "THQ",
+                                        "Sony Computer Entertainment", "Take-Two Interactive", "Sega", "Capcom" };
+   static final String[] ADJECTIVES = { "Super", "Dark", "Final", "Grand", "Mega", "Lost", "Eternal", "Crimson",
+                                        "Shadow", "Ultimate", "Iron", "Galactic", "Wild", "Silent", "Hyper" };
+   static final String[] NOUNS = { "Quest", "Legends", "Racers", "Kingdom", "Warriors", "Odyssey", "Arena",
+                                   "Frontier", "Chronicles", "Tactics", "Strike", "Saga", "Empire", "Drift" };
+   static final String[] STATUSES = { "Delayed", "Ready for Pickup", "Arrived at Facility", "Out for Delivery",
+                                      "Returned to Sender", "Attempted Delivery", "Delivered", "In Transit" };
+   static final String[] COURIERS = { "USPS", "TNT", "FedEx", "UPS", "DHL" };
+   static final String[] LOCATIONS = { "Detroit,MI", "Nashville,TN", "Seattle,WA", "Miami,FL", "Los Angeles,CA",
+                                       "San Francisco,CA", "Oakland,CA", "Fort Worth,TX", "Long Beach,CA",
+                                       "Phoenix,AZ", "Jacksonville,FL", "Omaha,NE", "Houston,TX", "San Antonio,TX" };
+
+   static final long FIRST_ORDER = 1000;
+   static final int MAX_LINES_PER_ORDER = 5;
+   static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+   // orders are spread over 2012-01-01 .. 2024-01-01
+   static final long FIRST_ORDER_MILLIS = java.sql.Timestamp.valueOf("2012-01-01 00:00:00").getTime();
+   static final long ORDER_SPAN_MILLIS = 12L * 365 * DAY_MILLIS;
+
+   private final long _seed;
+   private final int _users;
+   private final int _games;
+   private final long _orders;
+   private final Zipf _gamePopularity;
+   private final Zipf _renterActivity;
+
+   /**
+    * @param users number of Users rows
+    * @param games number of Catalog rows
+    * @param orders number of RentalOrder (and TrackingInfo) rows
+    * @param seed the same seed always produces the same data
+    */
+   public SyntheticData(int users, int games, long orders, long seed) {
+      this._users = users;
+      this._games = games;
+      this._orders = orders;
+      this._seed = seed;
+      this._gamePopularity = new Zipf(games, 1.0);
+      this._renterActivity = new Zipf(users, 0.8);
+   }//end SyntheticData
+
+   @Override
+   public Reader open(String table) throws IOException {
+      switch (table) {
+         case "Users":
+            return new RowReader("login,password,role,favGames,phoneNumber,numOverDueGames", this._users, this::user);
+         case "Catalog":
+            return new RowReader("gameID,gameName,genre,price,description,imageURL", this._games, this::game);
+         case "RentalOrder":
+            return new RowReader("rentalorderid,login,noOfGames,totalprice,orderTimestamp,dueDate", this._orders, this::order);
+         case "TrackingInfo":
+            return new RowReader("trackingID,rentalorderid,status,currentLocation,courierName,lastUpdateDate,additionalComments",
+                                 this._orders, this::tracking);
+         case "GamesInOrder":
+            return new RowReader("rentalorderid,gameID,unitsOrdered,unitPrice", this._orders, this::gamesInOrder);
+         default:
+            throw new IOException("No generator for table " + table);
+      }//end switch
+   }//end open
+
+   // ---- value functions; each depends only on the seed and the row number
+
+   private Random random(int table, long row) {
+      // neighbouring seeds give java.util.Random correlated first draws, so mix first
+      long z = this._seed * 1000003L + table * 0x9E3779B97F4A7C15L + row;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return new Random(z ^ (z >>> 31));
+   }
+
+   static String login(long user) { return "user" + user; }
+   static String gameID(long game) { return IdCodec.GAME.format(game + 1); }
+
+   static String gameName(long game) {
+      return ADJECTIVES[(int) (game % ADJECTIVES.length)] + " "
+           + NOUNS[(int) ((game / ADJECTIVES.length) % NOUNS.length)] + " " + (game + 1);
+   }
+
+   /** @return the price in cents, 15.99 .. 50.99 */
+   long priceCents(long game) {
+      return (15 + random(2, game).nextInt(36)) * 100 + 99;
+   }
+
+   private void user(long i, StringBuilder out) {
+      Random r = random(1, i);
+      String role = i % 100 == 0 ? "manager" : i % 33 == 0 ? "employee" : "customer";
+      StringBuilder fav = new StringBuilder();
+      int favourites = r.nextInt(4);
+      for (int f = 0; f < favourites; ++f)
+         fav.append(f == 0 ? "" : ",").append(gameName(this._gamePopularity.sample(r)));
+      field(out, login(i)); comma(out);
+      field(out, "pw" + Integer.toString(r.nextInt(Integer.MAX_VALUE), 36)); comma(out);
+      field(out, role); comma(out);
+      field(out, fav.toString()); comma(out);
+      field(out, String.format("+1-%03d-%03d-%04d", 200 + r.nextInt(800), r.nextInt(1000), r.nextInt(10000))); comma(out);
+      out.append(0);
+   }//end user
+
+   private void game(long i, StringBuilder out) {
+      Random r = random(3, i);
+      long cents = priceCents(i);
+      field(out, gameID(i)); comma(out);
+      field(out, gameName(i)); comma(out);
+      field(out, GENRES[r.nextInt(GENRES.length)]); comma(out);
+      out.append(cents / 100).append('.').append(cents % 100 < 10 ? "0" : "").append(cents % 100); comma(out);
+      field(out, "Platform: " + PLATFORMS[r.nextInt(PLATFORMS.length)] + ";  Publisher: "
+                 + PUBLISHERS[r.nextInt(PUBLISHERS.length)]); comma(out);
+      field(out, "");
+   }//end game
+
+   /**
+    * The games of an order: distinct game indexes and their units
+    */
+   private int lines(long order, long[] games, int[] units) {
+      Random r = random(4, order);
+      int wanted = 1 + r.nextInt(MAX_LINES_PER_ORDER);
+      int n = 0;
+      for (int attempt = 0; attempt < wanted * 3 && n < wanted; ++attempt) {
+         long g = this._gamePopularity.sample(r);
+         boolean duplicate = false;
+         for (int k = 0; k < n; ++k)
+            duplicate |= games[k] == g;
+         if (!duplicate) {
+            games[n] = g;
+            units[n] = 1 + r.nextInt(3);
+            ++n;
+         }//end if
+      }//end for
+      return n;
+   }//end lines
+
+   private long orderMillis(long order) {
+      return FIRST_ORDER_MILLIS + (long) (random(5, order).nextDouble() * ORDER_SPAN_MILLIS) / 1000 * 1000;
+   }
+
+   private void order(long i, StringBuilder out) {
+      long[] games = new long[MAX_LINES_PER_ORDER];
+      int[] units = new int[MAX_LINES_PER_ORDER];
+      int n = lines(i, games, units);
+      int noOfGames = 0;
+      long cents = 0;
+      for (int k = 0; k < n; ++k) {
+         noOfGames += units[k];
+         cents += units[k] * priceCents(games[k]);
+      }//end for
+      long placed = orderMillis(i);
+      field(out, IdCodec.RENTAL_ORDER.format(FIRST_ORDER + i)); comma(out);
+      field(out, login(this._renterActivity.sample(random(6, i)))); comma(out);
+      out.append(noOfGames); comma(out);
+      out.append(cents / 100).append('.').append(cents % 100 < 10 ? "0" : "").append(cents % 100); comma(out);
+      field(out, new java.sql.Timestamp(placed).toString().substring(0, 19)); comma(out);
+      field(out, new java.sql.Date(placed + 30 * DAY_MILLIS).toString());
+   }//end order
+
+   private void tracking(long i, StringBuilder out) {
+      Random r = random(7, i);
+      field(out, IdCodec.TRACKING.format(FIRST_ORDER + i)); comma(out);
+      field(out, IdCodec.RENTAL_ORDER.format(FIRST_ORDER + i)); comma(out);
+      field(out, STATUSES[r.nextInt(STATUSES.length)]); comma(out);
+      field(out, LOCATIONS[r.nextInt(LOCATIONS.length)]); comma(out);
+      field(out, COURIERS[r.nextInt(COURIERS.length)]); comma(out);
+      field(out, new java.sql.Timestamp(orderMillis(i) + 2 * DAY_MILLIS).toString().substring(0, 19)); comma(out);
+      field(out, "");
+   }//end tracking
+
+   private void gamesInOrder(long i, StringBuilder out) {
+      long[] games = new long[MAX_LINES_PER_ORDER];
+      int[] units = new int[MAX_LINES_PER_ORDER];
+      int n = lines(i, games, units);
+      for (int k = 0; k < n; ++k) {
+         if (k > 0)
+            out.append('\n');
+         field(out, IdCodec.RENTAL_ORDER.format(FIRST_ORDER + i)); comma(out);
+         field(out, gameID(games[k])); comma(out);
+         out.append(units[k]); comma(out);
+         long cents = priceCents(games[k]);
+         out.append(cents / 100).append('.').append(cents % 100 < 10 ? "0" : "").append(cents % 100);
+      }//end for
+   }//end gamesInOrder
+
+   private static void comma(StringBuilder out) {
+      out.append(',');
+   }
+
+   private static void field(StringBuilder out, String value) {
+      out.append('"');
+      for (int i = 0; i < value.length(); ++i) {
+         char c = value.charAt(i);
+         if (c == '"')
+            out.append('"');
+         out.append(c);
+      }//end for
+      out.append('"');
+   }//end field
+
+   /**
+    * Writes one or more CSV lines (without the final newline) for a row number.
+    */
+   interface RowWriter {
+      void write(long row, StringBuilder out);
+   }
+
+   /**
+    * Reader producing a header line and then rows 0 .. count-1 on demand.
+    */
+   static class RowReader extends Reader {
+      private final RowWriter _writer;
+      private final long _count;
+      private final StringBuilder _buffer = new StringBuilder();
+      private int _pos = 0;
+      private long _next = 0;
+
+      RowReader(String header, long count, RowWriter writer) {
+         this._writer = writer;
+         this._count = count;
+         this._buffer.append(header).append('\n');
+      }
+
+      @Override
+      public int read(char[] cbuf, int off, int len) {
+         if (len == 0)
+            return 0;
+         // refill with whole rows until there is something to hand out
+         while (this._pos >= this._buffer.length()) {
+            if (this._next >= this._count)
+               return -1;
+            this._buffer.setLength(0);
+            this._pos = 0;
+            for (int i = 0; i < 256 && this._next < this._count; ++i) {
+               int before = this._buffer.length();
+               this._writer.write(this._next++, this._buffer);
+               if (this._buffer.length() > before)
+                  this._buffer.append('\n');
+            }//end for
+         }//end while
+         int n = Math.min(len, this._buffer.length() - this._pos);
+         this._buffer.getChars(this._pos, this._pos + n, cbuf, off);
+         this._pos += n;
+         return n;
+      }//end read
+
+      @Override
+      public void close() {
+      }
+   }//end RowReader
+
+   /**
+    * Zipf distribution over 0 .. n-1 sampled through its cumulative table,
+    * rank 0 being the most frequent.
+    */
+   static class Zipf {
+      private final double[] _cdf;
+
+      Zipf(int n, double exponent) {
+         this._cdf = new double[n];
+         double sum = 0;
+         for (int k = 0; k < n; ++k) {
+            sum += 1.0 / Math.pow(k + 1, exponent);
+            this._cdf[k] = sum;
+         }//end for
+         for (int k = 0; k < n; ++k)
+            this._cdf[k] /= sum;
+      }
+
+      int sample(Random r) {
+         double u = r.nextDouble();
+         int lo = 0, hi = this._cdf.length - 1;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this._cdf[mid] < u)
+               lo = mid + 1;
+            else
+               hi = mid;
+         }//end while
+         return lo;
+      }
+   }//end Zipf
+
+}//end SyntheticData
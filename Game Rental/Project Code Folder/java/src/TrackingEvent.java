@@ -0,0 +1,38 @@
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * One courier scan: the new status and location of a shipment at a point
+ * in time.
+ */
+public class TrackingEvent {
+
+   public final String trackingID;
+   public final String status;
+   public final String currentLocation;
+   public final Timestamp scannedAt;
+
+   public TrackingEvent(String trackingID, String status, String currentLocation, Timestamp scannedAt) {
+      this.trackingID = trackingID;
+      this.status = status;
+      this.currentLocation = currentLocation;
+      this.scannedAt = scannedAt;
+   }//end TrackingEvent
+
+   /**
+    * Parses a courier feed line: trackingID,status,currentLocation,time
+    * with the time as yyyy-mm-dd hh:mm:ss
+    *
+    * @param line one CSV line of the feed
+    * @return the event
+    * @throws IllegalArgumentException when the line is malformed
+    */
+   public static TrackingEvent parse(String line) {
+      List<String> fields = Csv.parseLine(line);
+      if (fields.size() != 4)
+         throw new IllegalArgumentException("Expected 4 fields but got " + fields.size() + ": " + line);
+      return new TrackingEvent(fields.get(0), fields.get(1), fields.get(2),
+                               Timestamp.valueOf(fields.get(3).trim()));
+   }//end parse
+
+}//end TrackingEvent
@@ -0,0 +1,79 @@
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * The logged-in user's row from Users, loaded with one query at log in and
+ * kept for the whole session.  Profile views and role checks read it
+ * instead of going back to the database; the profile update methods call
+ * refresh() after changing the user's own row.
+ */
+public class UserProfile {
+
+   // favorites come from FavoriteGames, joined back into the listed order
+   static final String SELECT_PROFILE =
+      "SELECT login, role,"
+      + " (SELECT string_agg(F.gameName, ',' ORDER BY F.position) FROM FavoriteGames F WHERE F.login = Users.login),"
+      + " phoneNum, numOverDueGames FROM Users";
+
+   private String _login;
+   private String _role;
+   private String _favGames;
+   private String _phoneNum;
+   private int _numOverDueGames;
+
+   private UserProfile(List<String> row) {
+      set(row);
+   }//end UserProfile
+
+   /**
+    * Checks the credentials and loads the profile in the same query
+    *
+    * @param esql the database
+    * @param login the user name
+    * @param password the user password
+    * @return the profile, or null if the login or password is wrong
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static UserProfile logIn(GameRental esql, String login, String password) throws SQLException {
+      List<List<String>> result = esql.executeQueryAndReturnResult(
+         SELECT_PROFILE + " WHERE login = ? AND password = ?", login, password);
+      return result.isEmpty() ? null : new UserProfile(result.get(0));
+   }//end logIn
+
+   /**
+    * Reloads the profile after the user's own row was updated.  A profile
+    * whose login was renamed must be given the new login first.
+    *
+    * @param esql the database
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public void refresh(GameRental esql) throws SQLException {
+      List<List<String>> result = esql.executeQueryAndReturnResult(
+         SELECT_PROFILE + " WHERE login = ?", this._login);
+      if (!result.isEmpty())
+         set(result.get(0));
+   }//end refresh
+
+   private void set(List<String> row) {
+      this._login = row.get(0);
+      this._role = row.get(1) == null ? "" : row.get(1).trim();
+      this._favGames = row.get(2);
+      this._phoneNum = row.get(3);
+      this._numOverDueGames = row.get(4) == null ? 0 : Integer.parseInt(row.get(4));
+   }//end set
+
+   /**
+    * Points the profile at a new login after the user renamed themselves.
+    */
+   void setLogin(String login) { this._login = login; }
+
+   public String getLogin() { return this._login; }
+   public String getRole() { return this._role; }
+   public String getFavGames() { return this._favGames; }
+   public String getPhoneNum() { return this._phoneNum; }
+   public int getNumOverDueGames() { return this._numOverDueGames; }
+
+   public boolean isManager() { return this._role.equalsIgnoreCase("manager"); }
+   public boolean isEmployee() { return this._role.equalsIgnoreCase("employee"); }
+
+}//end UserProfile
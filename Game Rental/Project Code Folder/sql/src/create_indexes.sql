@@ -0,0 +1,37 @@
+/* Customer order history: viewAllOrders and viewRecentOrders read the
+   newest orders of a login a page at a time, seeking past the last
+   (orderTimestamp, rentalOrderID) of the previous page, so every page
+   starts with an index seek */
+CREATE INDEX rentalorder_login_ts_idx
+   ON RentalOrder (login, orderTimestamp DESC, rentalOrderID DESC);
+
+/* OverdueEngine: the orders falling due since the last tick, with what it
+   adds to Users.numOverDueGames, read by an index-only range scan */
+CREATE INDEX rentalorder_duedate_idx
+   ON RentalOrder (dueDate) INCLUDE (login, noOfGames);
+
+/* FK side of TrackingInfo -> RentalOrder, used by the order detail join
+   and by ON DELETE CASCADE */
+CREATE INDEX trackinginfo_rentalorderid_idx
+   ON TrackingInfo (rentalOrderID);
+
+/* FK side of GamesInOrder -> Catalog; lookups by rentalOrderID are
+   already served by the (rentalOrderID, gameID) primary key */
+CREATE INDEX gamesinorder_gameid_idx
+   ON GamesInOrder (gameID);
+
+/* Favorites-based targeting: the users whose favorites include a game,
+   in login order, read straight from the index */
+CREATE INDEX favoritegames_gamename_idx
+   ON FavoriteGames (gameName, login);
+
+/* Manager reports: top games and top renters read the first n entries */
+CREATE INDEX gamerentals_units_idx
+   ON GameRentals (units DESC);
+
+CREATE INDEX rentertotals_spent_idx
+   ON RenterTotals (spent DESC);
+
+/* OrderSnapshot refreshes read the orders placed in the last minute */
+CREATE INDEX rentalorder_ordertimestamp_idx
+   ON RentalOrder (orderTimestamp);
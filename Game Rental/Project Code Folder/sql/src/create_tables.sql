@@ -3,6 +3,17 @@ DROP TABLE IF EXISTS Catalog CASCADE;
 DROP TABLE IF EXISTS RentalOrder CASCADE;
 DROP TABLE IF EXISTS TrackingInfo CASCADE;
 DROP TABLE IF EXISTS GamesInOrder CASCADE;
+DROP TABLE IF EXISTS FavoriteGames CASCADE;
+DROP TABLE IF EXISTS OverdueWatermark;
+DROP TABLE IF EXISTS CatalogVersion;
+DROP TABLE IF EXISTS DailyGenreRevenue;
+DROP TABLE IF EXISTS GameRentals;
+DROP TABLE IF EXISTS RenterTotals;
+DROP TABLE IF EXISTS ShipmentStatusCounts;
+DROP TABLE IF EXISTS DailyGenreRevenueDelta;
+DROP TABLE IF EXISTS GameRentalsDelta;
+DROP TABLE IF EXISTS RenterTotalsDelta;
+DROP TABLE IF EXISTS ShipmentStatusDelta;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -48,8 +59,102 @@ CREATE TABLE TrackingInfo ( trackingID varchar(50) NOT NULL,
 CREATE TABLE GamesInOrder ( rentalOrderID varchar(50) NOT NULL,
                            gameID varchar(50) NOT NULL,
                            unitsOrdered integer NOT NULL,
+                           unitPrice decimal(10,2) NOT NULL,
                            PRIMARY KEY(rentalOrderID, gameID),
                            FOREIGN KEY(rentalOrderID) REFERENCES RentalOrder(rentalOrderID) ON DELETE CASCADE,
                            FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
                            ON DELETE CASCADE
 );
+
+/* Users.favGames split into one row per favorite, in the order listed.
+   Users.favGames keeps the text as loaded from users.csv; the application
+   reads favorites from here, filled by migrate_favorite_games.sql */
+CREATE TABLE FavoriteGames ( login varchar(50) NOT NULL,
+                             position integer NOT NULL,
+                             gameName varchar(300) NOT NULL,
+                             PRIMARY KEY(login, position),
+                             FOREIGN KEY(login) REFERENCES Users(login)
+                             ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+/* One row: RentalOrder.dueDate up to which Users.numOverDueGames has been
+   brought up to date by OverdueEngine.  Counters loaded with the data are
+   taken as correct as of table creation */
+CREATE TABLE OverdueWatermark ( checkedUpTo timestamp NOT NULL );
+INSERT INTO OverdueWatermark VALUES (LOCALTIMESTAMP);
+
+/* One row: bumped with every change to Catalog made through the
+   application, in the same transaction, and stored in each catalog file,
+   so a process can tell whether a file is older than the table.  Starts
+   at the creation time in milliseconds, so a file left over from an
+   earlier database is older than a recreated one */
+CREATE TABLE CatalogVersion ( version bigint NOT NULL );
+INSERT INTO CatalogVersion VALUES (CAST(EXTRACT(EPOCH FROM now()) * 1000 AS bigint));
+
+/* Rollups behind the manager reports, maintained by Analytics from the
+   deltas below; recomputed with "analytics rebuild" after a bulk load */
+CREATE TABLE DailyGenreRevenue ( day date NOT NULL,
+                                 genre varchar(30) NOT NULL,
+                                 units bigint NOT NULL,
+                                 revenue decimal(14,2) NOT NULL,
+                                 PRIMARY KEY(day, genre)
+);
+
+CREATE TABLE GameRentals ( gameID varchar(50) NOT NULL,
+                           orders bigint NOT NULL,
+                           units bigint NOT NULL,
+                           PRIMARY KEY(gameID),
+                           FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
+                           ON DELETE CASCADE
+);
+
+CREATE TABLE RenterTotals ( login varchar(50) NOT NULL,
+                            orders bigint NOT NULL,
+                            games bigint NOT NULL,
+                            spent decimal(14,2) NOT NULL,
+                            PRIMARY KEY(login),
+                            FOREIGN KEY(login) REFERENCES Users(login)
+                            ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE TABLE ShipmentStatusCounts ( status varchar(50) NOT NULL,
+                                    shipments bigint NOT NULL,
+                                    PRIMARY KEY(status)
+);
+
+/* Append-only changes to the rollups above, written in the same
+   transaction as the orders and shipments they summarize and folded into
+   the rollups by Analytics.fold(), so concurrent orders never wait on the
+   same rollup row */
+CREATE TABLE DailyGenreRevenueDelta ( day date NOT NULL,
+                                      genre varchar(30) NOT NULL,
+                                      units bigint NOT NULL,
+                                      revenue decimal(14,2) NOT NULL
+);
+
+CREATE TABLE GameRentalsDelta ( gameID varchar(50) NOT NULL,
+                                orders bigint NOT NULL,
+                                units bigint NOT NULL,
+                                FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
+                                ON DELETE CASCADE
+);
+
+CREATE TABLE RenterTotalsDelta ( login varchar(50) NOT NULL,
+                                 orders bigint NOT NULL,
+                                 games bigint NOT NULL,
+                                 spent decimal(14,2) NOT NULL,
+                                 FOREIGN KEY(login) REFERENCES Users(login)
+                                 ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE TABLE ShipmentStatusDelta ( status varchar(50) NOT NULL,
+                                   shipments bigint NOT NULL
+);
+
+DROP SEQUENCE IF EXISTS rentalorder_id_seq;
+DROP SEQUENCE IF EXISTS trackingid_seq;
+
+/* Each nextval reserves a block of 50 IDs for one application process,
+   so INCREMENT BY has to match IdAllocator.BLOCK_SIZE */
+CREATE SEQUENCE rentalorder_id_seq INCREMENT BY 50 START WITH 1000;
+CREATE SEQUENCE trackingid_seq INCREMENT BY 50 START WITH 1000;
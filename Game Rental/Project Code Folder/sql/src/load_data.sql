@@ -1,4 +1,5 @@
-/* Replace the location to where you saved the data files*/
+/* Replace the location to where you saved the data files.
+   To load from the client machine instead, use java/scripts/load_data.sh */
 COPY Users
 FROM '/home/csgrads/<net_id>/cs166_project_phase3/data/users.csv'
 WITH DELIMITER ',' CSV HEADER;
@@ -18,3 +19,17 @@ WITH DELIMITER ',' CSV HEADER;
 COPY GamesInOrder
 FROM '/home/csgrads/<net_id>/cs166_project_phase3/data/gamesinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+/* Start the ID sequences after the highest loaded ID */
+SELECT setval('rentalorder_id_seq',
+              (SELECT COALESCE(max(CAST(substring(rentalOrderID from '[0-9]+$') AS integer)), 999) + 1 FROM RentalOrder),
+              false);
+
+SELECT setval('trackingid_seq',
+              (SELECT COALESCE(max(CAST(substring(trackingID from '[0-9]+$') AS integer)), 999) + 1 FROM TrackingInfo),
+              false);
+
+/* Catalog files written before the load are stale; running processes
+   reload the catalog */
+UPDATE CatalogVersion SET version = version + 1;
+NOTIFY catalog_changed;
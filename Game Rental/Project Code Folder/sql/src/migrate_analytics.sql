@@ -0,0 +1,39 @@
+/* Adds the analytics rollups to an existing database.  They start empty;
+   run
+      java GameRental <dbname> <port> <user> analytics rebuild
+   once, with no orders being placed, to fill them from the orders and
+   shipments already there. */
+CREATE TABLE IF NOT EXISTS DailyGenreRevenue ( day date NOT NULL,
+                                               genre varchar(30) NOT NULL,
+                                               units bigint NOT NULL,
+                                               revenue decimal(14,2) NOT NULL,
+                                               PRIMARY KEY(day, genre)
+);
+
+CREATE TABLE IF NOT EXISTS GameRentals ( gameID varchar(50) NOT NULL,
+                                         orders bigint NOT NULL,
+                                         units bigint NOT NULL,
+                                         PRIMARY KEY(gameID),
+                                         FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
+                                         ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS RenterTotals ( login varchar(50) NOT NULL,
+                                          orders bigint NOT NULL,
+                                          games bigint NOT NULL,
+                                          spent decimal(14,2) NOT NULL,
+                                          PRIMARY KEY(login),
+                                          FOREIGN KEY(login) REFERENCES Users(login)
+                                          ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS ShipmentStatusCounts ( status varchar(50) NOT NULL,
+                                                  shipments bigint NOT NULL,
+                                                  PRIMARY KEY(status)
+);
+
+CREATE INDEX IF NOT EXISTS gamerentals_units_idx
+   ON GameRentals (units DESC);
+
+CREATE INDEX IF NOT EXISTS rentertotals_spent_idx
+   ON RenterTotals (spent DESC);
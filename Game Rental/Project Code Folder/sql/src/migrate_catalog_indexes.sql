@@ -0,0 +1,7 @@
+/* Drops the Catalog browsing indexes from an existing database.  Catalog
+   browsing reads CatalogCache, so no query reads Catalog by genre or
+   price any more and the indexes only slowed Catalog updates and bulk
+   loads. */
+DROP INDEX IF EXISTS catalog_genre_idx;
+
+DROP INDEX IF EXISTS catalog_price_idx;
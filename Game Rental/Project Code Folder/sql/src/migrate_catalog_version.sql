@@ -0,0 +1,7 @@
+/* Adds the CatalogVersion that catalog files are checked against to an
+   existing database.  Catalog files written before it carry no version
+   and are reloaded from the database on first use. */
+CREATE TABLE IF NOT EXISTS CatalogVersion ( version bigint NOT NULL );
+
+INSERT INTO CatalogVersion
+SELECT CAST(EXTRACT(EPOCH FROM now()) * 1000 AS bigint) WHERE NOT EXISTS (SELECT 1 FROM CatalogVersion);
@@ -0,0 +1,27 @@
+/* Moves the comma separated Users.favGames strings into FavoriteGames.
+   Safe to run again: it creates what is missing and rebuilds the rows from
+   Users.favGames, so run it after every load of the Users table.
+   Blank entries and repeats of a game within one user are dropped. */
+CREATE TABLE IF NOT EXISTS FavoriteGames ( login varchar(50) NOT NULL,
+                                           position integer NOT NULL,
+                                           gameName varchar(300) NOT NULL,
+                                           PRIMARY KEY(login, position),
+                                           FOREIGN KEY(login) REFERENCES Users(login)
+                                           ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS favoritegames_gamename_idx
+   ON FavoriteGames (gameName, login);
+
+BEGIN;
+DELETE FROM FavoriteGames;
+INSERT INTO FavoriteGames (login, position, gameName)
+SELECT login, row_number() OVER (PARTITION BY login ORDER BY min(position)), gameName
+  FROM (SELECT U.login, F.position, trim(F.gameName) AS gameName
+          FROM Users U,
+               unnest(string_to_array(U.favGames, ',')) WITH ORDINALITY AS F(gameName, position)) S
+ WHERE gameName <> ''
+ GROUP BY login, gameName;
+COMMIT;
+
+ANALYZE FavoriteGames;
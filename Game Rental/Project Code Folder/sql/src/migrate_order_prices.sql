@@ -0,0 +1,11 @@
+/* Adds the price each game was ordered at to an existing database.
+   Lines already in GamesInOrder are given the current catalog price; run
+      java GameRental <dbname> <port> <user> analytics rebuild
+   afterwards so the revenue rollups are computed from the new column. */
+ALTER TABLE GamesInOrder ADD COLUMN IF NOT EXISTS unitPrice decimal(10,2);
+
+UPDATE GamesInOrder G SET unitPrice = C.price
+  FROM Catalog C
+ WHERE C.gameID = G.gameID AND G.unitPrice IS NULL;
+
+ALTER TABLE GamesInOrder ALTER COLUMN unitPrice SET NOT NULL;
@@ -0,0 +1,4 @@
+/* Adds the index OrderSnapshot refreshes read new orders through to an
+   existing database. */
+CREATE INDEX IF NOT EXISTS rentalorder_ordertimestamp_idx
+   ON RentalOrder (orderTimestamp);
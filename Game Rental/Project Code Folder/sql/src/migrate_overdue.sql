@@ -0,0 +1,12 @@
+/* Adds what OverdueEngine needs to an existing database.  The watermark
+   starts at the time of the migration: orders that fell due before it are
+   left to the counters as they are; run
+      java GameRental <dbname> <port> <user> overdue rebuild
+   to recount them from RentalOrder instead. */
+CREATE TABLE IF NOT EXISTS OverdueWatermark ( checkedUpTo timestamp NOT NULL );
+
+INSERT INTO OverdueWatermark
+SELECT LOCALTIMESTAMP WHERE NOT EXISTS (SELECT 1 FROM OverdueWatermark);
+
+CREATE INDEX IF NOT EXISTS rentalorder_duedate_idx
+   ON RentalOrder (dueDate) INCLUDE (login, noOfGames);
@@ -0,0 +1,27 @@
+/* Adds the delta tables the analytics rollups are folded from to an
+   existing database.  Stop the application first: processes still
+   running the old code keep upserting the rollups directly. */
+CREATE TABLE IF NOT EXISTS DailyGenreRevenueDelta ( day date NOT NULL,
+                                                    genre varchar(30) NOT NULL,
+                                                    units bigint NOT NULL,
+                                                    revenue decimal(14,2) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS GameRentalsDelta ( gameID varchar(50) NOT NULL,
+                                              orders bigint NOT NULL,
+                                              units bigint NOT NULL,
+                                              FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
+                                              ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS RenterTotalsDelta ( login varchar(50) NOT NULL,
+                                               orders bigint NOT NULL,
+                                               games bigint NOT NULL,
+                                               spent decimal(14,2) NOT NULL,
+                                               FOREIGN KEY(login) REFERENCES Users(login)
+                                               ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS ShipmentStatusDelta ( status varchar(50) NOT NULL,
+                                                 shipments bigint NOT NULL
+);